@@ -0,0 +1,302 @@
+/*
+ * Copyright (c) Steven P. Goldsmith. All rights reserved.
+ *
+ * Created by Steven P. Goldsmith on March 18, 2016
+ * sgoldsmith@codeferm.com
+ */
+package com.codeferm.opencv;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.opencv.core.Mat;
+
+/**
+ * Encodes frames on its own thread, so an encoder or disk stall does not stall
+ * analysis or let a live camera's buffer overflow. write copies the frame into
+ * a pooled Mat and queues it for the wrapped sink. The queue is bounded and
+ * what happens when it is full is set by Policy. The pool only allocates
+ * until it holds a Mat for every queue slot.
+ *
+ * write and free must be called from one thread. Sinks that key on the frame
+ * Mat passed to write, like EventFrameSink, see copies and can not be
+ * wrapped.
+ *
+ * @author sgoldsmith
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+final class AsyncFrameSink extends FrameSink {
+	/**
+	 * Logger.
+	 */
+	// CHECKSTYLE:OFF ConstantName - Logger is static final, not a constant
+	private static final Logger logger = Logger.getLogger(AsyncFrameSink.class // NOPMD
+			.getName());
+	// CHECKSTYLE:ON ConstantName
+	/**
+	 * Default queue capacity in frames.
+	 */
+	public static final int DEFAULT_CAPACITY = 30;
+
+	/**
+	 * What write does when the queue is full.
+	 */
+	public enum Policy {
+		/**
+		 * Wait for the encoder, no frames are lost.
+		 */
+		BLOCK,
+		/**
+		 * Drop the oldest queued frame, so the newest frames are kept.
+		 */
+		DROP_OLDEST,
+		/**
+		 * Drop the frame being written, so queued frames are kept.
+		 */
+		DROP_NEWEST
+	}
+
+	/**
+	 * Wrapped sink. Only written by the encoder thread.
+	 */
+	private final FrameSink sink;
+	/**
+	 * Full queue policy.
+	 */
+	private final Policy policy;
+	/**
+	 * Frames waiting for encoder.
+	 */
+	private final BlockingQueue<Mat> queue;
+	/**
+	 * Pool of queued frame copies. Replaced by setTracker before the first
+	 * write, which the queue publishes to the encoder thread.
+	 */
+	private MatPool matPool = new MatPool();
+	/**
+	 * Marks end of stream in queue.
+	 */
+	private final Mat endOfStream = new Mat();
+	/**
+	 * Encoder thread.
+	 */
+	private final Thread encoderThread;
+	/**
+	 * Frames dropped because queue was full.
+	 */
+	private final AtomicLong droppedFrames = new AtomicLong();
+	/**
+	 * Time encoder spent writing in nanoseconds.
+	 */
+	private volatile long encodeTime;
+	/**
+	 * Most frames queued.
+	 */
+	private int peakQueueDepth;
+	/**
+	 * Encoder failure or null.
+	 */
+	private volatile RuntimeException failure;
+
+	/**
+	 * Create sink and start encoder thread.
+	 *
+	 * @param sink
+	 *            Sink frames are encoded to. Freed with this sink.
+	 * @param capacity
+	 *            Queue capacity in frames.
+	 * @param policy
+	 *            Full queue policy.
+	 */
+	public AsyncFrameSink(final FrameSink sink, final int capacity, final Policy policy) {
+		super(sink.getOutputFile());
+		this.sink = sink;
+		this.policy = policy;
+		queue = new ArrayBlockingQueue<Mat>(capacity);
+		encoderThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				encode();
+			}
+		}, "AsyncFrameSink encoder");
+		encoderThread.start();
+	}
+
+	/**
+	 * Encode queued frames until end of stream.
+	 */
+	private void encode() {
+		try {
+			while (true) {
+				final Mat mat = queue.take();
+				if (mat == endOfStream) {
+					break;
+				}
+				final long start = System.nanoTime();
+				sink.write(mat);
+				encodeTime += System.nanoTime() - start;
+				matPool.release(mat);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (RuntimeException e) {
+			// Reported by next write or free
+			failure = e;
+			// Unblock writer waiting on a full queue
+			drain();
+		}
+	}
+
+	/**
+	 * Return queued frames to pool.
+	 */
+	private void drain() {
+		Mat mat;
+		while ((mat = queue.poll()) != null) {
+			if (mat != endOfStream) {
+				matPool.release(mat);
+			}
+		}
+	}
+
+	/**
+	 * Queue copy of frame for encoder.
+	 *
+	 * @param frame
+	 *            Frame. Can be reused as soon as write returns.
+	 * @throws IllegalStateException
+	 *             If encoder failed.
+	 */
+	@Override
+	public void write(final Mat frame) {
+		checkFailure();
+		if (policy == Policy.DROP_NEWEST && queue.remainingCapacity() == 0) {
+			droppedFrames.incrementAndGet();
+			return;
+		}
+		final Mat copy = matPool.lease(frame.rows(), frame.cols(), frame.type());
+		frame.copyTo(copy);
+		if (policy == Policy.DROP_OLDEST) {
+			// Encoder may take a frame in between, so retry until queued
+			while (!queue.offer(copy)) {
+				final Mat oldest = queue.poll();
+				if (oldest != null) {
+					matPool.release(oldest);
+					droppedFrames.incrementAndGet();
+				}
+			}
+		} else {
+			try {
+				queue.put(copy);
+			} catch (InterruptedException e) {
+				matPool.release(copy);
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("Interrupted waiting for encoder", e);
+			}
+		}
+		peakQueueDepth = Math.max(peakQueueDepth, queue.size());
+	}
+
+	/**
+	 * Track queued frame copies and Mats of wrapped sink. Must be called
+	 * before the first write.
+	 *
+	 * @param tracker
+	 *            Native Mat tracker.
+	 */
+	@Override
+	public void setTracker(final MatTracker tracker) {
+		// Pool is still empty, so nothing to move
+		matPool.free();
+		matPool = new MatPool(false, tracker);
+		sink.setTracker(tracker);
+	}
+
+	/**
+	 * Throw encoder failure, if any.
+	 */
+	private void checkFailure() {
+		if (failure != null) {
+			throw new IllegalStateException("Encoder failed", failure);
+		}
+	}
+
+	/**
+	 * Frames encoded by wrapped sink.
+	 *
+	 * @return Frames.
+	 */
+	@Override
+	public int getFrames() {
+		return sink.getFrames();
+	}
+
+	@Override
+	public long getDroppedFrames() {
+		return droppedFrames.get() + sink.getDroppedFrames();
+	}
+
+	/**
+	 * Frames waiting for encoder.
+	 *
+	 * @return Queue depth.
+	 */
+	@Override
+	public int getQueueDepth() {
+		return queue.size();
+	}
+
+	/**
+	 * Frames encoded per second of encoder write time, which is the most the
+	 * encoder can keep up with.
+	 *
+	 * @return Frames per second.
+	 */
+	@Override
+	public double getEncodeFps() {
+		final long time = encodeTime;
+		// CHECKSTYLE:OFF MagicNumber - Nanoseconds to seconds
+		return time == 0 ? 0 : sink.getFrames() * 1e9 / time;
+		// CHECKSTYLE:ON MagicNumber
+	}
+
+	/**
+	 * Wrapped sink.
+	 *
+	 * @return Sink.
+	 */
+	public FrameSink getSink() {
+		return sink;
+	}
+
+	/**
+	 * Finish encoding queued frames, log statistics and free native memory.
+	 *
+	 * @throws IllegalStateException
+	 *             If encoder failed.
+	 */
+	@Override
+	public void free() {
+		try {
+			// Encoder has drained queue if it failed
+			if (failure == null) {
+				queue.put(endOfStream);
+			}
+			encoderThread.join();
+		} catch (InterruptedException e) {
+			encoderThread.interrupt();
+			Thread.currentThread().interrupt();
+		}
+		drain();
+		logger.log(Level.INFO, String.format("%d frames encoded at %4.1f FPS, %d dropped (%s), peak queue depth %d",
+				sink.getFrames(), getEncodeFps(), droppedFrames.get(), policy, peakQueueDepth));
+		sink.free();
+		matPool.free();
+		endOfStream.free();
+		checkFailure();
+	}
+}
@@ -19,7 +19,6 @@ import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.logging.Level;
-import java.util.logging.LogManager;
 import java.util.logging.Logger;
 
 import org.opencv.calib3d.Calib3d;
@@ -310,11 +309,28 @@ final class CameraCalibration {
 	 * @return Mat array consisting of cameraMatrix and distCoeffs.
 	 */
 	public Mat[] calibrate(final List<Mat> objectPoints, final List<Mat> imagePoints, final List<Mat> images) {
+		return calibrate(objectPoints, imagePoints, images.get(0).size());
+	}
+
+	/**
+	 * Calibrate camera. Only the image size is needed, so images do not have
+	 * to be held in memory. Caller needs to clean up cameraMatrix and
+	 * distCoeffs Mats.
+	 * 
+	 * @param objectPoints
+	 *            Object points.
+	 * @param imagePoints
+	 *            Image points.
+	 * @param imageSize
+	 *            Size of calibration images.
+	 * @return Mat array consisting of cameraMatrix and distCoeffs.
+	 */
+	public Mat[] calibrate(final List<Mat> objectPoints, final List<Mat> imagePoints, final Size imageSize) {
 		final Mat cameraMatrix = Mat.eye(3, 3, CvType.CV_64F);
 		final Mat distCoeffs = Mat.zeros(8, 1, CvType.CV_64F);
 		final List<Mat> rVecs = new ArrayList<Mat>();
 		final List<Mat> tVecs = new ArrayList<Mat>();
-		final double rms = Calib3d.calibrateCamera(objectPoints, imagePoints, images.get(0).size(), cameraMatrix,
+		final double rms = Calib3d.calibrateCamera(objectPoints, imagePoints, imageSize, cameraMatrix,
 				distCoeffs, rVecs, tVecs);
 		final double error = reprojectionError(objectPoints, rVecs, tVecs, cameraMatrix, distCoeffs, imagePoints);
 		logger.log(Level.INFO, String.format("Mean reprojection error: %s", error));
@@ -332,8 +348,9 @@ final class CameraCalibration {
 	}
 
 	/**
-	 * Process all images matching inMask and output debug images to outDir. All
-	 * Mats are deleted at the end, thus freeing native memory right away.
+	 * Process all images matching inMask and output debug images to outDir. Each
+	 * image is freed once its corners are found, so only the corners are held
+	 * until calibration and native memory does not grow with image count.
 	 * 
 	 * @param inMask
 	 *            Mask used for input files.
@@ -345,7 +362,7 @@ final class CameraCalibration {
 	 *             Possible exception.
 	 */
 	public void getPoints(final String inMask, final String outDir, final Size patternSize) throws IOException {
-		final List<Mat> images = new ArrayList<Mat>();
+		Size imageSize = null;
 		final List<Mat> objectPoints = new ArrayList<Mat>();
 		final List<Mat> imagePoints = new ArrayList<Mat>();
 		final MatOfPoint3f corners3f = getCorner3f(patternSize);
@@ -381,15 +398,17 @@ final class CameraCalibration {
 					// Add data collected to Lists
 					objectPoints.add(corners3f);
 					imagePoints.add(corners);
-					images.add(mat);
+					imageSize = mat.size();
 					passed++;
 				} else {
 					logger.log(Level.WARNING, String.format("Chessboard not found in: %s", fileName));
+					corners.free();
 				}
+				mat.free();
 			}
 			logger.log(Level.INFO, String.format("Images passed cv2.findChessboardCorners: %d", passed));
 			// Calibrate camera
-			final Mat[] params = calibrate(objectPoints, imagePoints, images);
+			final Mat[] params = calibrate(objectPoints, imagePoints, imageSize);
 			logger.log(Level.INFO, "Saving calibration parameters to file");
 			// Save off camera matrix
 			saveDoubleMat(params[0], String.format("%scamera-matrix.bin", outDir));
@@ -403,10 +422,6 @@ final class CameraCalibration {
 			for (Mat imagePoint : imagePoints) {
 				imagePoint.free();
 			}
-			// Clean up images
-			for (Mat image : images) {
-				image.free();
-			}
 		} catch (IOException e) {
 			logger.log(Level.SEVERE, String.format("IO error: %s", e.getMessage()));
 		}
@@ -438,13 +453,8 @@ final class CameraCalibration {
 			outDir = "../output/";
 			patternSize = new Size(7, 5);
 		}
-		// Custom logging properties via class loader
-		try {
-			LogManager.getLogManager().readConfiguration(
-					CameraCalibration.class.getClassLoader().getResourceAsStream("logging.properties"));
-		} catch (SecurityException | IOException e) {
-			e.printStackTrace();
-		}
+		// Custom logging properties via class loader, read once per JVM
+		Launcher.configureLogging();
 		logger.log(Level.INFO, String.format("OpenCV %s", Core.VERSION));
 		logger.log(Level.INFO, String.format("Input mask: %s", inMask));
 		logger.log(Level.INFO, String.format("Output dir: %s", outDir));
@@ -6,25 +6,21 @@
  */
 package com.codeferm.opencv;
 
-import java.io.IOException;
+import java.util.concurrent.ForkJoinPool;
 import java.util.logging.Level;
-import java.util.logging.LogManager;
 import java.util.logging.Logger;
 
 import org.opencv.core.Core;
-import org.opencv.core.Mat;
-import org.opencv.core.Size;
-import org.opencv.imgproc.Imgproc;
-import org.opencv.videoio.VideoCapture;
-import org.opencv.videoio.VideoWriter;
-import org.opencv.videoio.Videoio;
 
 /**
- * Canny Edge Detector.
+ * Canny Edge Detector. Detection is done by CannyStage in a FramePipeline.
  *
  * args[0] = source file or will default to "../resources/traffic.mp4" if no
  * args passed.
  *
+ * args[1] = "tiled" to split frames into stripes processed on all cores by
+ * TiledCannyStage or will default to CannyStage if not passed.
+ *
  * @author sgoldsmith
  * @version 1.0.0
  * @since 1.0.0
@@ -55,10 +51,15 @@ final class Canny {
 	 * args[0] = source file or will default to "../resources/traffic.mp4" if no
 	 * args passed.
 	 *
+	 * args[1] = "tiled" to split frames into stripes processed on all cores by
+	 * TiledCannyStage or will default to CannyStage if not passed.
+	 *
 	 * @param args
 	 *            String array of arguments.
+	 * @throws InterruptedException
+	 *             Possible exception.
 	 */
-	public static void main(final String[] args) {
+	public static void main(final String[] args) throws InterruptedException {
 		String url = null;
 		final String outputFile = "../output/canny-java.avi";
 		// Check how many arguments were passed in
@@ -69,60 +70,20 @@ final class Canny {
 		} else {
 			url = args[0];
 		}
-		// Custom logging properties via class loader
-		try {
-			LogManager.getLogManager()
-					.readConfiguration(Canny.class.getClassLoader().getResourceAsStream("logging.properties"));
-		} catch (SecurityException | IOException e) {
-			e.printStackTrace();
-		}
+		// Custom logging properties via class loader, read once per JVM
+		Launcher.configureLogging();
 		logger.log(Level.INFO, String.format("OpenCV %s", Core.VERSION));
-		logger.log(Level.INFO, String.format("Input file: %s", url));
-		logger.log(Level.INFO, String.format("Output file: %s", outputFile));
-		VideoCapture videoCapture = new VideoCapture(url);
-		final Size frameSize = new Size((int) videoCapture.get(Videoio.CAP_PROP_FRAME_WIDTH),
-				(int) videoCapture.get(Videoio.CAP_PROP_FRAME_HEIGHT));
-		logger.log(Level.INFO, String.format("Resolution: %s", frameSize));
-		final FourCC fourCC = new FourCC("X264");
-		VideoWriter videoWriter = new VideoWriter(outputFile, fourCC.toInt(), videoCapture.get(Videoio.CAP_PROP_FPS),
-				frameSize, true);
-		final Mat mat = new Mat();
-		int frames = 0;
-		final Mat gray = new Mat();
-		final Mat blur = new Mat();
-		final Mat edges = new Mat();
-		Mat dst = new Mat();
-		final Size kSize = new Size(3, 3);
-		final long startTime = System.currentTimeMillis();
-		while (videoCapture.read(mat)) {
-			// Convert the image to grayscale
-			Imgproc.cvtColor(mat, gray, Imgproc.COLOR_BGR2GRAY);
-			// Reduce noise with a kernel 3x3
-			Imgproc.GaussianBlur(gray, blur, kSize, 0);
-			// Canny detector
-			// CHECKSTYLE:OFF MagicNumber - Magic numbers here for illustration
-			Imgproc.Canny(blur, edges, 100, 200, 3, false);
-			// CHECKSTYLE:ON MagicNumber
-			// Add some colors to edges from original image
-			Core.bitwise_and(mat, mat, dst, edges);
-			videoWriter.write(dst);
-			// This wasn't required in OpenCV 2.4 otherwise you get outline
-			// history in video
-			dst.free();
-			dst = new Mat();
-			frames++;
+		final FrameSource source = new FrameSource(url);
+		final FramePipeline pipeline = new FramePipeline(source,
+				new FrameSink(outputFile, source.getFps(), source.getFrameSize()), FramePipeline.DEFAULT_RING_SIZE);
+		if (args.length > 1 && "tiled".equals(args[1])) {
+			final ForkJoinPool pool = ForkJoinPool.commonPool();
+			pipeline.addStage(new TiledCannyStage(pool, pool.getParallelism(), TiledCannyStage.DEFAULT_HALO));
+		} else {
+			pipeline.addStage(new CannyStage());
 		}
-		final long estimatedTime = System.currentTimeMillis() - startTime;
-		final double seconds = (double) estimatedTime / 1000;
-		logger.log(Level.INFO, String.format("%d frames", frames));
-		logger.log(Level.INFO, String.format("%4.1f FPS, elapsed time: %4.2f seconds", frames / seconds, seconds));
+		pipeline.run();
 		// Release native memory
-		videoCapture.free();
-		videoWriter.free();
-		mat.free();
-		gray.free();
-		blur.free();
-		edges.free();
-		dst.free();
+		pipeline.free();
 	}
 }
@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) Steven P. Goldsmith. All rights reserved.
+ *
+ * Created by Steven P. Goldsmith on March 8, 2016
+ * sgoldsmith@codeferm.com
+ */
+package com.codeferm.opencv;
+
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.core.Scalar;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * Canny edge detection stage. Pixels that are not edges are cleared, so only
+ * edges keep their original color.
+ *
+ * @author sgoldsmith
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+final class CannyStage implements FrameStage {
+	/**
+	 * Non edge color.
+	 */
+	private static final Scalar BLACK = new Scalar(0, 0, 0);
+	/**
+	 * Noise reduction kernel.
+	 */
+	private static final Size KERNEL_SIZE = new Size(3, 3);
+	/**
+	 * Grayscale frame.
+	 */
+	private final Mat gray = new Mat();
+	/**
+	 * Blurred grayscale frame.
+	 */
+	private final Mat blur = new Mat();
+	/**
+	 * Edges.
+	 */
+	private final Mat edges = new Mat();
+	/**
+	 * Everything but edges.
+	 */
+	private final Mat notEdges = new Mat();
+	/**
+	 * Native Mat tracker or null for none.
+	 */
+	private MatTracker tracker;
+
+	@Override
+	public void process(final Mat frame) {
+		// Convert the image to grayscale
+		Imgproc.cvtColor(frame, gray, Imgproc.COLOR_BGR2GRAY);
+		// Reduce noise with a kernel 3x3
+		Imgproc.GaussianBlur(gray, blur, KERNEL_SIZE, 0);
+		// Canny detector
+		// CHECKSTYLE:OFF MagicNumber - Magic numbers here for illustration
+		Imgproc.Canny(blur, edges, 100, 200, 3, false);
+		// CHECKSTYLE:ON MagicNumber
+		// Clear everything but edges in place instead of copying edges to a
+		// cleared frame and back
+		Core.bitwise_not(edges, notEdges);
+		frame.setTo(BLACK, notEdges);
+	}
+
+	@Override
+	public void setTracker(final MatTracker tracker) {
+		this.tracker = tracker;
+		tracker.trackAll(gray, blur, edges, notEdges);
+	}
+
+	@Override
+	public void free() {
+		if (tracker != null) {
+			tracker.untrackAll(gray, blur, edges, notEdges);
+		}
+		gray.free();
+		blur.free();
+		edges.free();
+		notEdges.free();
+	}
+}
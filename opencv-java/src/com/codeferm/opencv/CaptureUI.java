@@ -7,14 +7,19 @@
 package com.codeferm.opencv;
 
 import java.applet.Applet;
+import java.awt.BorderLayout;
+import java.awt.Canvas;
 import java.awt.Graphics;
+import java.awt.Toolkit;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
+import java.awt.image.BufferStrategy;
 import java.awt.image.BufferedImage;
 import java.awt.image.DataBufferByte;
-import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
 import java.util.logging.Level;
-import java.util.logging.LogManager;
 import java.util.logging.Logger;
 
 import org.opencv.core.Core;
@@ -27,8 +32,18 @@ import org.opencv.videoio.Videoio;
  * A simple video capture applet. The Java bindings do not have an imshow
  * equivalent (highgui wrapper) yet.
  *
+ * By default each frame is converted and repaint is called, which AWT may
+ * coalesce or delay. Active rendering decouples display from capture instead.
+ * The capture thread publishes only the newest frame through a lock-free slot
+ * and a render thread draws it with a BufferStrategy. Frames replaced before
+ * they were drawn are dropped, so display never falls behind capture, and
+ * capture to paint latency and dropped frames are logged live.
+ *
  * args[0] = camera index, url or will default to "-1" if no args passed.
  *
+ * args[1] = "active" for active rendering or will default to repaint if not
+ * passed.
+ *
  * @author sgoldsmith
  * @version 1.0.0
  * @since 1.0.0
@@ -58,13 +73,84 @@ final class CaptureUI extends Applet implements Runnable { // NOPMD
 	 */
 	private transient Size frameSize;
 	/**
-	 * Applet drawing canvas.
+	 * Statistics log interval in milliseconds.
+	 */
+	private static final long REPORT_INTERVAL = 5000;
+	/**
+	 * Render thread wait for a new frame in nanoseconds.
+	 */
+	private static final long RENDER_WAIT = 500000;
+	/**
+	 * Image being displayed.
 	 */
 	private transient BufferedImage bufferedImage;
+	/**
+	 * Images converted into, alternating so the one displayed is never
+	 * written to. Only reallocated when frame size or type changes.
+	 */
+	private final transient BufferedImage[] images = new BufferedImage[2];
+	/**
+	 * Index of image to convert next frame into.
+	 */
+	private int backIndex;
+	/**
+	 * Images allocated.
+	 */
+	private int allocations;
+	/**
+	 * Frames converted.
+	 */
+	private volatile long framesConverted;
+	/**
+	 * Frames drawn.
+	 */
+	private long framesDisplayed;
 	/**
 	 * Processing thread.
 	 */
 	private transient Thread captureThread;
+	/**
+	 * Use active rendering instead of repaint.
+	 */
+	private final boolean activeRendering;
+	/**
+	 * Newest captured frame not yet drawn. Active rendering only.
+	 */
+	private final transient AtomicReference<DisplayFrame> latestFrame = new AtomicReference<DisplayFrame>();
+	/**
+	 * Frame drawn last, free to be captured into. Active rendering only.
+	 */
+	private final transient AtomicReference<DisplayFrame> spareFrame = new AtomicReference<DisplayFrame>();
+	/**
+	 * Frames replaced in latestFrame before being drawn.
+	 */
+	private final AtomicLong droppedFrames = new AtomicLong();
+	/**
+	 * Canvas drawn on by render thread. Active rendering only.
+	 */
+	private transient Canvas canvas;
+	/**
+	 * Render thread. Active rendering only.
+	 */
+	private transient Thread renderThread;
+	/**
+	 * Capture thread is still reading frames.
+	 */
+	private volatile boolean capturing;
+
+	/**
+	 * Image and when it was captured, handed from capture to render thread.
+	 */
+	private static final class DisplayFrame {
+		/**
+		 * Image.
+		 */
+		private BufferedImage image;
+		/**
+		 * Capture time in nanoseconds.
+		 */
+		private long captureTime;
+	}
 
 	/* Load the OpenCV system library */
 	static {
@@ -72,12 +158,26 @@ final class CaptureUI extends Applet implements Runnable { // NOPMD
 	}
 
 	/**
-	 * Initialize VideoCapture.
+	 * Initialize VideoCapture with repaint rendering.
 	 *
 	 * @param url
 	 *            Camera URL.
 	 */
 	public CaptureUI(final String url) {
+		this(url, false);
+	}
+
+	/**
+	 * Initialize VideoCapture.
+	 *
+	 * @param url
+	 *            Camera URL.
+	 * @param activeRendering
+	 *            Draw newest frame from a render thread with a BufferStrategy
+	 *            instead of calling repaint.
+	 */
+	public CaptureUI(final String url, final boolean activeRendering) {
+		this.activeRendering = activeRendering;
 		// See if URL is an integer: -? = negative sign, could have none or one,
 		// \\d+ = one or more digits
 		if (url.matches("-?\\d+")) {
@@ -85,20 +185,15 @@ final class CaptureUI extends Applet implements Runnable { // NOPMD
 		} else {
 			videoCapture = new VideoCapture(url);
 		}
-		// Custom logging properties via class loader
-		try {
-			LogManager.getLogManager().readConfiguration(
-					CaptureUI.class.getClassLoader().getResourceAsStream(
-							"logging.properties"));
-		} catch (SecurityException | IOException e) {
-			e.printStackTrace();
-		}
+		// Custom logging properties via class loader, read once per JVM
+		Launcher.configureLogging();
 		frameSize = new Size(
 				(int) videoCapture.get(Videoio.CAP_PROP_FRAME_WIDTH),
 				(int) videoCapture.get(Videoio.CAP_PROP_FRAME_HEIGHT));
 		logger.log(Level.INFO, String.format("OpenCV %s", Core.VERSION));
 		logger.log(Level.INFO, "Press [Esc] to exit");
 		logger.log(Level.INFO, String.format("URL: %s", url));
+		logger.log(Level.INFO, String.format("Active rendering: %s", activeRendering));
 		init();
 	}
 
@@ -136,6 +231,13 @@ final class CaptureUI extends Applet implements Runnable { // NOPMD
 	public void init() {
 		logger.log(Level.INFO, String.format("Resolution: %s", frameSize));
 		captureMat = new Mat();
+		if (activeRendering && canvas == null) {
+			canvas = new Canvas();
+			// Render thread draws everything
+			canvas.setIgnoreRepaint(true);
+			setLayout(new BorderLayout());
+			add(canvas, BorderLayout.CENTER);
+		}
 	}
 
 	/**
@@ -144,8 +246,20 @@ final class CaptureUI extends Applet implements Runnable { // NOPMD
 	@Override
 	public void start() {
 		if (captureThread == null) {
+			capturing = true;
 			captureThread = new Thread(this);
 			captureThread.start();
+			if (activeRendering) {
+				// Canvas has to be displayable before creating strategy
+				canvas.createBufferStrategy(2);
+				renderThread = new Thread(new Runnable() {
+					@Override
+					public void run() {
+						render();
+					}
+				}, "CaptureUI render");
+				renderThread.start();
+			}
 		}
 	}
 
@@ -157,6 +271,10 @@ final class CaptureUI extends Applet implements Runnable { // NOPMD
 		if (captureThread != null) {
 			try {
 				captureThread.join();
+				if (renderThread != null) {
+					renderThread.join();
+					renderThread = null;
+				}
 			} catch (InterruptedException e) {
 				e.printStackTrace();
 			}
@@ -175,6 +293,13 @@ final class CaptureUI extends Applet implements Runnable { // NOPMD
 	 */
 	@Override
 	public void run() {
+		if (activeRendering) {
+			capture();
+			return;
+		}
+		final long startTime = System.currentTimeMillis();
+		final GcSnapshot startGc = GcSnapshot.now();
+		long nextReport = startTime + REPORT_INTERVAL;
 		while (true) {
 			if (videoCapture.read(captureMat)) {
 				/*
@@ -182,34 +307,210 @@ final class CaptureUI extends Applet implements Runnable { // NOPMD
 				 */
 				convert(captureMat);
 				repaint();
+				if (System.currentTimeMillis() >= nextReport) {
+					logStats(startTime, startGc);
+					nextReport += REPORT_INTERVAL;
+				}
 			} else {
 				break;
 			}
 		}
+		logStats(startTime, startGc);
+	}
+
+	/**
+	 * Read frames and publish each one as the newest frame. A frame still in
+	 * the slot was never drawn, so it is counted as dropped and captured into
+	 * next. Otherwise the frame drawn last is reused, so at most a few images
+	 * are ever allocated.
+	 */
+	private void capture() {
+		DisplayFrame frame = takeSpare();
+		while (videoCapture.read(captureMat)) {
+			/*
+			 * Add image processing code here.
+			 */
+			final BufferedImage image = toBufferedImage(captureMat, frame.image);
+			if (image != frame.image) {
+				frame.image = image;
+				allocations++;
+			}
+			frame.captureTime = System.nanoTime();
+			framesConverted++;
+			final DisplayFrame replaced = latestFrame.getAndSet(frame);
+			if (replaced == null) {
+				frame = takeSpare();
+			} else {
+				droppedFrames.incrementAndGet();
+				frame = replaced;
+			}
+		}
+		capturing = false;
+	}
+
+	/**
+	 * Spare frame or new frame if render thread has not returned one.
+	 *
+	 * @return Frame.
+	 */
+	private DisplayFrame takeSpare() {
+		final DisplayFrame frame = spareFrame.getAndSet(null);
+		if (frame == null) {
+			return new DisplayFrame();
+		}
+		return frame;
+	}
+
+	/**
+	 * Draw newest frame whenever there is one until capture ends. Runs on
+	 * render thread, which is the only thread recording latency.
+	 */
+	private void render() {
+		final BufferStrategy strategy = canvas.getBufferStrategy();
+		final LatencyHistogram latency = new LatencyHistogram();
+		final long startTime = System.currentTimeMillis();
+		final GcSnapshot startGc = GcSnapshot.now();
+		long nextReport = startTime + REPORT_INTERVAL;
+		while (capturing || latestFrame.get() != null) {
+			final DisplayFrame frame = latestFrame.getAndSet(null);
+			if (frame == null) {
+				LockSupport.parkNanos(RENDER_WAIT);
+			} else {
+				// Redraw if contents of buffers were restored or lost
+				do {
+					do {
+						final Graphics g = strategy.getDrawGraphics();
+						g.drawImage(frame.image, 0, 0, canvas.getWidth(), canvas.getHeight(), null);
+						g.dispose();
+					} while (strategy.contentsRestored());
+					strategy.show();
+				} while (strategy.contentsLost());
+				Toolkit.getDefaultToolkit().sync();
+				latency.record(System.nanoTime() - frame.captureTime);
+				framesDisplayed++;
+				// Return frame for capture, or let it go if there's a spare
+				spareFrame.compareAndSet(null, frame);
+			}
+			if (System.currentTimeMillis() >= nextReport) {
+				logActiveStats(startTime, startGc, latency);
+				nextReport += REPORT_INTERVAL;
+			}
+		}
+		logActiveStats(startTime, startGc, latency);
 	}
 
 	/**
-	 * Convert from Mat to BufferedImage.
+	 * Log active rendering FPS, dropped frames and capture to paint latency.
+	 *
+	 * @param startTime
+	 *            Start time in milliseconds.
+	 * @param startGc
+	 *            GC snapshot at start.
+	 * @param latency
+	 *            Capture to paint latency.
+	 */
+	private void logActiveStats(final long startTime, final GcSnapshot startGc, final LatencyHistogram latency) {
+		final double seconds = (System.currentTimeMillis() - startTime) / 1000.0;
+		final GcSnapshot gc = GcSnapshot.now().since(startGc);
+		// CHECKSTYLE:OFF MagicNumber - Percentiles and nanoseconds to milliseconds
+		logger.log(Level.INFO, String.format(
+				"Capture %4.1f FPS, display %4.1f FPS, %d dropped, capture to paint p50 %4.1f ms, p99 %4.1f ms, "
+						+ "max %4.1f ms, %d GC collections",
+				framesConverted / seconds, framesDisplayed / seconds, droppedFrames.get(),
+				latency.getValueAtPercentile(50) / 1e6, latency.getValueAtPercentile(99) / 1e6,
+				latency.getMax() / 1e6, gc.getCount()));
+		// CHECKSTYLE:ON MagicNumber
+	}
+
+	/**
+	 * Log capture and display FPS, GC collections and image allocations since
+	 * start.
+	 *
+	 * @param startTime
+	 *            Start time in milliseconds.
+	 * @param startGc
+	 *            GC snapshot at start.
+	 */
+	private void logStats(final long startTime, final GcSnapshot startGc) {
+		final double seconds = (System.currentTimeMillis() - startTime) / 1000.0;
+		final GcSnapshot gc = GcSnapshot.now().since(startGc);
+		final long displayed;
+		synchronized (this) {
+			displayed = framesDisplayed;
+		}
+		logger.log(Level.INFO, String.format(
+				"Capture %4.1f FPS, display %4.1f FPS, %d GC collections, %d ms GC time, %d images allocated",
+				framesConverted / seconds, displayed / seconds, gc.getCount(), gc.getTime(), allocations));
+	}
+
+	/**
+	 * Convert from Mat to BufferedImage. The back image is reused, so nothing
+	 * is allocated per frame unless frame size changes.
 	 *
 	 * @param mat
 	 *            Mat array.
 	 */
 	public void convert(final Mat mat) {
-		byte[] sourcePixels = new byte[mat.width() * mat.height()
-				* mat.channels()];
-		mat.get(0, 0, sourcePixels);
-		// Create new image and get reference to backing data
-		bufferedImage = new BufferedImage(mat.width(), mat.height(),
-				BufferedImage.TYPE_3BYTE_BGR);
-		byte[] targetPixels = ((DataBufferByte) bufferedImage.getRaster()
-				.getDataBuffer()).getData();
-		// Fast copy
-		System.arraycopy(sourcePixels, 0, targetPixels, 0, sourcePixels.length);
+		final BufferedImage back = images[backIndex];
+		final BufferedImage image = toBufferedImage(mat, back);
+		if (image != back) {
+			images[backIndex] = image;
+			allocations++;
+		}
+		framesConverted++;
+		// Swap, so the next frame is converted into the image not displayed
+		synchronized (this) {
+			bufferedImage = image;
+			backIndex ^= 1;
+		}
+	}
+
+	/**
+	 * Convert from Mat to new BufferedImage. Static, so it can be benchmarked
+	 * without a display.
+	 *
+	 * @param mat
+	 *            Mat array.
+	 * @return BufferedImage.
+	 */
+	public static BufferedImage toBufferedImage(final Mat mat) {
+		return toBufferedImage(mat, null);
+	}
+
+	/**
+	 * Copy Mat straight into the backing array of image. A new image is only
+	 * created if image is null or does not match Mat size and type, so there
+	 * is no intermediate byte array and no per frame garbage.
+	 *
+	 * @param mat
+	 *            8 bit BGR or grayscale Mat.
+	 * @param image
+	 *            Image to reuse or null.
+	 * @return image or new image if it could not be reused.
+	 */
+	public static BufferedImage toBufferedImage(final Mat mat, final BufferedImage image) {
+		final int type;
+		if (mat.channels() == 1) {
+			type = BufferedImage.TYPE_BYTE_GRAY;
+		} else {
+			type = BufferedImage.TYPE_3BYTE_BGR;
+		}
+		BufferedImage target = image;
+		if (target == null || target.getWidth() != mat.width() || target.getHeight() != mat.height()
+				|| target.getType() != type) {
+			target = new BufferedImage(mat.width(), mat.height(), type);
+		}
+		// Reference to backing data, Mat.get copies straight into it
+		mat.get(0, 0, ((DataBufferByte) target.getRaster().getDataBuffer()).getData());
+		return target;
 	}
 
 	@Override
 	public synchronized void update(final Graphics g) {
-		g.drawImage(bufferedImage, 0, 0, this);
+		if (bufferedImage != null) {
+			g.drawImage(bufferedImage, 0, 0, this);
+			framesDisplayed++;
+		}
 	}
 
 	/**
@@ -217,6 +518,9 @@ final class CaptureUI extends Applet implements Runnable { // NOPMD
 	 *
 	 * args[0] = camera index, url or will default to "0" if no args passed.
 	 *
+	 * args[1] = "active" for active rendering or will default to repaint if
+	 * not passed.
+	 *
 	 * @param args
 	 *            String array of arguments.
 	 */
@@ -229,7 +533,8 @@ final class CaptureUI extends Applet implements Runnable { // NOPMD
 		} else {
 			url = args[0];
 		}
-		CaptureUI window = new CaptureUI(url);
+		final boolean activeRendering = args.length > 1 && "active".equals(args[1]);
+		CaptureUI window = new CaptureUI(url, activeRendering);
 		// Deal with VideoCapture always returning True otherwise it will hang
 		// on VideoCapture.read()
 		if (window.frameSize.width > 0 && window.frameSize.height > 0) {
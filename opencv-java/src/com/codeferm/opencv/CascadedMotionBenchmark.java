@@ -0,0 +1,208 @@
+/*
+ * Copyright (c) Steven P. Goldsmith. All rights reserved.
+ *
+ * Created by Steven P. Goldsmith on March 22, 2016
+ * sgoldsmith@codeferm.com
+ */
+package com.codeferm.opencv;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Scalar;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * Compare CascadedMotionStage with pure MOG2 on the same frames. Both see
+ * every frame in order and only detection is timed, not decoding. Blob
+ * quality is reported as frames where both agree on motion, frames with pure
+ * MOG2 blobs the cascade also found (recall) and mean intersection over union
+ * of the blob areas on frames where either found blobs.
+ *
+ * args[0] = source file or will default to "../resources/traffic.mp4" if no
+ * args passed.
+ *
+ * args[1] = gate threshold percent or will default to
+ * MotionDetectStage.DEFAULT_THRESHOLD if not passed.
+ *
+ * args[2] = tail frames or will default to CascadedMotionStage.DEFAULT_TAIL if
+ * not passed.
+ *
+ * args[3] = idle frames per background update or will default to
+ * CascadedMotionStage.DEFAULT_IDLE_RATE if not passed.
+ *
+ * @author sgoldsmith
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+final class CascadedMotionBenchmark {
+	/**
+	 * Logger.
+	 */
+	// CHECKSTYLE:OFF ConstantName - Logger is static final, not a constant
+	private static final Logger logger = Logger.getLogger(CascadedMotionBenchmark.class // NOPMD
+			.getName());
+	// CHECKSTYLE:ON ConstantName
+	/* Load the OpenCV system library */
+	static {
+		System.loadLibrary(Core.NATIVE_LIBRARY_NAME); // NOPMD
+	}
+
+	/**
+	 * Mask background.
+	 */
+	private static final Scalar BLACK = new Scalar(0);
+	/**
+	 * Mask foreground.
+	 */
+	private static final Scalar WHITE = new Scalar(255);
+
+	/**
+	 * Suppress default constructor for noninstantiability.
+	 */
+	private CascadedMotionBenchmark() {
+		throw new AssertionError();
+	}
+
+	/**
+	 * Fill mask with blobs.
+	 *
+	 * @param mask
+	 *            Mask already created at frame size. This value is modified.
+	 * @param blobs
+	 *            Blobs (x, y, width, height packed).
+	 * @param count
+	 *            Number of blobs.
+	 */
+	private static void fillMask(final Mat mask, final int[] blobs, final int count) {
+		mask.setTo(BLACK);
+		final Point point1 = new Point();
+		final Point point2 = new Point();
+		for (int i = 0; i < count * Contours.RECT_INTS; i += Contours.RECT_INTS) {
+			point1.x = blobs[i];
+			point1.y = blobs[i + 1];
+			point2.x = blobs[i] + blobs[i + 2];
+			point2.y = blobs[i + 1] + blobs[i + 3];
+			Imgproc.rectangle(mask, point1, point2, WHITE, Core.FILLED);
+		}
+	}
+
+	/**
+	 * Run benchmark.
+	 *
+	 * args[0] = source file or will default to "../resources/traffic.mp4" if no
+	 * args passed.
+	 *
+	 * args[1] = gate threshold percent or will default to
+	 * MotionDetectStage.DEFAULT_THRESHOLD if not passed.
+	 *
+	 * args[2] = tail frames or will default to
+	 * CascadedMotionStage.DEFAULT_TAIL if not passed.
+	 *
+	 * args[3] = idle frames per background update or will default to
+	 * CascadedMotionStage.DEFAULT_IDLE_RATE if not passed.
+	 *
+	 * @param args
+	 *            String array of arguments.
+	 */
+	public static void main(final String[] args) {
+		String url = null;
+		// Check how many arguments were passed in
+		if (args.length == 0) {
+			// If no arguments were passed then default to
+			// ../resources/traffic.mp4
+			url = "../resources/traffic.mp4";
+		} else {
+			url = args[0];
+		}
+		double threshold = MotionDetectStage.DEFAULT_THRESHOLD;
+		if (args.length > 1) {
+			threshold = Double.parseDouble(args[1]);
+		}
+		int tail = CascadedMotionStage.DEFAULT_TAIL;
+		if (args.length > 2) {
+			tail = Integer.parseInt(args[2]);
+		}
+		int idleRate = CascadedMotionStage.DEFAULT_IDLE_RATE;
+		if (args.length > 3) {
+			idleRate = Integer.parseInt(args[3]);
+		}
+		// Custom logging properties via class loader, read once per JVM
+		Launcher.configureLogging();
+		logger.log(Level.INFO, String.format("OpenCV %s", Core.VERSION));
+		logger.log(Level.INFO, String.format("Input file: %s, threshold %4.2f%%, tail %d, idle rate %d", url,
+				threshold, tail, idleRate));
+		final FrameSource source = new FrameSource(url);
+		final MotionDetectMOG2Stage pure = new MotionDetectMOG2Stage();
+		final CascadedMotionStage cascaded = new CascadedMotionStage(new MotionDetector(source.getFrameSize()),
+				threshold, tail, idleRate);
+		final Mat frame = new Mat();
+		final Mat pureMask = new Mat();
+		final Mat cascadedMask = new Mat();
+		final Mat overlap = new Mat();
+		long pureTime = 0;
+		long cascadedTime = 0;
+		int frames = 0;
+		int agree = 0;
+		int pureMotion = 0;
+		int found = 0;
+		int compared = 0;
+		double iouTotal = 0;
+		while (source.read(frame)) {
+			long start = System.nanoTime();
+			final int pureBlobs = pure.detect(frame);
+			pureTime += System.nanoTime() - start;
+			start = System.nanoTime();
+			final int cascadedBlobs = cascaded.detect(frame);
+			cascadedTime += System.nanoTime() - start;
+			frames++;
+			if (pureBlobs > 0 == cascadedBlobs > 0) {
+				agree++;
+			}
+			if (pureBlobs > 0) {
+				pureMotion++;
+				if (cascadedBlobs > 0) {
+					found++;
+				}
+			}
+			if (pureBlobs > 0 || cascadedBlobs > 0) {
+				pureMask.create(frame.rows(), frame.cols(), CvType.CV_8UC1);
+				cascadedMask.create(frame.rows(), frame.cols(), CvType.CV_8UC1);
+				fillMask(pureMask, pure.getBlobs(), pureBlobs);
+				fillMask(cascadedMask, cascaded.getMog2Stage().getBlobs(), cascadedBlobs);
+				Core.bitwise_and(pureMask, cascadedMask, overlap);
+				final int intersection = Core.countNonZero(overlap);
+				Core.bitwise_or(pureMask, cascadedMask, overlap);
+				iouTotal += (double) intersection / Core.countNonZero(overlap);
+				compared++;
+			}
+		}
+		if (frames == 0) {
+			logger.log(Level.SEVERE, "No frames read");
+		} else {
+			// CHECKSTYLE:OFF MagicNumber - Nanoseconds to seconds and percents
+			logger.log(Level.INFO, String.format("Pure MOG2: %4.1f FPS", frames / (pureTime / 1e9)));
+			logger.log(Level.INFO, String.format(
+					"Cascaded: %4.1f FPS, speedup %4.2fx, MOG2 detect on %d of %d frames (%4.1f%%), %d idle updates",
+					frames / (cascadedTime / 1e9), (double) pureTime / cascadedTime, cascaded.getDetectFrames(),
+					frames, cascaded.getDetectFrames() * 100.0 / frames, cascaded.getIdleUpdates()));
+			logger.log(Level.INFO, String.format(
+					"Motion agreement %4.1f%%, recall %4.1f%% of %d pure MOG2 motion frames, mean blob IoU %4.2f",
+					agree * 100.0 / frames, pureMotion == 0 ? 100.0 : found * 100.0 / pureMotion, pureMotion,
+					compared == 0 ? 1.0 : iouTotal / compared));
+			// CHECKSTYLE:ON MagicNumber
+		}
+		// Free native memory
+		frame.free();
+		pureMask.free();
+		cascadedMask.free();
+		overlap.free();
+		pure.free();
+		cascaded.free();
+		source.free();
+	}
+}
@@ -0,0 +1,202 @@
+/*
+ * Copyright (c) Steven P. Goldsmith. All rights reserved.
+ *
+ * Created by Steven P. Goldsmith on March 22, 2016
+ * sgoldsmith@codeferm.com
+ */
+package com.codeferm.opencv;
+
+import org.opencv.core.Mat;
+
+/**
+ * Moving average gate in front of MOG2. MotionDetector runs on every frame and
+ * the full MOG2 detect (apply, close, threshold and contours) only runs when
+ * the percent of pixels changed is above the threshold, and for tail frames
+ * after that, so slow objects are not cut off when the gate drops out.
+ *
+ * While idle the MOG2 background is still updated every idle rate frames,
+ * skipping morphology and contours. The learning rate is scaled by the idle
+ * rate, so the model covers about the same time span as when it sees every
+ * frame and is valid as soon as the gate fires.
+ *
+ * @author sgoldsmith
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+final class CascadedMotionStage implements MotionStage {
+	/**
+	 * Default frames MOG2 keeps running after gate stops firing.
+	 */
+	public static final int DEFAULT_TAIL = 15;
+	/**
+	 * Default idle frames per background update.
+	 */
+	public static final int DEFAULT_IDLE_RATE = 10;
+	/**
+	 * Moving average gate.
+	 */
+	private final MotionDetector gate;
+	/**
+	 * MOG2 detector.
+	 */
+	private final MotionDetectMOG2Stage mog2Stage;
+	/**
+	 * Percent of pixels changed to fire gate.
+	 */
+	private final double threshold;
+	/**
+	 * Frames MOG2 keeps running after gate stops firing.
+	 */
+	private final int tail;
+	/**
+	 * Idle frames per background update.
+	 */
+	private final int idleRate;
+	/**
+	 * Learning rate of idle background updates.
+	 */
+	private final double idleLearningRate;
+	/**
+	 * Tail frames left.
+	 */
+	private int tailLeft;
+	/**
+	 * Idle frames since gate stopped firing.
+	 */
+	private int idleFrames;
+	/**
+	 * Frames MOG2 detect ran on.
+	 */
+	private volatile int detectFrames;
+	/**
+	 * Idle background updates.
+	 */
+	private volatile int idleUpdates;
+
+	/**
+	 * Create stage.
+	 *
+	 * @param gate
+	 *            Moving average gate. Freed with this stage.
+	 * @param threshold
+	 *            Percent of pixels changed to fire gate.
+	 * @param tail
+	 *            Frames MOG2 keeps running after gate stops firing.
+	 * @param idleRate
+	 *            Idle frames per background update, at least 1.
+	 */
+	public CascadedMotionStage(final MotionDetector gate, final double threshold, final int tail,
+			final int idleRate) {
+		this(gate, new MotionDetectMOG2Stage(), threshold, tail, idleRate);
+	}
+
+	/**
+	 * Create stage.
+	 *
+	 * @param gate
+	 *            Moving average gate. Freed with this stage.
+	 * @param mog2Stage
+	 *            MOG2 detector. Freed with this stage.
+	 * @param threshold
+	 *            Percent of pixels changed to fire gate.
+	 * @param tail
+	 *            Frames MOG2 keeps running after gate stops firing.
+	 * @param idleRate
+	 *            Idle frames per background update, at least 1.
+	 */
+	public CascadedMotionStage(final MotionDetector gate, final MotionDetectMOG2Stage mog2Stage,
+			final double threshold, final int tail, final int idleRate) {
+		if (tail < 0) {
+			throw new IllegalArgumentException("Tail must be >= 0");
+		}
+		if (idleRate < 1) {
+			throw new IllegalArgumentException("Idle rate must be >= 1");
+		}
+		this.gate = gate;
+		this.mog2Stage = mog2Stage;
+		this.threshold = threshold;
+		this.tail = tail;
+		this.idleRate = idleRate;
+		this.idleLearningRate = Math.min(1.0, (double) idleRate / MotionDetectMOG2Stage.HISTORY);
+	}
+
+	/**
+	 * Run gate and MOG2 if needed. The frame is not modified.
+	 *
+	 * @param frame
+	 *            BGR frame.
+	 * @return Number of MOG2 blobs, 0 when idle.
+	 */
+	public int detect(final Mat frame) {
+		if (gate.process(frame) > threshold) {
+			tailLeft = tail + 1;
+		}
+		int blobs = 0;
+		if (tailLeft > 0) {
+			tailLeft--;
+			idleFrames = 0;
+			detectFrames++;
+			blobs = mog2Stage.detect(frame);
+		} else {
+			// First idle frame always updates, so the model starts with the
+			// first frame
+			if (idleFrames % idleRate == 0) {
+				idleUpdates++;
+				mog2Stage.learn(frame, idleLearningRate);
+			}
+			idleFrames++;
+		}
+		return blobs;
+	}
+
+	@Override
+	public void process(final Mat frame) {
+		if (detect(frame) > 0) {
+			mog2Stage.drawBlobs(frame);
+		}
+	}
+
+	@Override
+	public void setTracker(final MatTracker tracker) {
+		gate.setTracker(tracker);
+		mog2Stage.setTracker(tracker);
+	}
+
+	/**
+	 * MOG2 detector for blobs of last frame.
+	 *
+	 * @return MOG2 detector.
+	 */
+	public MotionDetectMOG2Stage getMog2Stage() {
+		return mog2Stage;
+	}
+
+	@Override
+	public int getFramesWithMotion() {
+		return mog2Stage.getFramesWithMotion();
+	}
+
+	/**
+	 * Frames MOG2 detect ran on.
+	 *
+	 * @return Frames.
+	 */
+	public int getDetectFrames() {
+		return detectFrames;
+	}
+
+	/**
+	 * Idle background updates.
+	 *
+	 * @return Updates.
+	 */
+	public int getIdleUpdates() {
+		return idleUpdates;
+	}
+
+	@Override
+	public void free() {
+		gate.free();
+		mog2Stage.free();
+	}
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) Steven P. Goldsmith. All rights reserved.
+ *
+ * Created by Steven P. Goldsmith on February 13, 2016
+ * sgoldsmith@codeferm.com
+ */
+package com.codeferm.opencv;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * Extract motion region bounding rectangles into a caller supplied int array
+ * (x, y, width, height packed). After dilate and erode, regions are labeled
+ * with connectedComponentsWithStats, which returns every bounding rectangle
+ * in one stats Mat. That is the same rectangle as the outer contour of each
+ * 8-connected region, but no MatOfPoint is created per contour and no nested
+ * hole rectangles are returned. The labels and stats Mats and the stats
+ * buffer are reused by each call.
+ *
+ * An instance is not thread safe, so use one per thread.
+ *
+ * @author sgoldsmith
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+final class Contours implements RegionFinder {
+	/**
+	 * Number of ints per rectangle.
+	 */
+	public static final int RECT_INTS = 4;
+	/**
+	 * Foreground connectivity, same as findContours.
+	 */
+	private static final int CONNECTIVITY = 8;
+	/**
+	 * Number of ints per stats row (left, top, width, height, area).
+	 */
+	private static final int STAT_INTS = 5;
+	/**
+	 * Kernel used for contours.
+	 */
+	private final Mat kernel = Imgproc.getStructuringElement(Imgproc.MORPH_DILATE, new Size(3, 3), new Point(1, 1));
+	/**
+	 * Point used for contour dilate and erode.
+	 */
+	private final Point anchor = new Point(-1, -1);
+	/**
+	 * Label of each pixel.
+	 */
+	private final Mat labels = new Mat();
+	/**
+	 * Stats of each label.
+	 */
+	private final Mat stats = new Mat();
+	/**
+	 * Centroid of each label.
+	 */
+	private final Mat centroids = new Mat();
+	/**
+	 * Stats copied from native (left, top, width, height, area packed).
+	 */
+	private int[] statsBuffer = new int[0];
+	/**
+	 * Native Mat tracker or null for none.
+	 */
+	private MatTracker tracker;
+
+	/**
+	 * Dilate, erode and find bounding rectangles of regions.
+	 *
+	 * @param source
+	 *            Source image. This value is modified.
+	 * @param rects
+	 *            Rectangles (x, y, width, height packed). This value is
+	 *            modified.
+	 * @return Number of rectangles found. Only rects.length / 4 are written
+	 *         if more are found.
+	 */
+	@Override
+	public int boundingRects(final Mat source, final int[] rects) {
+		// CHECKSTYLE:OFF MagicNumber - Magic numbers here for illustration
+		Imgproc.dilate(source, source, kernel, anchor, 15);
+		Imgproc.erode(source, source, kernel, anchor, 10);
+		// CHECKSTYLE:ON MagicNumber
+		final int labelCount = Imgproc.connectedComponentsWithStats(source, labels, stats, centroids, CONNECTIVITY,
+				CvType.CV_32S);
+		// Label 0 is background
+		final int count = Math.max(0, labelCount - 1);
+		final int written = Math.min(count, rects.length / RECT_INTS);
+		if (written > 0) {
+			final int len = labelCount * STAT_INTS;
+			if (statsBuffer.length < len) {
+				statsBuffer = new int[len];
+			}
+			// One copy of all stats instead of one call per region
+			stats.get(0, 0, statsBuffer);
+			for (int i = 0; i < written; i++) {
+				final int offset = (i + 1) * STAT_INTS;
+				rects[i * RECT_INTS] = statsBuffer[offset + Imgproc.CC_STAT_LEFT];
+				rects[i * RECT_INTS + 1] = statsBuffer[offset + Imgproc.CC_STAT_TOP];
+				rects[i * RECT_INTS + 2] = statsBuffer[offset + Imgproc.CC_STAT_WIDTH];
+				rects[i * RECT_INTS + 3] = statsBuffer[offset + Imgproc.CC_STAT_HEIGHT];
+			}
+		}
+		return count;
+	}
+
+	@Override
+	public void setTracker(final MatTracker tracker) {
+		this.tracker = tracker;
+		tracker.trackAll(kernel, labels, stats, centroids);
+	}
+
+	@Override
+	public void free() {
+		if (tracker != null) {
+			tracker.untrackAll(kernel, labels, stats, centroids);
+		}
+		kernel.free();
+		labels.free();
+		stats.free();
+		centroids.free();
+	}
+}
@@ -0,0 +1,288 @@
+/*
+ * Copyright (c) Steven P. Goldsmith. All rights reserved.
+ *
+ * Created by Steven P. Goldsmith on February 13, 2016
+ * sgoldsmith@codeferm.com
+ */
+package com.codeferm.opencv;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+import org.opencv.videoio.VideoCapture;
+
+/**
+ * Compare MotionDetect.contours returning a List of Rects with Contours
+ * writing into an int array. Thresholded motion images are generated from the
+ * source file first, so only region extraction is timed. Both modify the
+ * source, so each call works on a fresh copy. GridMotionMap is timed the same
+ * way as the alternative to dilate and erode, and the average regions per
+ * frame of each are logged. Contours labels connected regions, so it does not
+ * return the nested hole rectangles findContours with RETR_TREE does.
+ *
+ * args[0] = source file or will default to "../resources/traffic.mp4" if no
+ * args passed.
+ *
+ * args[1] = measured iterations over all frames or will default to 5 if not
+ * passed.
+ *
+ * @author sgoldsmith
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+final class ContoursBenchmark {
+	/**
+	 * Logger.
+	 */
+	// CHECKSTYLE:OFF - Logger is static final, not a constant
+	private static final Logger logger = Logger.getLogger(ContoursBenchmark.class // NOPMD
+			.getName());
+
+	// CHECKSTYLE:ON
+	/* Load the OpenCV system library */
+	static {
+		System.loadLibrary(Core.NATIVE_LIBRARY_NAME); // NOPMD
+	}
+
+	/**
+	 * Maximum frames loaded.
+	 */
+	private static final int MAX_FRAMES = 300;
+	/**
+	 * Warm up iterations over all frames.
+	 */
+	private static final int WARMUP = 2;
+
+	/**
+	 * Suppress default constructor for noninstantiability.
+	 */
+	private ContoursBenchmark() {
+		throw new AssertionError();
+	}
+
+	/**
+	 * Generate thresholded motion images the same way MotionDetect does.
+	 *
+	 * @param url
+	 *            Source file.
+	 * @return Thresholded images.
+	 */
+	private static List<Mat> motionImages(final String url) {
+		final List<Mat> images = new ArrayList<Mat>();
+		final VideoCapture videoCapture = new VideoCapture(url);
+		final Mat mat = new Mat();
+		final Mat workImg = new Mat();
+		final Mat movingAvgImg = new Mat();
+		final Mat scaleImg = new Mat();
+		final Mat diffImg = new Mat();
+		final Size kSize = new Size(8, 8);
+		while (images.size() < MAX_FRAMES && videoCapture.read(mat)) {
+			Imgproc.blur(mat, workImg, kSize);
+			if (images.isEmpty()) {
+				workImg.convertTo(movingAvgImg, CvType.CV_32F);
+			}
+			// CHECKSTYLE:OFF MagicNumber - Magic numbers here for illustration
+			Imgproc.accumulateWeighted(workImg, movingAvgImg, .03);
+			Core.convertScaleAbs(movingAvgImg, scaleImg);
+			Core.absdiff(workImg, scaleImg, diffImg);
+			final Mat gray = new Mat();
+			Imgproc.cvtColor(diffImg, gray, Imgproc.COLOR_BGR2GRAY);
+			Imgproc.threshold(gray, gray, 25, 255, Imgproc.THRESH_BINARY);
+			// CHECKSTYLE:ON MagicNumber
+			images.add(gray);
+		}
+		videoCapture.free();
+		mat.free();
+		workImg.free();
+		movingAvgImg.free();
+		scaleImg.free();
+		diffImg.free();
+		return images;
+	}
+
+	/**
+	 * Time List based contours.
+	 *
+	 * @param images
+	 *            Thresholded images.
+	 * @param work
+	 *            Work Mat.
+	 * @param iterations
+	 *            Iterations over all images.
+	 * @return Nanoseconds per call.
+	 */
+	private static double timeList(final List<Mat> images, final Mat work, final int iterations) {
+		long rects = 0;
+		final long start = System.nanoTime();
+		for (int i = 0; i < iterations; i++) {
+			for (final Mat image : images) {
+				image.copyTo(work);
+				final List<Rect> list = MotionDetect.contours(work);
+				rects += list.size();
+			}
+		}
+		final long elapsed = System.nanoTime() - start;
+		logger.log(Level.FINE, String.format("List rectangles: %d", rects));
+		return (double) elapsed / (iterations * images.size());
+	}
+
+	/**
+	 * Time int array based contours.
+	 *
+	 * @param images
+	 *            Thresholded images.
+	 * @param work
+	 *            Work Mat.
+	 * @param rects
+	 *            Rectangle buffer.
+	 * @param contours
+	 *            Contours.
+	 * @param iterations
+	 *            Iterations over all images.
+	 * @return Nanoseconds per call.
+	 */
+	private static double timeArray(final List<Mat> images, final Mat work, final int[] rects,
+			final Contours contours, final int iterations) {
+		long count = 0;
+		final long start = System.nanoTime();
+		for (int i = 0; i < iterations; i++) {
+			for (final Mat image : images) {
+				image.copyTo(work);
+				count += contours.boundingRects(work, rects);
+			}
+		}
+		final long elapsed = System.nanoTime() - start;
+		logger.log(Level.FINE, String.format("Array rectangles: %d", count));
+		return (double) elapsed / (iterations * images.size());
+	}
+
+	/**
+	 * Time grid motion map.
+	 *
+	 * @param images
+	 *            Thresholded images.
+	 * @param work
+	 *            Work Mat.
+	 * @param rects
+	 *            Rectangle buffer.
+	 * @param grid
+	 *            Grid motion map.
+	 * @param iterations
+	 *            Iterations over all images.
+	 * @return Nanoseconds per call.
+	 */
+	private static double timeGrid(final List<Mat> images, final Mat work, final int[] rects,
+			final GridMotionMap grid, final int iterations) {
+		long count = 0;
+		final long start = System.nanoTime();
+		for (int i = 0; i < iterations; i++) {
+			for (final Mat image : images) {
+				// Grid does not modify source, but copy so timings compare
+				image.copyTo(work);
+				count += grid.boundingRects(work, rects);
+			}
+		}
+		final long elapsed = System.nanoTime() - start;
+		logger.log(Level.FINE, String.format("Grid rectangles: %d", count));
+		return (double) elapsed / (iterations * images.size());
+	}
+
+	/**
+	 * Count regions per frame of both region finders.
+	 *
+	 * @param images
+	 *            Thresholded images.
+	 * @param work
+	 *            Work Mat.
+	 * @param rects
+	 *            Rectangle buffer.
+	 * @param contours
+	 *            Contours.
+	 * @param grid
+	 *            Grid motion map.
+	 */
+	private static void logRegions(final List<Mat> images, final Mat work, final int[] rects,
+			final Contours contours, final GridMotionMap grid) {
+		long contourRegions = 0;
+		long gridRegions = 0;
+		for (final Mat image : images) {
+			image.copyTo(work);
+			contourRegions += contours.boundingRects(work, rects);
+			gridRegions += grid.boundingRects(image, rects);
+		}
+		logger.log(Level.INFO, String.format("Regions per frame contours: %4.2f, grid: %4.2f",
+				(double) contourRegions / images.size(), (double) gridRegions / images.size()));
+	}
+
+	/**
+	 * Run benchmark.
+	 *
+	 * args[0] = source file or will default to "../resources/traffic.mp4" if no
+	 * args passed.
+	 *
+	 * args[1] = measured iterations over all frames or will default to 5 if
+	 * not passed.
+	 *
+	 * @param args
+	 *            String array of arguments.
+	 */
+	public static void main(final String[] args) {
+		String url = null;
+		// Check how many arguments were passed in
+		if (args.length == 0) {
+			// If no arguments were passed then default to
+			// ../resources/traffic.mp4
+			url = "../resources/traffic.mp4";
+		} else {
+			url = args[0];
+		}
+		// CHECKSTYLE:OFF MagicNumber - Magic numbers here for illustration
+		int iterations = 5;
+		// CHECKSTYLE:ON MagicNumber
+		if (args.length > 1) {
+			iterations = Integer.parseInt(args[1]);
+		}
+		// Custom logging properties via class loader, read once per JVM
+		Launcher.configureLogging();
+		logger.log(Level.INFO, String.format("OpenCV %s", Core.VERSION));
+		logger.log(Level.INFO, String.format("Input file: %s", url));
+		final List<Mat> images = motionImages(url);
+		logger.log(Level.INFO, String.format("%d frames, %d iterations", images.size(), iterations));
+		final Mat work = new Mat();
+		// CHECKSTYLE:OFF MagicNumber - Magic numbers here for illustration
+		final int[] rects = new int[256 * Contours.RECT_INTS];
+		// CHECKSTYLE:ON MagicNumber
+		// Warm up both so JIT compiles them before timing
+		timeList(images, work, WARMUP);
+		final Contours contours = new Contours();
+		timeArray(images, work, rects, contours, WARMUP);
+		final GridMotionMap grid = new GridMotionMap();
+		timeGrid(images, work, rects, grid, WARMUP);
+		final double listNs = timeList(images, work, iterations);
+		final double arrayNs = timeArray(images, work, rects, contours, iterations);
+		final double gridNs = timeGrid(images, work, rects, grid, iterations);
+		// CHECKSTYLE:OFF MagicNumber - Nanoseconds to microseconds
+		logger.log(Level.INFO, String.format("contours(Mat): %8.1f us/op", listNs / 1000));
+		logger.log(Level.INFO, String.format("Contours: %8.1f us/op", arrayNs / 1000));
+		logger.log(Level.INFO, String.format("GridMotionMap: %8.1f us/op", gridNs / 1000));
+		// CHECKSTYLE:ON MagicNumber
+		logger.log(Level.INFO, String.format("Speedup: %4.2fx", listNs / arrayNs));
+		logger.log(Level.INFO, String.format("Grid speedup over Contours: %4.2fx", arrayNs / gridNs));
+		logRegions(images, work, rects, contours, grid);
+		// Free native memory
+		contours.free();
+		grid.free();
+		work.free();
+		for (final Mat image : images) {
+			image.free();
+		}
+	}
+}
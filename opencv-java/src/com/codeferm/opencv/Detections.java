@@ -0,0 +1,248 @@
+/*
+ * Copyright (c) Steven P. Goldsmith. All rights reserved.
+ *
+ * Created by Steven P. Goldsmith on February 23, 2016
+ * sgoldsmith@codeferm.com
+ */
+package com.codeferm.opencv;
+
+/**
+ * Reusable detection results. Rectangles are packed as x, y, width, height in
+ * an int array with one weight per rectangle. Arrays only grow, so steady
+ * state detection does not allocate.
+ *
+ * @author sgoldsmith
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+final class Detections {
+	/**
+	 * Rectangles (x, y, width, height packed).
+	 */
+	private int[] rects;
+	/**
+	 * Weight of each rectangle.
+	 */
+	private double[] weights;
+	/**
+	 * Number of detections.
+	 */
+	private int count;
+	/**
+	 * Detection indexes sorted by weight for suppression.
+	 */
+	private int[] order = new int[0];
+	/**
+	 * Detections kept by suppression.
+	 */
+	private boolean[] keep = new boolean[0];
+	/**
+	 * Detections suppressed by a higher weight detection.
+	 */
+	private boolean[] suppressed = new boolean[0];
+	/**
+	 * Detections suppressed by each kept detection.
+	 */
+	private int[] neighbors = new int[0];
+
+	/**
+	 * Create detections with default capacity.
+	 */
+	public Detections() {
+		// CHECKSTYLE:OFF MagicNumber - Initial capacity
+		this(16);
+		// CHECKSTYLE:ON MagicNumber
+	}
+
+	/**
+	 * Create detections.
+	 *
+	 * @param capacity
+	 *            Initial capacity.
+	 */
+	public Detections(final int capacity) {
+		rects = new int[capacity * Contours.RECT_INTS];
+		weights = new double[capacity];
+	}
+
+	/**
+	 * Remove all detections.
+	 */
+	public void clear() {
+		count = 0;
+	}
+
+	/**
+	 * Make sure capacity is at least size.
+	 *
+	 * @param size
+	 *            Required capacity.
+	 */
+	private void ensureCapacity(final int size) {
+		if (weights.length < size) {
+			final int capacity = Math.max(size, weights.length * 2);
+			final int[] newRects = new int[capacity * Contours.RECT_INTS];
+			final double[] newWeights = new double[capacity];
+			System.arraycopy(rects, 0, newRects, 0, count * Contours.RECT_INTS);
+			System.arraycopy(weights, 0, newWeights, 0, count);
+			rects = newRects;
+			weights = newWeights;
+		}
+	}
+
+	/**
+	 * Add detection.
+	 *
+	 * @param x
+	 *            X.
+	 * @param y
+	 *            Y.
+	 * @param width
+	 *            Width.
+	 * @param height
+	 *            Height.
+	 * @param weight
+	 *            Weight.
+	 */
+	public void add(final int x, final int y, final int width, final int height, final double weight) {
+		ensureCapacity(count + 1);
+		final int i = count * Contours.RECT_INTS;
+		rects[i] = x;
+		rects[i + 1] = y;
+		rects[i + 2] = width;
+		rects[i + 3] = height;
+		weights[count] = weight;
+		count++;
+	}
+
+	/**
+	 * Add packed rectangles and weights offset by x and y.
+	 *
+	 * @param packed
+	 *            Rectangles (x, y, width, height packed).
+	 * @param packedWeights
+	 *            Weight of each rectangle.
+	 * @param packedCount
+	 *            Number of rectangles.
+	 * @param offsetX
+	 *            Added to x.
+	 * @param offsetY
+	 *            Added to y.
+	 */
+	public void addAll(final int[] packed, final double[] packedWeights, final int packedCount, final int offsetX,
+			final int offsetY) {
+		ensureCapacity(count + packedCount);
+		for (int i = 0; i < packedCount; i++) {
+			final int j = i * Contours.RECT_INTS;
+			add(packed[j] + offsetX, packed[j + 1] + offsetY, packed[j + 2], packed[j + 3], packedWeights[i]);
+		}
+	}
+
+	/**
+	 * Copy all detections from other.
+	 *
+	 * @param other
+	 *            Detections to copy.
+	 */
+	public void copyFrom(final Detections other) {
+		clear();
+		addAll(other.rects, other.weights, other.count, 0, 0);
+	}
+
+	/**
+	 * Keep only detections flagged true. Order is preserved.
+	 *
+	 * @param keep
+	 *            Flag for each detection.
+	 */
+	public void retain(final boolean[] keep) {
+		int n = 0;
+		for (int i = 0; i < count; i++) {
+			if (keep[i]) {
+				if (n != i) {
+					System.arraycopy(rects, i * Contours.RECT_INTS, rects, n * Contours.RECT_INTS,
+							Contours.RECT_INTS);
+					weights[n] = weights[i];
+				}
+				n++;
+			}
+		}
+		count = n;
+	}
+
+	/**
+	 * Greedy non-maximum suppression. Detections are visited by descending
+	 * weight and each one suppresses lower weight detections that overlap it
+	 * by more than maxOverlap. Like groupRectangles, a kept detection also
+	 * needs at least minNeighbors suppressed detections, so isolated hits are
+	 * dropped.
+	 *
+	 * @param maxOverlap
+	 *            Intersection over union above which detections are merged.
+	 * @param minNeighbors
+	 *            Minimum suppressed detections to keep a detection.
+	 */
+	public void suppress(final double maxOverlap, final int minNeighbors) {
+		if (order.length < count) {
+			order = new int[weights.length];
+			keep = new boolean[weights.length];
+			suppressed = new boolean[weights.length];
+			neighbors = new int[weights.length];
+		}
+		// Insertion sort by descending weight, counts are small
+		for (int i = 0; i < count; i++) {
+			int j = i;
+			while (j > 0 && weights[order[j - 1]] < weights[i]) {
+				order[j] = order[j - 1];
+				j--;
+			}
+			order[j] = i;
+			keep[i] = false;
+			suppressed[i] = false;
+			neighbors[i] = 0;
+		}
+		for (int a = 0; a < count; a++) {
+			final int i = order[a];
+			if (!suppressed[i]) {
+				for (int b = a + 1; b < count; b++) {
+					final int j = order[b];
+					if (!suppressed[j] && Rects.iou(rects, i * Contours.RECT_INTS, rects,
+							j * Contours.RECT_INTS) > maxOverlap) {
+						suppressed[j] = true;
+						neighbors[i]++;
+					}
+				}
+				keep[i] = neighbors[i] >= minNeighbors;
+			}
+		}
+		retain(keep);
+	}
+
+	/**
+	 * Rectangles (x, y, width, height packed). Only the first getCount() * 4
+	 * values are valid.
+	 *
+	 * @return Rectangles.
+	 */
+	public int[] getRects() {
+		return rects;
+	}
+
+	/**
+	 * Weights. Only the first getCount() values are valid.
+	 *
+	 * @return Weights.
+	 */
+	public double[] getWeights() {
+		return weights;
+	}
+
+	/**
+	 * Number of detections.
+	 *
+	 * @return Count.
+	 */
+	public int getCount() {
+		return count;
+	}
+}
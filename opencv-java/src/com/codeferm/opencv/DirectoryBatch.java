@@ -0,0 +1,405 @@
+/*
+ * Copyright (c) Steven P. Goldsmith. All rights reserved.
+ *
+ * Created by Steven P. Goldsmith on March 19, 2016
+ * sgoldsmith@codeferm.com
+ */
+package com.codeferm.opencv;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.opencv.core.Core;
+import org.opencv.core.Size;
+
+/**
+ * Process every video matching a file mask concurrently. Files are run on a
+ * pool with one thread per core by default and each job also holds an
+ * estimate of its native memory against a budget, so large frames run fewer
+ * jobs at a time. Each input gets its own output file and a CSV summary of
+ * frames, detections and FPS per file is written to the output dir.
+ *
+ * args[0] = tool writer, canny, motion-detect or people-detect or will default
+ * to "motion-detect" if no args passed.
+ *
+ * args[1] = file mask or will default to "../resources/*.mp4" if not passed.
+ *
+ * args[2] = output dir or will default to "../output" if not passed.
+ *
+ * args[3] = concurrent files or will default to available processors if not
+ * passed.
+ *
+ * The native memory budget in bytes is read from the
+ * com.codeferm.opencv.batchMemory system property and defaults to 1 GB.
+ *
+ * @author sgoldsmith
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+final class DirectoryBatch {
+	/**
+	 * Logger.
+	 */
+	// CHECKSTYLE:OFF ConstantName - Logger is static final, not a constant
+	private static final Logger logger = Logger.getLogger(DirectoryBatch.class // NOPMD
+			.getName());
+	// CHECKSTYLE:ON ConstantName
+	/* Load the OpenCV system library */
+	static {
+		System.loadLibrary(Core.NATIVE_LIBRARY_NAME); // NOPMD
+	}
+
+	/**
+	 * Summary CSV header.
+	 */
+	public static final String CSV_HEADER = "file,output,frames,detections,fps,seconds,error";
+	/**
+	 * Default native memory budget in bytes.
+	 */
+	private static final long DEFAULT_MEMORY = 1L << 30;
+	/**
+	 * Frames of native memory held per job in addition to the ring. Covers
+	 * sink, stage work Mats and the decoder.
+	 */
+	private static final int EXTRA_FRAMES = 8;
+	/**
+	 * Memory budget units in bytes, so permits fit in an int.
+	 */
+	private static final int PERMIT_BYTES = 1024;
+
+	/**
+	 * Result of one file.
+	 */
+	private static final class Result {
+		/**
+		 * Input file.
+		 */
+		private final String file;
+		/**
+		 * Output file.
+		 */
+		private final String output;
+		/**
+		 * Frames processed.
+		 */
+		private int frames;
+		/**
+		 * Frames with motion or people found.
+		 */
+		private long detections;
+		/**
+		 * Frames per second.
+		 */
+		private double fps;
+		/**
+		 * Elapsed seconds.
+		 */
+		private double seconds;
+		/**
+		 * Error message or empty.
+		 */
+		private String error = "";
+
+		/**
+		 * Create result.
+		 *
+		 * @param file
+		 *            Input file.
+		 * @param output
+		 *            Output file.
+		 */
+		Result(final String file, final String output) {
+			this.file = file;
+			this.output = output;
+		}
+	}
+
+	/**
+	 * Suppress default constructor for noninstantiability.
+	 */
+	private DirectoryBatch() {
+		throw new AssertionError();
+	}
+
+	/**
+	 * Input files matching mask in sorted order.
+	 *
+	 * @param inMask
+	 *            File mask.
+	 * @return Files.
+	 * @throws IOException
+	 *             Possible exception.
+	 */
+	private static List<String> files(final String inMask) throws IOException {
+		final File file = new File(inMask);
+		// Get dir
+		final File parentFile = new File(file.getParent());
+		// Make it canonical
+		final Path dir = Paths.get(parentFile.getCanonicalPath());
+		final List<String> files = new ArrayList<String>();
+		try (final DirectoryStream<Path> stream = Files.newDirectoryStream(dir, file.getName())) {
+			for (final Path entry : stream) {
+				files.add(String.format("%s/%s", dir, entry.getFileName()));
+			}
+		}
+		Collections.sort(files);
+		return files;
+	}
+
+	/**
+	 * Output file for input, named after the input and tool.
+	 *
+	 * @param fileName
+	 *            Input file.
+	 * @param outDir
+	 *            Output dir.
+	 * @param tool
+	 *            Tool.
+	 * @return Output file.
+	 */
+	private static String outputFile(final String fileName, final String outDir, final String tool) {
+		final String name = Paths.get(fileName).getFileName().toString();
+		final int dot = name.lastIndexOf('.');
+		return String.format("%s/%s-%s-java.avi", outDir, dot > 0 ? name.substring(0, dot) : name, tool);
+	}
+
+	/**
+	 * Create stage for tool.
+	 *
+	 * @param tool
+	 *            Tool writer, canny, motion-detect or people-detect.
+	 * @param frameSize
+	 *            Frame size.
+	 * @return Stage or null for writer, which has no stage.
+	 */
+	static FrameStage createStage(final String tool, final Size frameSize) {
+		FrameStage stage;
+		switch (tool) {
+		case "writer":
+			stage = null;
+			break;
+		case "canny":
+			stage = new CannyStage();
+			break;
+		case "motion-detect":
+			stage = new MotionDetectStage(new MotionDetector(frameSize), MotionDetectStage.DEFAULT_THRESHOLD);
+			break;
+		case "people-detect":
+			stage = new PeopleDetectStage(
+					PeopleDetect.createDetector("full", frameSize, PeopleDetect.DEFAULT_CADENCE));
+			break;
+		default:
+			throw new IllegalArgumentException(String.format("Unknown tool: %s", tool));
+		}
+		return stage;
+	}
+
+	/**
+	 * Frames the stage found motion or people in.
+	 *
+	 * @param stage
+	 *            Stage or null.
+	 * @return Frames or 0 if stage does not detect.
+	 */
+	static long getDetections(final FrameStage stage) {
+		long detections = 0;
+		if (stage instanceof MotionDetectStage) {
+			detections = ((MotionDetectStage) stage).getFramesWithMotion();
+		} else if (stage instanceof PeopleDetectStage) {
+			detections = ((PeopleDetectStage) stage).getFramesWithPeople();
+		}
+		return detections;
+	}
+
+	/**
+	 * Run tool on one file, holding its native memory estimate against budget
+	 * while it runs.
+	 *
+	 * @param tool
+	 *            Tool.
+	 * @param fileName
+	 *            Input file.
+	 * @param outputFile
+	 *            Output file.
+	 * @param memory
+	 *            Native memory budget.
+	 * @param maxPermits
+	 *            Total permits in budget.
+	 * @return Result.
+	 * @throws InterruptedException
+	 *             Possible exception.
+	 */
+	private static Result process(final String tool, final String fileName, final String outputFile,
+			final Semaphore memory, final int maxPermits) throws InterruptedException {
+		final Result result = new Result(fileName, outputFile);
+		// Throws if file can not be opened, which is recorded as the error
+		final FrameSource source = new FrameSource(fileName);
+		final Size frameSize = source.getFrameSize();
+		// 8 bit BGR frames in ring plus extra
+		final long bytes = (long) frameSize.width * (long) frameSize.height * 3
+				* (FramePipeline.DEFAULT_RING_SIZE + EXTRA_FRAMES);
+		// A job bigger than the whole budget still runs, but alone
+		final int permits = (int) Math.min(maxPermits, Math.max(1, bytes / PERMIT_BYTES));
+		memory.acquire(permits);
+		try {
+			final FramePipeline pipeline = new FramePipeline(source,
+					new FrameSink(outputFile, source.getFps(), frameSize), FramePipeline.DEFAULT_RING_SIZE);
+			// No periodic latency logs from many pipelines at once
+			pipeline.setReportInterval(0);
+			final FrameStage stage;
+			try {
+				stage = createStage(tool, frameSize);
+			} catch (IllegalArgumentException e) {
+				pipeline.free();
+				throw e;
+			}
+			if (stage != null) {
+				pipeline.addStage(stage);
+			}
+			try {
+				final long start = System.currentTimeMillis();
+				result.frames = pipeline.run();
+				// CHECKSTYLE:OFF MagicNumber - Milliseconds to seconds
+				result.seconds = (System.currentTimeMillis() - start) / 1000.0;
+				// CHECKSTYLE:ON MagicNumber
+				result.fps = pipeline.getFps();
+				result.detections = getDetections(stage);
+			} finally {
+				pipeline.free();
+			}
+		} finally {
+			memory.release(permits);
+		}
+		return result;
+	}
+
+	/**
+	 * Write summary CSV with one line per file.
+	 *
+	 * @param fileName
+	 *            CSV file.
+	 * @param results
+	 *            Results.
+	 * @throws IOException
+	 *             Possible exception.
+	 */
+	private static void writeCsv(final String fileName, final List<Result> results) throws IOException {
+		try (PrintWriter writer = new PrintWriter(new FileWriter(fileName))) {
+			writer.println(CSV_HEADER);
+			for (final Result result : results) {
+				writer.println(String.format(Locale.ROOT, "%s,%s,%d,%d,%.1f,%.2f,%s", result.file, result.output,
+						result.frames, result.detections, result.fps, result.seconds, result.error.replace(',', ';')));
+			}
+		}
+	}
+
+	/**
+	 * Process all files matching mask.
+	 *
+	 * args[0] = tool writer, canny, motion-detect or people-detect or will
+	 * default to "motion-detect" if no args passed.
+	 *
+	 * args[1] = file mask or will default to "../resources/*.mp4" if not
+	 * passed.
+	 *
+	 * args[2] = output dir or will default to "../output" if not passed.
+	 *
+	 * args[3] = concurrent files or will default to available processors if
+	 * not passed.
+	 *
+	 * @param args
+	 *            String array of arguments.
+	 * @throws IOException
+	 *             Possible exception.
+	 * @throws InterruptedException
+	 *             Possible exception.
+	 */
+	public static void main(final String[] args) throws IOException, InterruptedException {
+		String tool = "motion-detect";
+		if (args.length > 0) {
+			tool = args[0];
+		}
+		String inMask = "../resources/*.mp4";
+		if (args.length > 1) {
+			inMask = args[1];
+		}
+		String outDir = "../output";
+		if (args.length > 2) {
+			outDir = args[2];
+		}
+		int threads = Runtime.getRuntime().availableProcessors();
+		if (args.length > 3) {
+			threads = Integer.parseInt(args[3]);
+		}
+		// Custom logging properties via class loader, read once per JVM
+		Launcher.configureLogging();
+		logger.log(Level.INFO, String.format("OpenCV %s", Core.VERSION));
+		final long budget = Long.getLong("com.codeferm.opencv.batchMemory", DEFAULT_MEMORY);
+		final int maxPermits = (int) Math.max(1, Math.min(Integer.MAX_VALUE, budget / PERMIT_BYTES));
+		final Semaphore memory = new Semaphore(maxPermits);
+		final List<String> files = files(inMask);
+		logger.log(Level.INFO, String.format("%d files, tool %s, %d threads, %d MB native memory budget",
+				files.size(), tool, threads, budget >> 20));
+		final long start = System.currentTimeMillis();
+		final ExecutorService executor = Executors.newFixedThreadPool(threads);
+		final List<Future<Result>> futures = new ArrayList<Future<Result>>();
+		final String batchTool = tool;
+		final String batchDir = outDir;
+		for (final String fileName : files) {
+			futures.add(executor.submit(new Callable<Result>() {
+				@Override
+				public Result call() throws InterruptedException {
+					return process(batchTool, fileName, outputFile(fileName, batchDir, batchTool), memory,
+							maxPermits);
+				}
+			}));
+		}
+		executor.shutdown();
+		final List<Result> results = new ArrayList<Result>();
+		int frames = 0;
+		int failed = 0;
+		for (int i = 0; i < futures.size(); i++) {
+			Result result;
+			try {
+				result = futures.get(i).get();
+			} catch (ExecutionException e) {
+				// One bad file should not stop the batch
+				final String fileName = files.get(i);
+				logger.log(Level.SEVERE, String.format("Failed: %s", fileName), e.getCause());
+				result = new Result(fileName, outputFile(fileName, outDir, tool));
+				result.error = String.valueOf(e.getCause());
+			}
+			if (!result.error.isEmpty()) {
+				failed++;
+			}
+			frames += result.frames;
+			results.add(result);
+		}
+		final String csvFile = String.format("%s/batch-%s-java.csv", outDir, tool);
+		writeCsv(csvFile, results);
+		// CHECKSTYLE:OFF MagicNumber - Milliseconds to seconds
+		final double seconds = (System.currentTimeMillis() - start) / 1000.0;
+		// CHECKSTYLE:ON MagicNumber
+		logger.log(Level.INFO, String.format("%d files, %d failed, %d frames, summary: %s", files.size(), failed,
+				frames, csvFile));
+		logger.log(Level.INFO, String.format("%4.1f FPS, elapsed time: %4.2f seconds", frames / seconds, seconds));
+	}
+}
@@ -6,9 +6,7 @@
  */
 package com.codeferm.opencv;
 
-import java.io.IOException;
 import java.util.logging.Level;
-import java.util.logging.LogManager;
 import java.util.logging.Logger;
 
 import org.opencv.core.Core;
@@ -70,13 +68,8 @@ final class Drawing {
 		} else {
 			outputFile = args[0];
 		}
-		// Custom logging properties via class loader
-		try {
-			LogManager.getLogManager()
-					.readConfiguration(Drawing.class.getClassLoader().getResourceAsStream("logging.properties"));
-		} catch (SecurityException | IOException e) {
-			e.printStackTrace();
-		}
+		// Custom logging properties via class loader, read once per JVM
+		Launcher.configureLogging();
 		logger.log(Level.INFO, String.format("OpenCV %s", Core.VERSION));
 		logger.log(Level.INFO, String.format("Output file: %s", outputFile));
 		final int width = 640;
@@ -0,0 +1,262 @@
+/*
+ * Copyright (c) Steven P. Goldsmith. All rights reserved.
+ *
+ * Created by Steven P. Goldsmith on March 17, 2016
+ * sgoldsmith@codeferm.com
+ */
+package com.codeferm.opencv;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+
+/**
+ * Event recording sink. Only frames around events are encoded, so encode time
+ * and storage follow activity instead of wall time. A stage marks frames with
+ * trigger. The first marked frame starts a new clip, which begins with the
+ * pre-roll frames kept before it. The clip ends after post-roll frames go by
+ * without a marked frame. Frames outside clips are copied into a fixed ring
+ * of pre-roll Mats, so memory is bounded and nothing is allocated once the
+ * ring is full.
+ *
+ * trigger may be called from the analyze thread while write is called from
+ * the encode thread.
+ *
+ * @author sgoldsmith
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+final class EventFrameSink extends FrameSink {
+	/**
+	 * Logger.
+	 */
+	// CHECKSTYLE:OFF ConstantName - Logger is static final, not a constant
+	private static final Logger logger = Logger.getLogger(EventFrameSink.class // NOPMD
+			.getName());
+	// CHECKSTYLE:ON ConstantName
+	/**
+	 * Clip file name prefix.
+	 */
+	private final String prefix;
+	/**
+	 * Codec.
+	 */
+	private final String fourCC;
+	/**
+	 * Frames per second.
+	 */
+	private final double fps;
+	/**
+	 * Frame size.
+	 */
+	private final Size frameSize;
+	/**
+	 * Frames to keep after last marked frame.
+	 */
+	private final int postRoll;
+	/**
+	 * Frames marked by trigger, not yet written.
+	 */
+	private final Set<Mat> triggered = Collections.newSetFromMap(new ConcurrentHashMap<Mat, Boolean>());
+	/**
+	 * Pre-roll ring.
+	 */
+	private final Mat[] preRoll;
+	/**
+	 * Next pre-roll slot to write.
+	 */
+	private int preRollNext;
+	/**
+	 * Frames in pre-roll ring.
+	 */
+	private int preRollCount;
+	/**
+	 * Current clip or null if not recording.
+	 */
+	private FrameSink clip;
+	/**
+	 * Frames left before clip ends.
+	 */
+	private int postRollLeft;
+	/**
+	 * Clips recorded.
+	 */
+	private volatile int clips;
+	/**
+	 * Frames written to clips.
+	 */
+	private volatile int framesWritten;
+	/**
+	 * Frames not written to any clip.
+	 */
+	private volatile long framesSkipped;
+	/**
+	 * Native Mat tracker or null for none.
+	 */
+	private MatTracker tracker;
+
+	/**
+	 * Create sink with default codec.
+	 *
+	 * @param prefix
+	 *            Clip file name prefix. Clips are named prefix-0001.avi, etc.
+	 * @param fps
+	 *            Frames per second.
+	 * @param frameSize
+	 *            Frame size.
+	 * @param preRoll
+	 *            Frames kept before first marked frame of a clip.
+	 * @param postRoll
+	 *            Frames kept after last marked frame of a clip, at least 1.
+	 */
+	public EventFrameSink(final String prefix, final double fps, final Size frameSize, final int preRoll,
+			final int postRoll) {
+		super(String.format("%s-*.avi", prefix));
+		if (preRoll < 0 || postRoll < 1) {
+			throw new IllegalArgumentException("Pre-roll must be >= 0 and post-roll >= 1");
+		}
+		this.prefix = prefix;
+		this.fourCC = DEFAULT_FOURCC;
+		this.fps = fps;
+		this.frameSize = frameSize;
+		this.postRoll = postRoll;
+		this.preRoll = new Mat[preRoll];
+		for (int i = 0; i < preRoll; i++) {
+			this.preRoll[i] = new Mat();
+		}
+	}
+
+	/**
+	 * Mark frame as an event. Call before the frame is written.
+	 *
+	 * @param frame
+	 *            Frame.
+	 */
+	public void trigger(final Mat frame) {
+		triggered.add(frame);
+	}
+
+	@Override
+	public void write(final Mat frame) {
+		if (triggered.remove(frame)) {
+			if (clip == null) {
+				startClip();
+			}
+			postRollLeft = postRoll;
+			writeClip(frame);
+		} else if (clip != null) {
+			writeClip(frame);
+			if (--postRollLeft <= 0) {
+				endClip();
+			}
+		} else if (preRoll.length == 0) {
+			framesSkipped++;
+		} else {
+			// Oldest frame falls out of a full pre-roll
+			if (preRollCount == preRoll.length) {
+				framesSkipped++;
+			} else {
+				preRollCount++;
+			}
+			frame.copyTo(preRoll[preRollNext]);
+			preRollNext = (preRollNext + 1) % preRoll.length;
+		}
+	}
+
+	/**
+	 * Open next clip and write pre-roll frames to it, oldest first.
+	 */
+	private void startClip() {
+		clips++;
+		final String fileName = String.format("%s-%04d.avi", prefix, clips);
+		logger.log(Level.INFO, String.format("Recording clip: %s", fileName));
+		clip = new FrameSink(fileName, fourCC, fps, frameSize);
+		for (int i = preRollCount; i > 0; i--) {
+			writeClip(preRoll[(preRollNext - i + preRoll.length) % preRoll.length]);
+		}
+		preRollCount = 0;
+	}
+
+	/**
+	 * Write frame to current clip.
+	 *
+	 * @param frame
+	 *            Frame.
+	 */
+	private void writeClip(final Mat frame) {
+		clip.write(frame);
+		framesWritten++;
+	}
+
+	/**
+	 * Close current clip.
+	 */
+	private void endClip() {
+		logger.log(Level.INFO, String.format("Clip %d ended, %d frames", clips, clip.getFrames()));
+		clip.free();
+		clip = null;
+	}
+
+	/**
+	 * Frames written to all clips.
+	 *
+	 * @return Frames.
+	 */
+	@Override
+	public int getFrames() {
+		return framesWritten;
+	}
+
+	/**
+	 * Clips recorded.
+	 *
+	 * @return Clips.
+	 */
+	public int getClips() {
+		return clips;
+	}
+
+	/**
+	 * Frames not written to any clip.
+	 *
+	 * @return Frames.
+	 */
+	public long getFramesSkipped() {
+		return framesSkipped;
+	}
+
+	/**
+	 * Track pre-roll ring Mats. Must be called before the first write.
+	 *
+	 * @param tracker
+	 *            Native Mat tracker.
+	 */
+	@Override
+	public void setTracker(final MatTracker tracker) {
+		this.tracker = tracker;
+		tracker.trackAll(preRoll);
+	}
+
+	@Override
+	public void free() {
+		if (clip != null) {
+			endClip();
+		}
+		// Frames still in pre-roll were never written
+		framesSkipped += preRollCount;
+		preRollCount = 0;
+		if (tracker != null) {
+			tracker.untrackAll(preRoll);
+		}
+		for (final Mat mat : preRoll) {
+			mat.free();
+		}
+		triggered.clear();
+		super.free();
+	}
+}
@@ -0,0 +1,579 @@
+/*
+ * Copyright (c) Steven P. Goldsmith. All rights reserved.
+ *
+ * Created by Steven P. Goldsmith on March 5, 2016
+ * sgoldsmith@codeferm.com
+ */
+package com.codeferm.opencv;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+import org.opencv.video.BackgroundSubtractorMOG2;
+import org.opencv.video.Video;
+import org.opencv.videoio.VideoCapture;
+import org.opencv.videoio.VideoWriter;
+import org.opencv.videoio.Videoio;
+
+/**
+ * Benchmark every per frame operation used by the examples on real frames at
+ * several resolutions. Frames are decoded and resized once up front, then each
+ * operation is warmed up and timed over all frames for a number of
+ * iterations. Mean, standard deviation and best iteration are reported per
+ * call, so regressions and alternate strategies can be compared with real
+ * numbers instead of the end of run FPS line. Garbage collections during the
+ * measured iterations are reported too.
+ *
+ * args[0] = comma separated source files or will default to
+ * "../resources/traffic.mp4,../resources/walking.mp4" if no args passed.
+ *
+ * args[1] = comma separated frame widths or will default to "320,640,1280" if
+ * not passed. Height keeps the source aspect ratio.
+ *
+ * args[2] = measured iterations over all frames or will default to 5 if not
+ * passed.
+ *
+ * @author sgoldsmith
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+final class FrameBenchmark {
+	/**
+	 * Logger.
+	 */
+	// CHECKSTYLE:OFF ConstantName - Logger is static final, not a constant
+	private static final Logger logger = Logger.getLogger(FrameBenchmark.class // NOPMD
+			.getName());
+
+	// CHECKSTYLE:ON ConstantName
+	/* Load the OpenCV system library */
+	static {
+		System.loadLibrary(Core.NATIVE_LIBRARY_NAME); // NOPMD
+	}
+
+	/**
+	 * Maximum frames loaded per source.
+	 */
+	private static final int MAX_FRAMES = 60;
+	/**
+	 * Warm up iterations over all frames.
+	 */
+	private static final int WARMUP = 2;
+	/**
+	 * Blur kernel used by MotionDetect.
+	 */
+	private static final Size BLUR_SIZE = new Size(8, 8);
+
+	/**
+	 * One benchmarked operation.
+	 */
+	private abstract static class Operation {
+		/**
+		 * Name reported.
+		 */
+		private final String name;
+
+		/**
+		 * Create operation.
+		 *
+		 * @param name
+		 *            Name reported.
+		 */
+		Operation(final String name) {
+			this.name = name;
+		}
+
+		/**
+		 * Allocate state for frame size. Called once before timing.
+		 *
+		 * @param frameSize
+		 *            Frame size.
+		 */
+		void setup(final Size frameSize) {
+		}
+
+		/**
+		 * Run operation once.
+		 *
+		 * @param index
+		 *            Frame index.
+		 */
+		abstract void run(int index);
+
+		/**
+		 * Free native memory.
+		 */
+		void free() {
+		}
+	}
+
+	/**
+	 * Frames and images derived from them at one resolution.
+	 */
+	private static final class Inputs {
+		/**
+		 * Color frames.
+		 */
+		private final List<Mat> frames = new ArrayList<Mat>();
+		/**
+		 * Blurred grayscale frames for Canny.
+		 */
+		private final List<Mat> grays = new ArrayList<Mat>();
+		/**
+		 * Grayscale moving average differences.
+		 */
+		private final List<Mat> diffs = new ArrayList<Mat>();
+		/**
+		 * Thresholded differences.
+		 */
+		private final List<Mat> thresholds = new ArrayList<Mat>();
+
+		/**
+		 * Free native memory.
+		 */
+		void free() {
+			freeAll(frames);
+			freeAll(grays);
+			freeAll(diffs);
+			freeAll(thresholds);
+		}
+	}
+
+	/**
+	 * Suppress default constructor for noninstantiability.
+	 */
+	private FrameBenchmark() {
+		throw new AssertionError();
+	}
+
+	/**
+	 * Free native memory of all Mats in list and clear it.
+	 *
+	 * @param list
+	 *            Mats to free.
+	 */
+	private static void freeAll(final List<Mat> list) {
+		for (final Mat mat : list) {
+			mat.free();
+		}
+		list.clear();
+	}
+
+	/**
+	 * Read frames at original resolution.
+	 *
+	 * @param url
+	 *            Source file.
+	 * @return Frames.
+	 */
+	private static List<Mat> readFrames(final String url) {
+		final List<Mat> frames = new ArrayList<Mat>();
+		final VideoCapture videoCapture = new VideoCapture(url);
+		Mat mat = new Mat();
+		while (frames.size() < MAX_FRAMES && videoCapture.read(mat)) {
+			frames.add(mat);
+			mat = new Mat();
+		}
+		mat.free();
+		videoCapture.free();
+		return frames;
+	}
+
+	/**
+	 * Resize frames and derive the grayscale, difference and threshold images
+	 * the examples work on.
+	 *
+	 * @param source
+	 *            Frames at original resolution.
+	 * @param frameSize
+	 *            Benchmark frame size.
+	 * @return Inputs.
+	 */
+	private static Inputs createInputs(final List<Mat> source, final Size frameSize) {
+		final Inputs inputs = new Inputs();
+		final Mat workImg = new Mat();
+		final Mat movingAvgImg = new Mat();
+		final Mat scaleImg = new Mat();
+		final Mat diffImg = new Mat();
+		// CHECKSTYLE:OFF MagicNumber - Magic numbers here for illustration
+		final Size kSize = new Size(3, 3);
+		for (final Mat mat : source) {
+			final Mat frame = new Mat();
+			Imgproc.resize(mat, frame, frameSize, 0, 0, Imgproc.INTER_AREA);
+			inputs.frames.add(frame);
+			// Same preprocessing as Canny
+			final Mat gray = new Mat();
+			Imgproc.cvtColor(frame, gray, Imgproc.COLOR_BGR2GRAY);
+			Imgproc.GaussianBlur(gray, gray, kSize, 0);
+			inputs.grays.add(gray);
+			// Same moving average difference as MotionDetect
+			Imgproc.blur(frame, workImg, BLUR_SIZE);
+			if (movingAvgImg.empty()) {
+				workImg.convertTo(movingAvgImg, CvType.CV_32F);
+			}
+			Imgproc.accumulateWeighted(workImg, movingAvgImg, .03);
+			Core.convertScaleAbs(movingAvgImg, scaleImg);
+			Core.absdiff(workImg, scaleImg, diffImg);
+			final Mat diff = new Mat();
+			Imgproc.cvtColor(diffImg, diff, Imgproc.COLOR_BGR2GRAY);
+			inputs.diffs.add(diff);
+			final Mat threshold = new Mat();
+			Imgproc.threshold(diff, threshold, 25, 255, Imgproc.THRESH_BINARY);
+			inputs.thresholds.add(threshold);
+		}
+		// CHECKSTYLE:ON MagicNumber
+		workImg.free();
+		movingAvgImg.free();
+		scaleImg.free();
+		diffImg.free();
+		return inputs;
+	}
+
+	/**
+	 * Create all operations on inputs.
+	 *
+	 * @param inputs
+	 *            Benchmark inputs.
+	 * @param outputFile
+	 *            VideoWriter output file.
+	 * @param fps
+	 *            VideoWriter frames per second.
+	 * @return Operations.
+	 */
+	private static List<Operation> createOperations(final Inputs inputs, final String outputFile,
+			final double fps) {
+		final List<Operation> operations = new ArrayList<Operation>();
+		operations.add(new Operation("blur") {
+			private final Mat dst = new Mat();
+
+			@Override
+			void run(final int index) {
+				Imgproc.blur(inputs.frames.get(index), dst, BLUR_SIZE);
+			}
+
+			@Override
+			void free() {
+				dst.free();
+			}
+		});
+		operations.add(new Operation("accumulateWeighted") {
+			private final Mat movingAvgImg = new Mat();
+
+			@Override
+			void setup(final Size frameSize) {
+				inputs.frames.get(0).convertTo(movingAvgImg, CvType.CV_32F);
+			}
+
+			@Override
+			void run(final int index) {
+				// CHECKSTYLE:OFF MagicNumber - Magic numbers here for illustration
+				Imgproc.accumulateWeighted(inputs.frames.get(index), movingAvgImg, .03);
+				// CHECKSTYLE:ON MagicNumber
+			}
+
+			@Override
+			void free() {
+				movingAvgImg.free();
+			}
+		});
+		operations.add(new Operation("absdiff") {
+			private final Mat dst = new Mat();
+
+			@Override
+			void run(final int index) {
+				Core.absdiff(inputs.frames.get(index), inputs.frames.get(0), dst);
+			}
+
+			@Override
+			void free() {
+				dst.free();
+			}
+		});
+		operations.add(new Operation("threshold") {
+			private final Mat dst = new Mat();
+
+			@Override
+			void run(final int index) {
+				// CHECKSTYLE:OFF MagicNumber - Magic numbers here for illustration
+				Imgproc.threshold(inputs.diffs.get(index), dst, 25, 255, Imgproc.THRESH_BINARY);
+				// CHECKSTYLE:ON MagicNumber
+			}
+
+			@Override
+			void free() {
+				dst.free();
+			}
+		});
+		operations.add(new Operation("copyTo (gray)") {
+			private final Mat work = new Mat();
+
+			@Override
+			void run(final int index) {
+				inputs.thresholds.get(index).copyTo(work);
+			}
+
+			@Override
+			void free() {
+				work.free();
+			}
+		});
+		operations.add(new Operation("contours + copyTo") {
+			private final Mat work = new Mat();
+			private final Contours contours = new Contours();
+			private final int[] rects = new int[MotionDetector.DEFAULT_MAX_RECTS * Contours.RECT_INTS];
+
+			@Override
+			void run(final int index) {
+				// Contours modifies its source
+				inputs.thresholds.get(index).copyTo(work);
+				contours.boundingRects(work, rects);
+			}
+
+			@Override
+			void free() {
+				work.free();
+				contours.free();
+			}
+		});
+		operations.add(new Operation("MotionDetect.contours + copyTo") {
+			private final Mat work = new Mat();
+
+			@Override
+			void run(final int index) {
+				// Allocates a List, hierarchy and MatOfPoint per contour per call
+				inputs.thresholds.get(index).copyTo(work);
+				MotionDetect.contours(work);
+			}
+
+			@Override
+			void free() {
+				work.free();
+			}
+		});
+		operations.add(new Operation("MOG2.apply") {
+			private final Mat foreground = new Mat();
+			private BackgroundSubtractorMOG2 mog2;
+
+			@Override
+			void setup(final Size frameSize) {
+				// CHECKSTYLE:OFF MagicNumber - Magic numbers here for illustration
+				mog2 = Video.createBackgroundSubtractorMOG2(300, 32, true);
+				// CHECKSTYLE:ON MagicNumber
+			}
+
+			@Override
+			void run(final int index) {
+				mog2.apply(inputs.frames.get(index), foreground, -1);
+			}
+
+			@Override
+			void free() {
+				foreground.free();
+				mog2.free();
+			}
+		});
+		operations.add(new Operation("Canny") {
+			private final Mat edges = new Mat();
+
+			@Override
+			void run(final int index) {
+				// CHECKSTYLE:OFF MagicNumber - Magic numbers here for illustration
+				Imgproc.Canny(inputs.grays.get(index), edges, 100, 200, 3, false);
+				// CHECKSTYLE:ON MagicNumber
+			}
+
+			@Override
+			void free() {
+				edges.free();
+			}
+		});
+		operations.add(new Operation("HOG.detectMultiScale") {
+			private HogPeopleDetector detector;
+
+			@Override
+			void setup(final Size frameSize) {
+				detector = new HogPeopleDetector();
+			}
+
+			@Override
+			void run(final int index) {
+				detector.detect(inputs.frames.get(index));
+			}
+
+			@Override
+			void free() {
+				detector.free();
+			}
+		});
+		operations.add(new Operation("VideoWriter.write") {
+			private VideoWriter videoWriter;
+
+			@Override
+			void setup(final Size frameSize) {
+				videoWriter = new VideoWriter(outputFile, new FourCC("X264").toInt(), fps, frameSize, true);
+			}
+
+			@Override
+			void run(final int index) {
+				videoWriter.write(inputs.frames.get(index));
+			}
+
+			@Override
+			void free() {
+				videoWriter.free();
+			}
+		});
+		operations.add(new Operation("CaptureUI.convert (new)") {
+			@Override
+			void run(final int index) {
+				CaptureUI.toBufferedImage(inputs.frames.get(index));
+			}
+		});
+		operations.add(new Operation("CaptureUI.convert (reuse)") {
+			private BufferedImage image;
+
+			@Override
+			void run(final int index) {
+				image = CaptureUI.toBufferedImage(inputs.frames.get(index), image);
+			}
+
+			@Override
+			void free() {
+				image = null;
+			}
+		});
+		return operations;
+	}
+
+	/**
+	 * Time one iteration over all frames.
+	 *
+	 * @param operation
+	 *            Operation.
+	 * @param frames
+	 *            Number of frames.
+	 * @return Nanoseconds per call.
+	 */
+	private static double time(final Operation operation, final int frames) {
+		final long start = System.nanoTime();
+		for (int i = 0; i < frames; i++) {
+			operation.run(i);
+		}
+		return (double) (System.nanoTime() - start) / frames;
+	}
+
+	/**
+	 * Warm up, time and log operation.
+	 *
+	 * @param operation
+	 *            Operation.
+	 * @param frameSize
+	 *            Frame size.
+	 * @param frames
+	 *            Number of frames.
+	 * @param iterations
+	 *            Measured iterations.
+	 */
+	private static void measure(final Operation operation, final Size frameSize, final int frames,
+			final int iterations) {
+		operation.setup(frameSize);
+		for (int i = 0; i < WARMUP; i++) {
+			time(operation, frames);
+		}
+		double sum = 0;
+		double sumSquares = 0;
+		double best = Double.MAX_VALUE;
+		final GcSnapshot startGc = GcSnapshot.now();
+		for (int i = 0; i < iterations; i++) {
+			final double ns = time(operation, frames);
+			sum += ns;
+			sumSquares += ns * ns;
+			best = Math.min(best, ns);
+		}
+		final GcSnapshot gc = GcSnapshot.now().since(startGc);
+		operation.free();
+		final double mean = sum / iterations;
+		final double stdDev = Math.sqrt(Math.max(0, sumSquares / iterations - mean * mean));
+		// CHECKSTYLE:OFF MagicNumber - Nanoseconds to microseconds and seconds
+		logger.log(Level.INFO, String.format(
+				"%-26s %4dx%-4d %10.1f +- %8.1f us/op, best %10.1f us/op, %8.1f ops/s, GC %d (%d ms)",
+				operation.name, (int) frameSize.width, (int) frameSize.height, mean / 1000, stdDev / 1000,
+				best / 1000, 1000000000 / mean, gc.getCount(), gc.getTime()));
+		// CHECKSTYLE:ON MagicNumber
+	}
+
+	/**
+	 * Run benchmark.
+	 *
+	 * args[0] = comma separated source files or will default to
+	 * "../resources/traffic.mp4,../resources/walking.mp4" if no args passed.
+	 *
+	 * args[1] = comma separated frame widths or will default to "320,640,1280"
+	 * if not passed.
+	 *
+	 * args[2] = measured iterations over all frames or will default to 5 if
+	 * not passed.
+	 *
+	 * @param args
+	 *            String array of arguments.
+	 */
+	public static void main(final String[] args) {
+		String urls = null;
+		// Check how many arguments were passed in
+		if (args.length == 0) {
+			// If no arguments were passed then default to local files
+			urls = "../resources/traffic.mp4,../resources/walking.mp4";
+		} else {
+			urls = args[0];
+		}
+		String widths = "320,640,1280";
+		if (args.length > 1) {
+			widths = args[1];
+		}
+		// CHECKSTYLE:OFF MagicNumber - Magic numbers here for illustration
+		int iterations = 5;
+		// CHECKSTYLE:ON MagicNumber
+		if (args.length > 2) {
+			iterations = Integer.parseInt(args[2]);
+		}
+		// Custom logging properties via class loader, read once per JVM
+		Launcher.configureLogging();
+		logger.log(Level.INFO, String.format("OpenCV %s", Core.VERSION));
+		logger.log(Level.INFO, String.format("%d warm up iterations, %d measured iterations", WARMUP, iterations));
+		final String outputFile = "../output/frame-benchmark-java.avi";
+		for (final String url : urls.split(",")) {
+			logger.log(Level.INFO, String.format("Input file: %s", url));
+			final VideoCapture videoCapture = new VideoCapture(url);
+			final double sourceWidth = videoCapture.get(Videoio.CAP_PROP_FRAME_WIDTH);
+			final double sourceHeight = videoCapture.get(Videoio.CAP_PROP_FRAME_HEIGHT);
+			final double fps = videoCapture.get(Videoio.CAP_PROP_FPS);
+			videoCapture.free();
+			final List<Mat> source = readFrames(url);
+			logger.log(Level.INFO, String.format("%d frames, source resolution %dx%d", source.size(),
+					(int) sourceWidth, (int) sourceHeight));
+			if (source.isEmpty()) {
+				continue;
+			}
+			for (final String width : widths.split(",")) {
+				final int frameWidth = Integer.parseInt(width.trim());
+				// Keep aspect ratio with an even height
+				final int frameHeight = (int) Math.round(frameWidth * sourceHeight / sourceWidth / 2) * 2;
+				final Size frameSize = new Size(frameWidth, frameHeight);
+				final Inputs inputs = createInputs(source, frameSize);
+				for (final Operation operation : createOperations(inputs, outputFile, fps)) {
+					measure(operation, frameSize, inputs.frames.size(), iterations);
+				}
+				inputs.free();
+			}
+			freeAll(source);
+		}
+	}
+}
@@ -0,0 +1,851 @@
+/*
+ * Copyright (c) Steven P. Goldsmith. All rights reserved.
+ *
+ * Created by Steven P. Goldsmith on February 6, 2016
+ * sgoldsmith@codeferm.com
+ */
+package com.codeferm.opencv;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+
+/**
+ * Three stage capture, analyze and encode pipeline. Frames are read from a
+ * FrameSource, passed through a chain of FrameStages and written to a
+ * FrameSink. Capture, analysis and encode each run on their own thread, so
+ * decode and encode overlap with analysis. Frames move between threads through
+ * a bounded ring of Mats that are allocated once up front, thus no Mat is
+ * allocated per frame. The time each thread spends waiting for a frame is
+ * logged, so the one with the least wait time is the bottleneck.
+ *
+ * Capture, each stage and encode are timed per frame into latency histograms.
+ * p50, p99, p99.9 and max are logged periodically and at the end of the run,
+ * and can be written to a CSV file to compare builds.
+ *
+ * If capture, a stage or encode fails, the pipeline stops, every ring Mat is
+ * returned to the pool and run() throws the first failure, so a failed run is
+ * never mistaken for a short file.
+ *
+ * While running, live statistics are registered as a FramePipelineMBean named
+ * com.codeferm.opencv:type=FramePipeline,id=n,source="url".
+ *
+ * args[0] = source file or will default to "../resources/traffic.mp4" if no
+ * args passed.
+ *
+ * args[1] = ring size or will default to 8 if not passed.
+ *
+ * args[2] = latency CSV file or will default to
+ * "../output/pipeline-latency-java.csv" if not passed.
+ *
+ * args[3] = asynchronous sink policy block, drop-oldest or drop-newest or
+ * will default to writing frames on the encode thread if not passed.
+ *
+ * @author sgoldsmith
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+final class FramePipeline {
+	/**
+	 * Logger.
+	 */
+	// CHECKSTYLE:OFF - Logger is static final, not a constant
+	private static final Logger logger = Logger.getLogger(FramePipeline.class // NOPMD
+			.getName());
+
+	// CHECKSTYLE:ON
+	/* Load the OpenCV system library */
+	static {
+		System.loadLibrary(Core.NATIVE_LIBRARY_NAME); // NOPMD
+	}
+
+	/**
+	 * Default number of Mats in ring.
+	 */
+	public static final int DEFAULT_RING_SIZE = 8;
+	/**
+	 * Default latency report interval in milliseconds.
+	 */
+	public static final long DEFAULT_REPORT_INTERVAL = 10000;
+	/**
+	 * Seconds averaged for rolling FPS.
+	 */
+	private static final int ROLLING_SECONDS = 10;
+	/**
+	 * Pipeline id used in MBean names.
+	 */
+	private static final AtomicInteger NEXT_ID = new AtomicInteger();
+
+	/**
+	 * Live statistics exposed to JMX. Frames written are counted per second
+	 * in a small ring, so current and rolling FPS cost one increment per frame.
+	 */
+	private final class Stats implements FramePipelineMBean {
+		/**
+		 * Frames written in each second, indexed by second modulo length.
+		 */
+		private final int[] secondFrames = new int[ROLLING_SECONDS + 1];
+		/**
+		 * Frames passed to sink, which may keep fewer than this.
+		 */
+		private volatile long framesWritten;
+		/**
+		 * Second of last frame or read.
+		 */
+		private long second;
+		/**
+		 * Run start time in milliseconds.
+		 */
+		private volatile long startTime;
+
+		/**
+		 * Start counting.
+		 *
+		 * @param now
+		 *            Time in milliseconds.
+		 */
+		synchronized void start(final long now) {
+			startTime = now;
+			// CHECKSTYLE:OFF MagicNumber - Milliseconds to seconds
+			second = now / 1000;
+			// CHECKSTYLE:ON MagicNumber
+		}
+
+		/**
+		 * Clear seconds passed since last frame or read.
+		 *
+		 * @param now
+		 *            Time in milliseconds.
+		 */
+		private void advance(final long now) {
+			// CHECKSTYLE:OFF MagicNumber - Milliseconds to seconds
+			final long nowSecond = now / 1000;
+			// CHECKSTYLE:ON MagicNumber
+			final long passed = Math.min(nowSecond - second, secondFrames.length);
+			for (int i = 1; i <= passed; i++) {
+				secondFrames[(int) ((second + i) % secondFrames.length)] = 0;
+			}
+			if (passed > 0) {
+				second = nowSecond;
+			}
+		}
+
+		/**
+		 * Count frame written.
+		 *
+		 * @param now
+		 *            Time in milliseconds.
+		 */
+		synchronized void written(final long now) {
+			advance(now);
+			secondFrames[(int) (second % secondFrames.length)]++;
+			framesWritten++;
+		}
+
+		@Override
+		public String getSource() {
+			return source.getUrl();
+		}
+
+		@Override
+		public String getOutput() {
+			return sink.getOutputFile();
+		}
+
+		@Override
+		public long getFramesRead() {
+			return source.getFrames();
+		}
+
+		@Override
+		public long getFramesWritten() {
+			return framesWritten;
+		}
+
+		@Override
+		public long getDroppedFrames() {
+			return sink.getDroppedFrames();
+		}
+
+		@Override
+		public long getFramesWithMotion() {
+			long frames = 0;
+			for (final FrameStage stage : stages) {
+				if (stage instanceof MotionStage) {
+					frames += ((MotionStage) stage).getFramesWithMotion();
+				}
+			}
+			return frames;
+		}
+
+		@Override
+		public long getFramesWithPeople() {
+			long frames = 0;
+			for (final FrameStage stage : stages) {
+				if (stage instanceof PeopleDetectStage) {
+					frames += ((PeopleDetectStage) stage).getFramesWithPeople();
+				}
+			}
+			return frames;
+		}
+
+		@Override
+		public synchronized double getCurrentFps() {
+			advance(System.currentTimeMillis());
+			return secondFrames[(int) ((second - 1) % secondFrames.length)];
+		}
+
+		@Override
+		public synchronized double getRollingFps() {
+			advance(System.currentTimeMillis());
+			// Only complete seconds since start count
+			// CHECKSTYLE:OFF MagicNumber - Milliseconds to seconds
+			final int seconds = (int) Math.min(ROLLING_SECONDS, second - startTime / 1000);
+			// CHECKSTYLE:ON MagicNumber
+			int frames = 0;
+			for (int i = 1; i <= seconds; i++) {
+				frames += secondFrames[(int) ((second - i) % secondFrames.length)];
+			}
+			return seconds <= 0 ? 0 : (double) frames / seconds;
+		}
+
+		@Override
+		public double getAverageFps() {
+			final long elapsed = System.currentTimeMillis() - startTime;
+			// CHECKSTYLE:OFF MagicNumber - Milliseconds to seconds
+			return elapsed <= 0 ? 0 : framesWritten * 1000.0 / elapsed;
+			// CHECKSTYLE:ON MagicNumber
+		}
+
+		@Override
+		public int getFreeQueueDepth() {
+			return freeQueue.size();
+		}
+
+		@Override
+		public int getCaptureQueueDepth() {
+			return captureQueue.size();
+		}
+
+		@Override
+		public int getEncodeQueueDepth() {
+			return encodeQueue.size();
+		}
+
+		@Override
+		public int getSinkQueueDepth() {
+			return sink.getQueueDepth();
+		}
+
+		@Override
+		public double getEncodeFps() {
+			return sink.getEncodeFps();
+		}
+
+		@Override
+		public long getLiveMatBytes() {
+			// Stage and sink Mats are only visible to a tracker
+			return matTracker == null ? -1 : matTracker.getLiveBytes();
+		}
+
+		@Override
+		public long getRingMatBytes() {
+			return matPool.getBytes();
+		}
+	}
+
+	/**
+	 * Frame source.
+	 */
+	private final FrameSource source;
+	/**
+	 * Frame sink.
+	 */
+	private final FrameSink sink;
+	/**
+	 * Stages run in order on each frame.
+	 */
+	private final List<FrameStage> stages = new ArrayList<FrameStage>();
+	/**
+	 * Latency histograms.
+	 */
+	private final LatencyHistograms latency = new LatencyHistograms();
+	/**
+	 * Capture latency.
+	 */
+	private final LatencyHistogram captureLatency = latency.get("capture");
+	/**
+	 * Latency of each stage.
+	 */
+	private final List<LatencyHistogram> stageLatency = new ArrayList<LatencyHistogram>();
+	/**
+	 * Encode latency, created after stages so reports are in frame order.
+	 */
+	private LatencyHistogram encodeLatency;
+	/**
+	 * Latency report interval in milliseconds, 0 for end of run only.
+	 */
+	private long reportInterval = DEFAULT_REPORT_INTERVAL;
+	/**
+	 * Latency CSV file or null for none.
+	 */
+	private String csvFile;
+	/**
+	 * Live statistics.
+	 */
+	private final Stats stats = new Stats();
+	/**
+	 * Number of Mats in ring.
+	 */
+	private final int ringSize;
+	/**
+	 * Marks end of stream. Never read into or written.
+	 */
+	private final Mat endOfStream = new Mat();
+	/**
+	 * Empty Mats ready for capture.
+	 */
+	private final BlockingQueue<Mat> freeQueue;
+	/**
+	 * Captured Mats ready for analysis.
+	 */
+	private final BlockingQueue<Mat> captureQueue;
+	/**
+	 * Analyzed Mats ready for encode.
+	 */
+	private final BlockingQueue<Mat> encodeQueue;
+	/**
+	 * Pool ring Mats are leased from.
+	 */
+	private final MatPool matPool;
+	/**
+	 * Native Mat tracker or null for none.
+	 */
+	private final MatTracker matTracker;
+	/**
+	 * Time capture thread waited for a free Mat in nanoseconds.
+	 */
+	private volatile long captureWait;
+	/**
+	 * Time analysis thread waited for a captured Mat in nanoseconds.
+	 */
+	private volatile long analyzeWait;
+	/**
+	 * Time encode thread waited for an analyzed Mat in nanoseconds.
+	 */
+	private volatile long encodeWait;
+	/**
+	 * First failure of capture or analysis thread or null.
+	 */
+	private final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+	/**
+	 * Frames per second of last run.
+	 */
+	private double fps;
+
+	/**
+	 * Create pipeline. Each queue can hold the entire ring, so put never
+	 * blocks.
+	 *
+	 * @param source
+	 *            Frame source.
+	 * @param sink
+	 *            Frame sink.
+	 * @param ringSize
+	 *            Number of Mats in ring.
+	 */
+	public FramePipeline(final FrameSource source, final FrameSink sink, final int ringSize) {
+		this(source, sink, ringSize, null);
+	}
+
+	/**
+	 * Create pipeline with native Mat tracking. Ring Mats, sink buffers and
+	 * work Mats of stages added later are tracked, the tracker is sampled with
+	 * each latency report and the budget, if any, is enforced there.
+	 *
+	 * @param source
+	 *            Frame source.
+	 * @param sink
+	 *            Frame sink.
+	 * @param ringSize
+	 *            Number of Mats in ring.
+	 * @param matTracker
+	 *            Native Mat tracker or null for none.
+	 */
+	public FramePipeline(final FrameSource source, final FrameSink sink, final int ringSize,
+			final MatTracker matTracker) {
+		if (ringSize < 1) {
+			throw new IllegalArgumentException("Ring size must be at least 1");
+		}
+		this.source = source;
+		this.sink = sink;
+		this.ringSize = ringSize;
+		this.matTracker = matTracker;
+		matPool = new MatPool(false, matTracker);
+		if (matTracker != null) {
+			sink.setTracker(matTracker);
+		}
+		freeQueue = new ArrayBlockingQueue<Mat>(ringSize);
+		// One extra slot for end of stream marker
+		captureQueue = new ArrayBlockingQueue<Mat>(ringSize + 1);
+		encodeQueue = new ArrayBlockingQueue<Mat>(ringSize + 1);
+	}
+
+	/**
+	 * Add stage to end of chain. Its work Mats are tracked if this pipeline
+	 * has a tracker.
+	 *
+	 * @param stage
+	 *            Frame stage.
+	 * @return This pipeline, so calls can be chained.
+	 */
+	public FramePipeline addStage(final FrameStage stage) {
+		if (matTracker != null) {
+			stage.setTracker(matTracker);
+		}
+		stages.add(stage);
+		stageLatency.add(latency.create(stage.getClass().getSimpleName()));
+		return this;
+	}
+
+	/**
+	 * Set latency report interval.
+	 *
+	 * @param reportInterval
+	 *            Interval in milliseconds, 0 for end of run only.
+	 */
+	public void setReportInterval(final long reportInterval) {
+		this.reportInterval = reportInterval;
+	}
+
+	/**
+	 * Set file latency CSV is written to at the end of the run.
+	 *
+	 * @param csvFile
+	 *            CSV file or null for none.
+	 */
+	public void setCsvFile(final String csvFile) {
+		this.csvFile = csvFile;
+	}
+
+	/**
+	 * Latency histograms. Stages may add their own before the run starts.
+	 *
+	 * @return Latency histograms.
+	 */
+	public LatencyHistograms getLatency() {
+		return latency;
+	}
+
+	/**
+	 * Read frames into free Mats until end of stream.
+	 *
+	 * @throws InterruptedException
+	 *             Possible exception.
+	 */
+	private void capture() throws InterruptedException {
+		Mat mat = null;
+		try {
+			while (true) {
+				final long start = System.nanoTime();
+				mat = freeQueue.take();
+				final long readStart = System.nanoTime();
+				captureWait += readStart - start;
+				if (!source.read(mat)) {
+					break;
+				}
+				captureLatency.record(System.nanoTime() - readStart);
+				captureQueue.put(mat);
+				mat = null;
+			}
+		} finally {
+			// Mat not handed on goes back to the ring, so freeRing sees it
+			if (mat != null) {
+				freeQueue.offer(mat);
+			}
+			captureQueue.put(endOfStream);
+		}
+	}
+
+	/**
+	 * Process captured Mats until end of stream.
+	 *
+	 * @throws InterruptedException
+	 *             Possible exception.
+	 */
+	private void analyze() throws InterruptedException {
+		Mat mat = null;
+		try {
+			while (true) {
+				final long start = System.nanoTime();
+				mat = captureQueue.take();
+				analyzeWait += System.nanoTime() - start;
+				if (mat == endOfStream) {
+					mat = null;
+					break;
+				}
+				for (int i = 0; i < stages.size(); i++) {
+					final long stageStart = System.nanoTime();
+					stages.get(i).process(mat);
+					stageLatency.get(i).record(System.nanoTime() - stageStart);
+				}
+				encodeQueue.put(mat);
+				mat = null;
+			}
+		} finally {
+			// Mat not handed on goes back to the ring, so freeRing sees it
+			if (mat != null) {
+				freeQueue.offer(mat);
+			}
+			encodeQueue.put(endOfStream);
+		}
+	}
+
+	/**
+	 * Write analyzed Mats until end of stream and return them to the ring.
+	 *
+	 * @return Number of frames written.
+	 * @throws InterruptedException
+	 *             Possible exception.
+	 */
+	private int encode() throws InterruptedException {
+		int frames = 0;
+		long nextReport = System.currentTimeMillis() + reportInterval;
+		while (true) {
+			final long start = System.nanoTime();
+			final Mat mat = encodeQueue.take();
+			final long writeStart = System.nanoTime();
+			encodeWait += writeStart - start;
+			if (mat == endOfStream) {
+				break;
+			}
+			try {
+				sink.write(mat);
+			} catch (RuntimeException e) {
+				// Back to the ring, so freeRing sees it
+				freeQueue.offer(mat);
+				throw e;
+			}
+			encodeLatency.record(System.nanoTime() - writeStart);
+			stats.written(System.currentTimeMillis());
+			frames++;
+			freeQueue.put(mat);
+			if (reportInterval > 0 && System.currentTimeMillis() >= nextReport) {
+				logLatency();
+				sampleMats();
+				nextReport += reportInterval;
+			}
+		}
+		return frames;
+	}
+
+	/**
+	 * Log latency of capture, each stage and encode.
+	 */
+	private void logLatency() {
+		for (final String line : latency.report()) {
+			logger.log(Level.INFO, line);
+		}
+	}
+
+	/**
+	 * Sample and log native Mat usage if tracked.
+	 *
+	 * @throws IllegalStateException
+	 *             If native Mat budget is exceeded.
+	 */
+	private void sampleMats() {
+		if (matTracker != null) {
+			final long bytes = matTracker.sample();
+			logger.log(Level.INFO, String.format("Native Mats live: %d, %d bytes, peak %d bytes",
+					matTracker.getLiveCount(), bytes, matTracker.getPeakBytes()));
+		}
+	}
+
+	/**
+	 * Register live statistics MBean. Failure is logged, but does not stop
+	 * the pipeline.
+	 *
+	 * @return MBean name or null if not registered.
+	 */
+	private ObjectName registerMBean() {
+		ObjectName name = null;
+		try {
+			name = new ObjectName(String.format("com.codeferm.opencv:type=FramePipeline,id=%d,source=%s",
+					NEXT_ID.incrementAndGet(), ObjectName.quote(source.getUrl())));
+			ManagementFactory.getPlatformMBeanServer().registerMBean(new StandardMBean(stats,
+					FramePipelineMBean.class), name);
+			logger.log(Level.INFO, String.format("MBean: %s", name));
+		} catch (JMException e) {
+			logger.log(Level.WARNING, "Unable to register MBean", e);
+			name = null;
+		}
+		return name;
+	}
+
+	/**
+	 * Unregister live statistics MBean.
+	 *
+	 * @param name
+	 *            MBean name or null if not registered.
+	 */
+	private void unregisterMBean(final ObjectName name) {
+		if (name != null) {
+			try {
+				ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+			} catch (JMException e) {
+				logger.log(Level.WARNING, String.format("Unable to unregister MBean: %s", name), e);
+			}
+		}
+	}
+
+	/**
+	 * Start stage thread.
+	 *
+	 * @param name
+	 *            Thread name.
+	 * @param runnable
+	 *            Stage.
+	 * @return Started thread.
+	 */
+	private Thread startStage(final String name, final Runnable runnable) {
+		final Thread thread = new Thread(runnable, name);
+		thread.start();
+		return thread;
+	}
+
+	/**
+	 * Keep first failure of a pipeline thread.
+	 *
+	 * @param e
+	 *            Failure.
+	 */
+	private void fail(final Throwable e) {
+		logger.log(Level.SEVERE, String.format("Pipeline %s thread failed", Thread.currentThread().getName()), e);
+		failure.compareAndSet(null, e);
+	}
+
+	/**
+	 * Throw first failure of capture or analysis thread, if any.
+	 */
+	private void throwFailure() {
+		final Throwable e = failure.get();
+		if (e instanceof RuntimeException) {
+			throw (RuntimeException) e;
+		} else if (e instanceof Error) {
+			throw (Error) e;
+		} else if (e != null) {
+			throw new IllegalStateException("Pipeline thread failed", e);
+		}
+	}
+
+	/**
+	 * Run pipeline until end of stream. Capture and analysis run on their own
+	 * threads and encode runs on the calling thread.
+	 *
+	 * @return Number of frames written.
+	 * @throws InterruptedException
+	 *             Possible exception.
+	 * @throws RuntimeException
+	 *             First failure of capture, a stage or encode. Frames written
+	 *             before it are in the sink.
+	 */
+	public int run() throws InterruptedException {
+		logger.log(Level.INFO, String.format("Input file: %s", source.getUrl()));
+		logger.log(Level.INFO, String.format("Output file: %s", sink.getOutputFile()));
+		logger.log(Level.INFO, String.format("Ring size: %d", ringSize));
+		final Size frameSize = source.getFrameSize();
+		logger.log(Level.INFO, String.format("Resolution: %s", frameSize));
+		if (encodeLatency == null) {
+			encodeLatency = latency.get("encode");
+		}
+		// Allocate ring once, VideoCapture.read reuses Mat data of the same
+		// size and type
+		for (int i = 0; i < ringSize; i++) {
+			freeQueue.put(matPool.lease(frameSize, CvType.CV_8UC3));
+		}
+		stats.start(System.currentTimeMillis());
+		final ObjectName mbeanName = registerMBean();
+		final Thread captureThread = startStage("capture", new Runnable() {
+			@Override
+			public void run() {
+				try {
+					capture();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				} catch (Throwable e) { // NOPMD - Rethrown by run
+					fail(e);
+				}
+			}
+		});
+		final Thread analyzeThread = startStage("analyze", new Runnable() {
+			@Override
+			public void run() {
+				try {
+					analyze();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				} catch (Throwable e) { // NOPMD - Rethrown by run
+					fail(e);
+				}
+			}
+		});
+		final long startTime = System.currentTimeMillis();
+		final int frames;
+		try {
+			frames = encode();
+		} finally {
+			unregisterMBean(mbeanName);
+			// Only still running if a stage or encode failed
+			captureThread.interrupt();
+			analyzeThread.interrupt();
+			captureThread.join();
+			analyzeThread.join();
+			freeRing();
+		}
+		throwFailure();
+		final long estimatedTime = System.currentTimeMillis() - startTime;
+		final double seconds = (double) estimatedTime / 1000;
+		fps = frames / seconds;
+		logger.log(Level.INFO, String.format("%d frames", frames));
+		logger.log(Level.INFO, String.format("%4.1f FPS, elapsed time: %4.2f seconds", fps, seconds));
+		// CHECKSTYLE:OFF MagicNumber - Nanoseconds to seconds
+		logger.log(Level.INFO, String.format("Wait time capture: %4.2f, analyze: %4.2f, encode: %4.2f seconds",
+				captureWait / 1e9, analyzeWait / 1e9, encodeWait / 1e9));
+		// CHECKSTYLE:ON MagicNumber
+		logLatency();
+		if (csvFile != null) {
+			try {
+				latency.writeCsv(csvFile);
+				logger.log(Level.INFO, String.format("Latency CSV file: %s", csvFile));
+			} catch (IOException e) {
+				logger.log(Level.WARNING, String.format("Unable to write latency CSV file: %s", csvFile), e);
+			}
+		}
+		return frames;
+	}
+
+	/**
+	 * Return ring Mats from all queues to the pool and free it. Called on
+	 * exception paths too, so nothing is left allocated.
+	 */
+	private void freeRing() {
+		for (final BlockingQueue<Mat> queue : Arrays.asList(freeQueue, captureQueue, encodeQueue)) {
+			Mat mat;
+			while ((mat = queue.poll()) != null) {
+				if (mat != endOfStream) {
+					matPool.release(mat);
+				}
+			}
+		}
+		if (matTracker != null) {
+			matTracker.sample();
+		}
+		matPool.free();
+		endOfStream.free();
+	}
+
+	/**
+	 * Frames per second of last run.
+	 *
+	 * @return Frames per second.
+	 */
+	public double getFps() {
+		return fps;
+	}
+
+	/**
+	 * Free native memory of source, stages and sink.
+	 */
+	public void free() {
+		source.free();
+		for (final FrameStage stage : stages) {
+			stage.free();
+		}
+		sink.free();
+	}
+
+	/**
+	 * Run Canny edge detection on all frames using the pipeline.
+	 *
+	 * args[0] = source file or will default to "../resources/traffic.mp4" if no
+	 * args passed.
+	 *
+	 * args[1] = ring size or will default to 8 if not passed.
+	 *
+	 * args[2] = latency CSV file or will default to
+	 * "../output/pipeline-latency-java.csv" if not passed.
+	 *
+	 * args[3] = asynchronous sink policy block, drop-oldest or drop-newest or
+	 * will default to writing frames on the encode thread if not passed.
+	 *
+	 * @param args
+	 *            String array of arguments.
+	 * @throws InterruptedException
+	 *             Possible exception.
+	 */
+	public static void main(final String[] args) throws InterruptedException {
+		String url = null;
+		final String outputFile = "../output/pipeline-java.avi";
+		// Check how many arguments were passed in
+		if (args.length == 0) {
+			// If no arguments were passed then default to
+			// ../resources/traffic.mp4
+			url = "../resources/traffic.mp4";
+		} else {
+			url = args[0];
+		}
+		int ringSize = DEFAULT_RING_SIZE;
+		if (args.length > 1) {
+			ringSize = Integer.parseInt(args[1]);
+		}
+		String csvFile = "../output/pipeline-latency-java.csv";
+		if (args.length > 2) {
+			csvFile = args[2];
+		}
+		AsyncFrameSink.Policy policy = null;
+		if (args.length > 3) {
+			policy = AsyncFrameSink.Policy.valueOf(args[3].toUpperCase(Locale.ROOT).replace('-', '_'));
+		}
+		// Custom logging properties via class loader, read once per JVM
+		Launcher.configureLogging();
+		logger.log(Level.INFO, String.format("OpenCV %s", Core.VERSION));
+		// Enabled with -Dcom.codeferm.opencv.trackMats=true
+		final MatTracker matTracker = MatTracker.fromSystemProperties();
+		final FrameSource source = new FrameSource(url);
+		FrameSink sink = new FrameSink(outputFile, source.getFps(), source.getFrameSize());
+		if (policy != null) {
+			sink = new AsyncFrameSink(sink, AsyncFrameSink.DEFAULT_CAPACITY, policy);
+		}
+		final FramePipeline pipeline = new FramePipeline(source, sink, ringSize, matTracker);
+		pipeline.addStage(new CannyStage());
+		pipeline.setCsvFile(csvFile);
+		try {
+			pipeline.run();
+		} finally {
+			// Release native memory
+			pipeline.free();
+			if (matTracker != null) {
+				matTracker.close();
+			}
+		}
+	}
+}
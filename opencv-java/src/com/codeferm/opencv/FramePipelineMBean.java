@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) Steven P. Goldsmith. All rights reserved.
+ *
+ * Created by Steven P. Goldsmith on March 12, 2016
+ * sgoldsmith@codeferm.com
+ */
+package com.codeferm.opencv;
+
+/**
+ * Live statistics of a running FramePipeline, registered as
+ * com.codeferm.opencv:type=FramePipeline for JConsole or any JMX client. JMX
+ * only introspects public interfaces, so unlike the rest of the package this
+ * one is public.
+ *
+ * @author sgoldsmith
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+public interface FramePipelineMBean {
+	/**
+	 * Source URL.
+	 *
+	 * @return URL.
+	 */
+	String getSource();
+
+	/**
+	 * Output file.
+	 *
+	 * @return Output file.
+	 */
+	String getOutput();
+
+	/**
+	 * Frames read from source.
+	 *
+	 * @return Frames.
+	 */
+	long getFramesRead();
+
+	/**
+	 * Frames the pipeline wrote to sink. Sinks like EventFrameSink keep only
+	 * some of these in their files.
+	 *
+	 * @return Frames.
+	 */
+	long getFramesWritten();
+
+	/**
+	 * Frames dropped by sink.
+	 *
+	 * @return Frames.
+	 */
+	long getDroppedFrames();
+
+	/**
+	 * Frames motion stages detected motion in.
+	 *
+	 * @return Frames.
+	 */
+	long getFramesWithMotion();
+
+	/**
+	 * Frames people stages detected people in.
+	 *
+	 * @return Frames.
+	 */
+	long getFramesWithPeople();
+
+	/**
+	 * Frames written in the last complete second.
+	 *
+	 * @return Frames per second.
+	 */
+	double getCurrentFps();
+
+	/**
+	 * Frames written per second over the last complete 10 seconds.
+	 *
+	 * @return Frames per second.
+	 */
+	double getRollingFps();
+
+	/**
+	 * Frames written per second since the run started.
+	 *
+	 * @return Frames per second.
+	 */
+	double getAverageFps();
+
+	/**
+	 * Empty ring Mats waiting for capture.
+	 *
+	 * @return Queue depth.
+	 */
+	int getFreeQueueDepth();
+
+	/**
+	 * Captured frames waiting for analysis.
+	 *
+	 * @return Queue depth.
+	 */
+	int getCaptureQueueDepth();
+
+	/**
+	 * Analyzed frames waiting for encode.
+	 *
+	 * @return Queue depth.
+	 */
+	int getEncodeQueueDepth();
+
+	/**
+	 * Frames queued in sink waiting for encoder.
+	 *
+	 * @return Queue depth.
+	 */
+	int getSinkQueueDepth();
+
+	/**
+	 * Frames per second the sink encoder can sustain, from its write time
+	 * only. Compare with getAverageFps to see if the encoder is the
+	 * bottleneck.
+	 *
+	 * @return Frames per second or 0 if the sink does not encode on its own
+	 *         thread.
+	 */
+	double getEncodeFps();
+
+	/**
+	 * Native bytes of all tracked Mats (ring, stage work Mats and sink
+	 * buffers) at the last MatTracker sample, which is taken with each latency
+	 * report. Only known when the pipeline has a tracker.
+	 *
+	 * @return Bytes or -1 if Mats are not tracked.
+	 */
+	long getLiveMatBytes();
+
+	/**
+	 * Native bytes of ring Mats held by the pipeline MatPool. This does not
+	 * change once the ring is allocated and does not include stage or sink
+	 * Mats.
+	 *
+	 * @return Bytes.
+	 */
+	long getRingMatBytes();
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright (c) Steven P. Goldsmith. All rights reserved.
+ *
+ * Created by Steven P. Goldsmith on March 8, 2016
+ * sgoldsmith@codeferm.com
+ */
+package com.codeferm.opencv;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.opencv.videoio.VideoWriter;
+
+/**
+ * Frame sink wrapping VideoWriter. Not final, so sinks that buffer or filter
+ * frames can extend it.
+ *
+ * @author sgoldsmith
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+class FrameSink {
+	/**
+	 * Default codec.
+	 */
+	public static final String DEFAULT_FOURCC = "X264";
+	/**
+	 * Output file.
+	 */
+	private final String outputFile;
+	/**
+	 * Video writer.
+	 */
+	private final VideoWriter videoWriter;
+	/**
+	 * Frames written.
+	 */
+	private volatile int frames;
+
+	/**
+	 * Open sink with default codec.
+	 *
+	 * @param outputFile
+	 *            Output file.
+	 * @param fps
+	 *            Frames per second.
+	 * @param frameSize
+	 *            Frame size.
+	 */
+	public FrameSink(final String outputFile, final double fps, final Size frameSize) {
+		this(outputFile, DEFAULT_FOURCC, fps, frameSize);
+	}
+
+	/**
+	 * Open sink.
+	 *
+	 * @param outputFile
+	 *            Output file.
+	 * @param fourCC
+	 *            Four character codec code.
+	 * @param fps
+	 *            Frames per second.
+	 * @param frameSize
+	 *            Frame size.
+	 */
+	public FrameSink(final String outputFile, final String fourCC, final double fps, final Size frameSize) {
+		this.outputFile = outputFile;
+		videoWriter = new VideoWriter(outputFile, new FourCC(fourCC).toInt(), fps, frameSize, true);
+	}
+
+	/**
+	 * Create sink without a video writer for subclasses that write frames
+	 * elsewhere. They must override write.
+	 *
+	 * @param outputFile
+	 *            Output file or file name pattern reported.
+	 */
+	protected FrameSink(final String outputFile) {
+		this.outputFile = outputFile;
+		videoWriter = null;
+	}
+
+	/**
+	 * Write frame.
+	 *
+	 * @param frame
+	 *            Frame.
+	 */
+	public void write(final Mat frame) {
+		videoWriter.write(frame);
+		frames++;
+	}
+
+	/**
+	 * Output file.
+	 *
+	 * @return Output file.
+	 */
+	public String getOutputFile() {
+		return outputFile;
+	}
+
+	/**
+	 * Frames written.
+	 *
+	 * @return Frames.
+	 */
+	public int getFrames() {
+		return frames;
+	}
+
+	/**
+	 * Frames dropped instead of written. Always 0 here, sinks that drop frames
+	 * override it.
+	 *
+	 * @return Frames.
+	 */
+	public long getDroppedFrames() {
+		return 0;
+	}
+
+	/**
+	 * Frames waiting to be encoded. Always 0 here, sinks that queue frames
+	 * override it.
+	 *
+	 * @return Queue depth.
+	 */
+	public int getQueueDepth() {
+		return 0;
+	}
+
+	/**
+	 * Frames encoded per second of encoder write time. Always 0 here, sinks
+	 * that encode on their own thread override it.
+	 *
+	 * @return Frames per second.
+	 */
+	public double getEncodeFps() {
+		return 0;
+	}
+
+	/**
+	 * Track Mats this sink holds frames in. Nothing is held here, sinks that
+	 * copy frames override it. Called by FramePipeline before the first write
+	 * when it has a tracker.
+	 *
+	 * @param tracker
+	 *            Native Mat tracker.
+	 */
+	public void setTracker(final MatTracker tracker) {
+	}
+
+	/**
+	 * Free native memory.
+	 */
+	public void free() {
+		if (videoWriter != null) {
+			videoWriter.free();
+		}
+	}
+}
@@ -0,0 +1,239 @@
+/*
+ * Copyright (c) Steven P. Goldsmith. All rights reserved.
+ *
+ * Created by Steven P. Goldsmith on March 8, 2016
+ * sgoldsmith@codeferm.com
+ */
+package com.codeferm.opencv;
+
+import java.lang.management.ManagementFactory;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.opencv.videoio.VideoCapture;
+import org.opencv.videoio.Videoio;
+
+/**
+ * Frame source wrapping VideoCapture. A URL that is an integer opens that
+ * camera, anything else is opened as a file or stream. A source that can not
+ * be opened throws, so a missing file or bad camera index is never read as an
+ * empty stream.
+ *
+ * @author sgoldsmith
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+final class FrameSource {
+	/**
+	 * Logger.
+	 */
+	// CHECKSTYLE:OFF ConstantName - Logger is static final, not a constant
+	private static final Logger logger = Logger.getLogger(FrameSource.class.getName());
+	// CHECKSTYLE:ON ConstantName
+	/**
+	 * Frames stepped back for first inexact seek retry.
+	 */
+	private static final int SEEK_BACK = 32;
+	/**
+	 * Source URL.
+	 */
+	private final String url;
+	/**
+	 * Video capture.
+	 */
+	private final VideoCapture videoCapture;
+	/**
+	 * Frame size.
+	 */
+	private final Size frameSize;
+	/**
+	 * Frames read.
+	 */
+	private volatile int frames;
+	/**
+	 * Most frames to read or 0 for no limit.
+	 */
+	private int maxFrames;
+	/**
+	 * True once freed, so a late close does nothing.
+	 */
+	private boolean freed;
+
+	/**
+	 * Open source.
+	 *
+	 * @param url
+	 *            Camera index, file or stream URL.
+	 * @throws IllegalStateException
+	 *             If source can not be opened.
+	 */
+	public FrameSource(final String url) {
+		this.url = url;
+		// See if URL is an integer: -? = negative sign, could have none or one,
+		// \\d+ = one or more digits
+		if (url.matches("-?\\d+")) {
+			videoCapture = new VideoCapture(Integer.parseInt(url));
+		} else {
+			videoCapture = new VideoCapture(url);
+		}
+		if (!videoCapture.isOpened()) {
+			videoCapture.free();
+			throw new IllegalStateException(String.format("Unable to open %s", url));
+		}
+		frameSize = new Size((int) videoCapture.get(Videoio.CAP_PROP_FRAME_WIDTH),
+				(int) videoCapture.get(Videoio.CAP_PROP_FRAME_HEIGHT));
+	}
+
+	/**
+	 * Read next frame. Mat data is reused if size and type are unchanged.
+	 *
+	 * @param frame
+	 *            Frame. This value is modified.
+	 * @return False at end of stream.
+	 */
+	public boolean read(final Mat frame) {
+		if (maxFrames > 0 && frames >= maxFrames) {
+			return false;
+		}
+		final boolean read = videoCapture.read(frame);
+		if (read) {
+			if (frames == 0) {
+				// Time to first frame includes JVM and native startup
+				logger.log(Level.INFO, String.format("First frame from %s at %d ms JVM uptime", url,
+						ManagementFactory.getRuntimeMXBean().getUptime()));
+			}
+			frames++;
+		}
+		return read;
+	}
+
+	/**
+	 * Seek to exactly frame before reading. Seeks in compressed files may
+	 * land on a nearby key frame depending on codec and backend, so the
+	 * position is read back. If it is not frame, seek to earlier points,
+	 * doubling the distance back down to the start of the file, until the
+	 * position is at or before frame, then grab forward to it.
+	 *
+	 * @param frame
+	 *            Zero based frame index.
+	 * @return False if position could not be made exact.
+	 */
+	public boolean seek(final int frame) {
+		if (videoCapture.set(Videoio.CAP_PROP_POS_FRAMES, frame) && position() == frame) {
+			return true;
+		}
+		int back = SEEK_BACK;
+		int pos = -1;
+		while (pos < 0) {
+			final int target = Math.max(0, frame - back);
+			if (videoCapture.set(Videoio.CAP_PROP_POS_FRAMES, target)) {
+				final int landed = position();
+				if (landed <= frame && landed >= 0) {
+					pos = landed;
+				}
+			}
+			if (pos < 0 && target == 0) {
+				return false;
+			}
+			back *= 2;
+		}
+		// Decode without retrieving up to frame
+		while (pos < frame && videoCapture.grab()) {
+			pos++;
+		}
+		return position() == frame;
+	}
+
+	/**
+	 * Position of next frame read as reported by backend.
+	 *
+	 * @return Zero based frame index.
+	 */
+	private int position() {
+		return (int) videoCapture.get(Videoio.CAP_PROP_POS_FRAMES);
+	}
+
+	/**
+	 * Stop reading after frames, so a range of a file can be processed.
+	 *
+	 * @param maxFrames
+	 *            Most frames to read or 0 for no limit.
+	 */
+	public void setMaxFrames(final int maxFrames) {
+		this.maxFrames = maxFrames;
+	}
+
+	/**
+	 * Frame count reported by file container.
+	 *
+	 * @return Frames or 0 if unknown, as for cameras and streams.
+	 */
+	public int getFrameCount() {
+		return (int) Math.max(0, videoCapture.get(Videoio.CAP_PROP_FRAME_COUNT));
+	}
+
+	/**
+	 * Source URL.
+	 *
+	 * @return URL.
+	 */
+	public String getUrl() {
+		return url;
+	}
+
+	/**
+	 * Frame size.
+	 *
+	 * @return Frame size.
+	 */
+	public Size getFrameSize() {
+		return frameSize;
+	}
+
+	/**
+	 * Source frames per second.
+	 *
+	 * @return Frames per second.
+	 */
+	public double getFps() {
+		return videoCapture.get(Videoio.CAP_PROP_FPS);
+	}
+
+	/**
+	 * Frames read.
+	 *
+	 * @return Frames.
+	 */
+	public int getFrames() {
+		return frames;
+	}
+
+	/**
+	 * VideoCapture accessor for properties not wrapped here.
+	 *
+	 * @return VideoCapture.
+	 */
+	public VideoCapture getCapture() {
+		return videoCapture;
+	}
+
+	/**
+	 * Close source from another thread, so a read blocked on a live source
+	 * returns false. The reading thread must still call free.
+	 */
+	public synchronized void close() {
+		if (!freed) {
+			videoCapture.release();
+		}
+	}
+
+	/**
+	 * Free native memory.
+	 */
+	public synchronized void free() {
+		freed = true;
+		videoCapture.free();
+	}
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright (c) Steven P. Goldsmith. All rights reserved.
+ *
+ * Created by Steven P. Goldsmith on March 8, 2016
+ * sgoldsmith@codeferm.com
+ */
+package com.codeferm.opencv;
+
+import org.opencv.core.Mat;
+
+/**
+ * One analysis step of a FramePipeline. Stages are chained in the order they
+ * are added and each one sees the frame as modified by the previous stage. A
+ * stage is only called from one thread at a time, so it can keep work Mats
+ * between frames.
+ *
+ * @author sgoldsmith
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+interface FrameStage {
+	/**
+	 * Process frame.
+	 *
+	 * @param frame
+	 *            Frame to process. This value is modified.
+	 */
+	void process(Mat frame);
+
+	/**
+	 * Track work Mats, so their native memory is accounted and leaks are
+	 * reported. Called by FramePipeline before the first frame when it has a
+	 * tracker. Tracked Mats are untracked by free.
+	 *
+	 * @param tracker
+	 *            Native Mat tracker.
+	 */
+	void setTracker(MatTracker tracker);
+
+	/**
+	 * Free native memory.
+	 */
+	void free();
+}
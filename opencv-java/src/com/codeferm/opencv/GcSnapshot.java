@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) Steven P. Goldsmith. All rights reserved.
+ *
+ * Created by Steven P. Goldsmith on March 16, 2016
+ * sgoldsmith@codeferm.com
+ */
+package com.codeferm.opencv;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+
+/**
+ * Garbage collection count and time summed over all collectors at one point
+ * in time. Subtract two snapshots to get the collections in between, so
+ * allocation changes to per frame code can be compared by GC pauses.
+ *
+ * @author sgoldsmith
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+final class GcSnapshot {
+	/**
+	 * Collections.
+	 */
+	private final long count;
+	/**
+	 * Collection time in milliseconds.
+	 */
+	private final long time;
+
+	/**
+	 * Create snapshot.
+	 *
+	 * @param count
+	 *            Collections.
+	 * @param time
+	 *            Collection time in milliseconds.
+	 */
+	private GcSnapshot(final long count, final long time) {
+		this.count = count;
+		this.time = time;
+	}
+
+	/**
+	 * Snapshot of all collectors now. Collectors that do not report count or
+	 * time (-1) are skipped.
+	 *
+	 * @return Snapshot.
+	 */
+	public static GcSnapshot now() {
+		long count = 0;
+		long time = 0;
+		for (final GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+			count += Math.max(0, bean.getCollectionCount());
+			time += Math.max(0, bean.getCollectionTime());
+		}
+		return new GcSnapshot(count, time);
+	}
+
+	/**
+	 * Collections between start and this snapshot.
+	 *
+	 * @param start
+	 *            Earlier snapshot.
+	 * @return Difference.
+	 */
+	public GcSnapshot since(final GcSnapshot start) {
+		return new GcSnapshot(count - start.count, time - start.time);
+	}
+
+	/**
+	 * Collections.
+	 *
+	 * @return Count.
+	 */
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * Collection time.
+	 *
+	 * @return Milliseconds.
+	 */
+	public long getTime() {
+		return time;
+	}
+}
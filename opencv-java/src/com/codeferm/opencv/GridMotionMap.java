@@ -0,0 +1,346 @@
+/*
+ * Copyright (c) Steven P. Goldsmith. All rights reserved.
+ *
+ * Created by Steven P. Goldsmith on March 22, 2016
+ * sgoldsmith@codeferm.com
+ */
+package com.codeferm.opencv;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * Grid motion summary. The thresholded image is summed once with an integral
+ * image and only the rows on cell boundaries are copied to Java, so each
+ * cell's changed pixel count is four lookups. Cells with at least the minimum
+ * changed pixels are active. Active cells that touch, including diagonally,
+ * are merged with a union-find over the grid and each region's cell aligned
+ * bounding rectangle is returned, clipped to the image.
+ *
+ * This replaces 15 dilate and 10 erode iterations plus region labeling, and
+ * there are no nested rectangles. Cost depends only on image size, not on how
+ * much motion there is. The source is not modified. Buffers are allocated on
+ * the first image and again only if the image size changes.
+ *
+ * An instance is not thread safe, so use one per thread.
+ *
+ * @author sgoldsmith
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+final class GridMotionMap implements RegionFinder {
+	/**
+	 * Default cell width and height in pixels.
+	 */
+	public static final int DEFAULT_CELL_SIZE = 16;
+	/**
+	 * Default changed pixels that make a cell active, 1/8 of a default cell.
+	 */
+	public static final int DEFAULT_MIN_PIXELS = 32;
+	/**
+	 * Value of changed pixels in thresholded image.
+	 */
+	private static final int PIXEL_VALUE = 255;
+	/**
+	 * Cell width and height in pixels.
+	 */
+	private final int cellSize;
+	/**
+	 * Changed pixels that make a cell active.
+	 */
+	private final int minPixels;
+	/**
+	 * Integral image, one row and column larger than source.
+	 */
+	private final Mat sum = new Mat();
+	/**
+	 * Integral row at top of current grid row.
+	 */
+	private int[] topRow = new int[0];
+	/**
+	 * Integral row at bottom of current grid row.
+	 */
+	private int[] bottomRow = new int[0];
+	/**
+	 * Changed pixels per cell, row major.
+	 */
+	private int[] counts = new int[0];
+	/**
+	 * Union-find parent per cell or -1 if cell is not active.
+	 */
+	private int[] parent = new int[0];
+	/**
+	 * Region index per root cell or -1.
+	 */
+	private int[] regionIndex = new int[0];
+	/**
+	 * Region bounds in cells (min column, min row, max column, max row
+	 * packed).
+	 */
+	private int[] regionBounds = new int[0];
+	/**
+	 * Image width.
+	 */
+	private int width;
+	/**
+	 * Image height.
+	 */
+	private int height;
+	/**
+	 * Grid columns.
+	 */
+	private int gridCols;
+	/**
+	 * Grid rows.
+	 */
+	private int gridRows;
+	/**
+	 * Active cells in last image.
+	 */
+	private int activeCells;
+	/**
+	 * Native Mat tracker or null for none.
+	 */
+	private MatTracker tracker;
+
+	/**
+	 * Create grid with default cell size and minimum pixels.
+	 */
+	public GridMotionMap() {
+		this(DEFAULT_CELL_SIZE, DEFAULT_MIN_PIXELS);
+	}
+
+	/**
+	 * Create grid.
+	 *
+	 * @param cellSize
+	 *            Cell width and height in pixels.
+	 * @param minPixels
+	 *            Changed pixels that make a cell active, at least 1.
+	 */
+	public GridMotionMap(final int cellSize, final int minPixels) {
+		if (cellSize < 1) {
+			throw new IllegalArgumentException("Cell size must be >= 1");
+		}
+		if (minPixels < 1) {
+			throw new IllegalArgumentException("Minimum pixels must be >= 1");
+		}
+		this.cellSize = cellSize;
+		this.minPixels = minPixels;
+	}
+
+	/**
+	 * Size buffers for image if its size changed.
+	 *
+	 * @param cols
+	 *            Image width.
+	 * @param rows
+	 *            Image height.
+	 */
+	private void allocate(final int cols, final int rows) {
+		if (cols == width && rows == height) {
+			return;
+		}
+		width = cols;
+		height = rows;
+		gridCols = (cols + cellSize - 1) / cellSize;
+		gridRows = (rows + cellSize - 1) / cellSize;
+		final int cells = gridCols * gridRows;
+		topRow = new int[cols + 1];
+		bottomRow = new int[cols + 1];
+		counts = new int[cells];
+		parent = new int[cells];
+		regionIndex = new int[cells];
+		regionBounds = new int[cells * Contours.RECT_INTS];
+	}
+
+	/**
+	 * Count changed pixels per cell from integral image.
+	 */
+	private void countCells() {
+		// First integral row is all zeros
+		sum.get(0, 0, topRow);
+		for (int gy = 0; gy < gridRows; gy++) {
+			sum.get(Math.min((gy + 1) * cellSize, height), 0, bottomRow);
+			for (int gx = 0; gx < gridCols; gx++) {
+				final int x0 = gx * cellSize;
+				final int x1 = Math.min(x0 + cellSize, width);
+				// Sums are of 255 per changed pixel, which fits in an int up to
+				// 4K frames
+				counts[gy * gridCols + gx] = (bottomRow[x1] - bottomRow[x0] - topRow[x1] + topRow[x0]) / PIXEL_VALUE;
+			}
+			final int[] swap = topRow;
+			topRow = bottomRow;
+			bottomRow = swap;
+		}
+	}
+
+	/**
+	 * Root of cell with path halving.
+	 *
+	 * @param cell
+	 *            Active cell.
+	 * @return Root cell.
+	 */
+	private int find(final int cell) {
+		int i = cell;
+		while (parent[i] != i) {
+			parent[i] = parent[parent[i]];
+			i = parent[i];
+		}
+		return i;
+	}
+
+	/**
+	 * Merge cell with neighbor if neighbor is active. The lower root becomes
+	 * the parent.
+	 *
+	 * @param cell
+	 *            Active cell.
+	 * @param neighbor
+	 *            Neighbor cell.
+	 */
+	private void union(final int cell, final int neighbor) {
+		if (parent[neighbor] < 0) {
+			return;
+		}
+		final int a = find(cell);
+		final int b = find(neighbor);
+		if (a < b) {
+			parent[b] = a;
+		} else if (b < a) {
+			parent[a] = b;
+		}
+	}
+
+	/**
+	 * Mark active cells and merge touching cells. Only neighbors already
+	 * visited in row major order are checked: left, up-left, up and up-right.
+	 */
+	private void mergeCells() {
+		activeCells = 0;
+		for (int gy = 0; gy < gridRows; gy++) {
+			for (int gx = 0; gx < gridCols; gx++) {
+				final int cell = gy * gridCols + gx;
+				if (counts[cell] < minPixels) {
+					parent[cell] = -1;
+					continue;
+				}
+				activeCells++;
+				parent[cell] = cell;
+				if (gx > 0) {
+					union(cell, cell - 1);
+				}
+				if (gy > 0) {
+					final int up = cell - gridCols;
+					if (gx > 0) {
+						union(cell, up - 1);
+					}
+					union(cell, up);
+					if (gx < gridCols - 1) {
+						union(cell, up + 1);
+					}
+				}
+			}
+		}
+	}
+
+	@Override
+	public int boundingRects(final Mat source, final int[] rects) {
+		allocate(source.cols(), source.rows());
+		Imgproc.integral(source, sum, CvType.CV_32S);
+		countCells();
+		mergeCells();
+		// Collect bounds per region in order of first cell
+		int regions = 0;
+		for (int cell = 0; cell < parent.length; cell++) {
+			regionIndex[cell] = -1;
+		}
+		for (int cell = 0; cell < parent.length; cell++) {
+			if (parent[cell] < 0) {
+				continue;
+			}
+			final int root = find(cell);
+			final int gx = cell % gridCols;
+			final int gy = cell / gridCols;
+			int offset;
+			if (regionIndex[root] < 0) {
+				regionIndex[root] = regions++;
+				offset = regionIndex[root] * Contours.RECT_INTS;
+				regionBounds[offset] = gx;
+				regionBounds[offset + 1] = gy;
+				regionBounds[offset + 2] = gx;
+				regionBounds[offset + 3] = gy;
+			} else {
+				offset = regionIndex[root] * Contours.RECT_INTS;
+				// Rows are visited in order, so only columns and max row grow
+				regionBounds[offset] = Math.min(regionBounds[offset], gx);
+				regionBounds[offset + 2] = Math.max(regionBounds[offset + 2], gx);
+				regionBounds[offset + 3] = gy;
+			}
+		}
+		// Cell bounds to pixel rectangles clipped to image
+		final int capacity = Math.min(regions, rects.length / Contours.RECT_INTS);
+		for (int i = 0; i < capacity * Contours.RECT_INTS; i += Contours.RECT_INTS) {
+			final int x = regionBounds[i] * cellSize;
+			final int y = regionBounds[i + 1] * cellSize;
+			rects[i] = x;
+			rects[i + 1] = y;
+			rects[i + 2] = Math.min((regionBounds[i + 2] + 1) * cellSize, width) - x;
+			rects[i + 3] = Math.min((regionBounds[i + 3] + 1) * cellSize, height) - y;
+		}
+		return regions;
+	}
+
+	/**
+	 * Changed pixels per cell of last image, row major with getGridCols()
+	 * cells per row.
+	 *
+	 * @return Cell counts.
+	 */
+	public int[] getCellCounts() {
+		return counts;
+	}
+
+	/**
+	 * Grid columns of last image.
+	 *
+	 * @return Columns.
+	 */
+	public int getGridCols() {
+		return gridCols;
+	}
+
+	/**
+	 * Grid rows of last image.
+	 *
+	 * @return Rows.
+	 */
+	public int getGridRows() {
+		return gridRows;
+	}
+
+	/**
+	 * Active cells in last image.
+	 *
+	 * @return Active cells.
+	 */
+	public int getActiveCells() {
+		return activeCells;
+	}
+
+	@Override
+	public void setTracker(final MatTracker tracker) {
+		this.tracker = tracker;
+		tracker.trackAll(sum);
+	}
+
+	@Override
+	public void free() {
+		if (tracker != null) {
+			tracker.untrackAll(sum);
+		}
+		sum.free();
+	}
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright (c) Steven P. Goldsmith. All rights reserved.
+ *
+ * Created by Steven P. Goldsmith on February 23, 2016
+ * sgoldsmith@codeferm.com
+ */
+package com.codeferm.opencv;
+
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfDouble;
+import org.opencv.core.MatOfFloat;
+import org.opencv.core.MatOfRect;
+import org.opencv.core.Size;
+import org.opencv.objdetect.HOGDescriptor;
+
+/**
+ * Histogram of Oriented Gradients ([Dalal2005]) people detector using the
+ * default people detector. This is the full frame detection PeopleDetect has
+ * always done and is the baseline for the other strategies.
+ *
+ * @author sgoldsmith
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+final class HogPeopleDetector implements PeopleDetector {
+	/**
+	 * HOG detection window width.
+	 */
+	public static final int WIN_WIDTH = 64;
+	/**
+	 * HOG detection window height.
+	 */
+	public static final int WIN_HEIGHT = 128;
+	/**
+	 * Default scale between pyramid levels.
+	 */
+	public static final double DEFAULT_SCALE = 1.05;
+	/**
+	 * HOG descriptor.
+	 */
+	private final HOGDescriptor hog = new HOGDescriptor();
+	/**
+	 * Default people detector coefficients.
+	 */
+	private final MatOfFloat descriptors = HOGDescriptor.getDefaultPeopleDetector();
+	/**
+	 * Found locations.
+	 */
+	private final MatOfRect foundLocations = new MatOfRect();
+	/**
+	 * Found weights.
+	 */
+	private final MatOfDouble foundWeights = new MatOfDouble();
+	/**
+	 * Window stride.
+	 */
+	private final Size winStride = new Size(8, 8);
+	/**
+	 * Padding.
+	 */
+	private final Size padding = new Size(32, 32);
+	/**
+	 * Scale between pyramid levels.
+	 */
+	private final double scale;
+	/**
+	 * Detections of last detect call.
+	 */
+	private final Detections detections = new Detections();
+	/**
+	 * Found locations buffer.
+	 */
+	private int[] rectBuf = new int[0];
+	/**
+	 * Found weights buffer.
+	 */
+	private double[] weightBuf = new double[0];
+	/**
+	 * Native Mat tracker or null for none.
+	 */
+	private MatTracker tracker;
+
+	/**
+	 * Create detector with default scale.
+	 */
+	public HogPeopleDetector() {
+		this(DEFAULT_SCALE);
+	}
+
+	/**
+	 * Create detector.
+	 *
+	 * @param scale
+	 *            Scale between pyramid levels.
+	 */
+	public HogPeopleDetector(final double scale) {
+		this.scale = scale;
+		hog.setSVMDetector(descriptors);
+	}
+
+	@Override
+	public int detect(final Mat frame) {
+		detections.clear();
+		detect(frame, 0, 0, detections);
+		return detections.getCount();
+	}
+
+	/**
+	 * Detect people in image and add them to detections offset by x and y.
+	 * Used to search a region of interest of a larger frame.
+	 *
+	 * @param image
+	 *            Image or region of interest.
+	 * @param offsetX
+	 *            X of image in frame.
+	 * @param offsetY
+	 *            Y of image in frame.
+	 * @param out
+	 *            Detections. This value is modified.
+	 * @return Number of people found in image.
+	 */
+	public int detect(final Mat image, final int offsetX, final int offsetY, final Detections out) {
+		// CHECKSTYLE:OFF MagicNumber - Magic numbers here for illustration
+		hog.detectMultiScale(image, foundLocations, foundWeights, 0.0, winStride, padding, scale, 2.0, false);
+		// CHECKSTYLE:ON MagicNumber
+		final int found = foundLocations.rows();
+		if (found > 0) {
+			// Grow buffers only when more people are found than before
+			if (rectBuf.length < found * Contours.RECT_INTS) {
+				rectBuf = new int[found * Contours.RECT_INTS];
+				weightBuf = new double[found];
+			}
+			foundLocations.get(0, 0, rectBuf);
+			foundWeights.get(0, 0, weightBuf);
+			out.addAll(rectBuf, weightBuf, found, offsetX, offsetY);
+		}
+		return found;
+	}
+
+	@Override
+	public Detections getDetections() {
+		return detections;
+	}
+
+	@Override
+	public void setTracker(final MatTracker tracker) {
+		this.tracker = tracker;
+		tracker.trackAll(descriptors, foundLocations, foundWeights);
+	}
+
+	@Override
+	public void free() {
+		if (tracker != null) {
+			tracker.untrackAll(descriptors, foundLocations, foundWeights);
+		}
+		hog.free();
+		descriptors.free();
+		foundLocations.free();
+		foundWeights.free();
+	}
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright (c) Steven P. Goldsmith. All rights reserved.
+ *
+ * Created by Steven P. Goldsmith on March 10, 2016
+ * sgoldsmith@codeferm.com
+ */
+package com.codeferm.opencv;
+
+/**
+ * Fixed memory log-linear latency histogram. Values below 32 ns get their own
+ * bucket and every power of two above that is split into 16 linear buckets,
+ * so percentiles are within 6.25% of the recorded value from 1 ns to about 36
+ * minutes. Recording is a few shifts and an array increment and never
+ * allocates. Only one thread may record, but another thread may read while it
+ * does, with slightly stale results.
+ *
+ * @author sgoldsmith
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+final class LatencyHistogram {
+	/**
+	 * Values below this are exact.
+	 */
+	private static final int LINEAR = 32;
+	/**
+	 * Log2 of linear buckets per power of two.
+	 */
+	private static final int SUB_BITS = 4;
+	/**
+	 * Linear buckets per power of two.
+	 */
+	private static final int SUB_BUCKETS = 1 << SUB_BITS;
+	/**
+	 * Log2 of LINEAR.
+	 */
+	private static final int LINEAR_BITS = 5;
+	/**
+	 * Largest power of two tracked, larger values go in the last bucket.
+	 */
+	private static final int MAX_EXPONENT = 40;
+	/**
+	 * Bucket counts.
+	 */
+	private final long[] counts = new long[LINEAR + (MAX_EXPONENT - LINEAR_BITS + 1) * SUB_BUCKETS];
+	/**
+	 * Values recorded.
+	 */
+	private volatile long count;
+	/**
+	 * Sum of values recorded.
+	 */
+	private long sum;
+	/**
+	 * Largest value recorded.
+	 */
+	private long max;
+
+	/**
+	 * Bucket index of value.
+	 *
+	 * @param value
+	 *            Value.
+	 * @return Bucket index.
+	 */
+	private static int index(final long value) {
+		if (value < LINEAR) {
+			return value < 0 ? 0 : (int) value;
+		}
+		final int exponent = Math.min(Long.SIZE - 1 - Long.numberOfLeadingZeros(value), MAX_EXPONENT);
+		// Top SUB_BITS + 1 bits, so sub is 16 to 31
+		final int sub = (int) Math.min(value >>> (exponent - SUB_BITS), 2 * SUB_BUCKETS - 1);
+		return LINEAR + (exponent - LINEAR_BITS) * SUB_BUCKETS + sub - SUB_BUCKETS;
+	}
+
+	/**
+	 * Highest value that maps to bucket.
+	 *
+	 * @param index
+	 *            Bucket index.
+	 * @return Highest value.
+	 */
+	private static long highestValue(final int index) {
+		if (index < LINEAR) {
+			return index;
+		}
+		final int exponent = (index - LINEAR) / SUB_BUCKETS + LINEAR_BITS;
+		final long sub = (index - LINEAR) % SUB_BUCKETS + SUB_BUCKETS;
+		return ((sub + 1) << (exponent - SUB_BITS)) - 1;
+	}
+
+	/**
+	 * Record value.
+	 *
+	 * @param nanos
+	 *            Latency in nanoseconds.
+	 */
+	public void record(final long nanos) {
+		counts[index(nanos)]++;
+		sum += nanos;
+		if (nanos > max) {
+			max = nanos;
+		}
+		// Volatile write last, so readers see the counts
+		count++;
+	}
+
+	/**
+	 * Value at percentile. Reported as the highest value of its bucket, but
+	 * never more than max.
+	 *
+	 * @param percentile
+	 *            Percentile from 0.0 to 100.0.
+	 * @return Value in nanoseconds or 0 if nothing recorded.
+	 */
+	public long getValueAtPercentile(final double percentile) {
+		final long total = count;
+		if (total == 0) {
+			return 0;
+		}
+		// CHECKSTYLE:OFF MagicNumber - Percent
+		final long target = Math.max(1, (long) Math.ceil(percentile / 100.0 * total));
+		// CHECKSTYLE:ON MagicNumber
+		long seen = 0;
+		for (int i = 0; i < counts.length; i++) {
+			seen += counts[i];
+			if (seen >= target) {
+				return Math.min(highestValue(i), max);
+			}
+		}
+		return max;
+	}
+
+	/**
+	 * Values recorded.
+	 *
+	 * @return Count.
+	 */
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * Largest value recorded.
+	 *
+	 * @return Value in nanoseconds.
+	 */
+	public long getMax() {
+		return max;
+	}
+
+	/**
+	 * Mean of values recorded.
+	 *
+	 * @return Value in nanoseconds or 0 if nothing recorded.
+	 */
+	public double getMean() {
+		final long total = count;
+		return total == 0 ? 0 : (double) sum / total;
+	}
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) Steven P. Goldsmith. All rights reserved.
+ *
+ * Created by Steven P. Goldsmith on March 10, 2016
+ * sgoldsmith@codeferm.com
+ */
+package com.codeferm.opencv;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Named latency histograms reported in the order they were created. Look up
+ * histograms once before processing starts, then record into them directly,
+ * so the per frame path does no map lookups or allocation. Reports are fixed
+ * width text for logs and CSV with one line per histogram, so runs from two
+ * builds can be diffed. CSV always uses a period as decimal separator.
+ *
+ * @author sgoldsmith
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+final class LatencyHistograms {
+	/**
+	 * CSV header.
+	 */
+	public static final String CSV_HEADER = "name,count,mean_us,p50_us,p99_us,p99.9_us,max_us";
+	/**
+	 * Histograms by name in creation order.
+	 */
+	private final Map<String, LatencyHistogram> histograms = new LinkedHashMap<String, LatencyHistogram>();
+
+	/**
+	 * Get histogram by name, creating it if needed.
+	 *
+	 * @param name
+	 *            Histogram name.
+	 * @return Histogram.
+	 */
+	public synchronized LatencyHistogram get(final String name) {
+		LatencyHistogram histogram = histograms.get(name);
+		if (histogram == null) {
+			histogram = new LatencyHistogram();
+			histograms.put(name, histogram);
+		}
+		return histogram;
+	}
+
+	/**
+	 * Create histogram with a name not used yet. If name is taken a number is
+	 * added.
+	 *
+	 * @param name
+	 *            Histogram name.
+	 * @return Histogram.
+	 */
+	public synchronized LatencyHistogram create(final String name) {
+		String unique = name;
+		for (int i = 2; histograms.containsKey(unique); i++) {
+			unique = String.format("%s#%d", name, i);
+		}
+		return get(unique);
+	}
+
+	/**
+	 * One report line per histogram with microsecond percentiles.
+	 *
+	 * @return Report lines.
+	 */
+	public synchronized List<String> report() {
+		final List<String> lines = new ArrayList<String>(histograms.size());
+		for (final Map.Entry<String, LatencyHistogram> entry : histograms.entrySet()) {
+			final LatencyHistogram histogram = entry.getValue();
+			// CHECKSTYLE:OFF MagicNumber - Percentiles and nanoseconds to
+			// microseconds
+			lines.add(String.format("%-24s %8d frames, mean %10.1f, p50 %10.1f, p99 %10.1f, p99.9 %10.1f, max %10.1f us",
+					entry.getKey(), histogram.getCount(), histogram.getMean() / 1000,
+					histogram.getValueAtPercentile(50) / 1000.0, histogram.getValueAtPercentile(99) / 1000.0,
+					histogram.getValueAtPercentile(99.9) / 1000.0, histogram.getMax() / 1000.0));
+			// CHECKSTYLE:ON MagicNumber
+		}
+		return lines;
+	}
+
+	/**
+	 * Write CSV with header and one line per histogram.
+	 *
+	 * @param fileName
+	 *            CSV file.
+	 * @throws IOException
+	 *             Possible exception.
+	 */
+	public synchronized void writeCsv(final String fileName) throws IOException {
+		try (PrintWriter writer = new PrintWriter(new FileWriter(fileName))) {
+			writer.println(CSV_HEADER);
+			for (final Map.Entry<String, LatencyHistogram> entry : histograms.entrySet()) {
+				final LatencyHistogram histogram = entry.getValue();
+				// CHECKSTYLE:OFF MagicNumber - Percentiles and nanoseconds to
+				// microseconds
+				writer.println(String.format(Locale.ROOT, "%s,%d,%.1f,%.1f,%.1f,%.1f,%.1f", entry.getKey(),
+						histogram.getCount(), histogram.getMean() / 1000, histogram.getValueAtPercentile(50) / 1000.0,
+						histogram.getValueAtPercentile(99) / 1000.0, histogram.getValueAtPercentile(99.9) / 1000.0,
+						histogram.getMax() / 1000.0));
+				// CHECKSTYLE:ON MagicNumber
+			}
+		}
+	}
+}
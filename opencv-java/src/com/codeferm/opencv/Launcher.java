@@ -0,0 +1,237 @@
+/*
+ * Copyright (c) Steven P. Goldsmith. All rights reserved.
+ *
+ * Created by Steven P. Goldsmith on March 15, 2016
+ * sgoldsmith@codeferm.com
+ */
+package com.codeferm.opencv;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.LogManager;
+import java.util.logging.Logger;
+
+import org.opencv.core.Core;
+
+/**
+ * Single entry point for all of the examples. The native library is loaded
+ * and logging.properties is read once per JVM, then the sub-command's main is
+ * called. Batch mode runs many command lines in one JVM, so JVM and native
+ * startup is only paid once for a whole batch of short clips.
+ *
+ * args[0] = sub-command (see usage) or "batch".
+ *
+ * args[1..n] = arguments passed to the sub-command's main.
+ *
+ * In batch mode args[1] is a file of command lines or "-" for stdin. Each
+ * line is a sub-command followed by its arguments separated by white space.
+ * Blank lines and lines starting with # are skipped. A failed line is logged
+ * and the batch continues.
+ *
+ * JVM startup, native library load time and time to first frame (logged by
+ * FrameSource) are logged, so class-data-sharing archives can be measured.
+ * See README for how to create one.
+ *
+ * @author sgoldsmith
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+final class Launcher {
+	/**
+	 * Logger.
+	 */
+	// CHECKSTYLE:OFF ConstantName - Logger is static final, not a constant
+	private static final Logger logger = Logger.getLogger(Launcher.class.getName());
+	// CHECKSTYLE:ON ConstantName
+	/**
+	 * Sub-command to main class.
+	 */
+	private static final Map<String, Class<?>> COMMANDS = new LinkedHashMap<String, Class<?>>();
+	/**
+	 * Native library load time in nanoseconds.
+	 */
+	private static final long NATIVE_LOAD_TIME;
+	/**
+	 * True once logging.properties has been read.
+	 */
+	private static boolean loggingConfigured;
+
+	/* Load the OpenCV system library */
+	static {
+		final long start = System.nanoTime();
+		System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+		NATIVE_LOAD_TIME = System.nanoTime() - start;
+		COMMANDS.put("calibrate", CameraCalibration.class);
+		COMMANDS.put("cascaded-motion-benchmark", CascadedMotionBenchmark.class);
+		COMMANDS.put("canny", Canny.class);
+		COMMANDS.put("capture-ui", CaptureUI.class);
+		COMMANDS.put("contours-benchmark", ContoursBenchmark.class);
+		COMMANDS.put("directory-batch", DirectoryBatch.class);
+		COMMANDS.put("drawing", Drawing.class);
+		COMMANDS.put("frame-benchmark", FrameBenchmark.class);
+		COMMANDS.put("motion-detect", MotionDetect.class);
+		COMMANDS.put("motion-detect-mog2", MotionDetectMOG2.class);
+		COMMANDS.put("motion-detect-resize", MotionDetectResize.class);
+		COMMANDS.put("motion-detect-service", MotionDetectService.class);
+		COMMANDS.put("parallel-people-benchmark", ParallelPeopleBenchmark.class);
+		COMMANDS.put("people-detect", PeopleDetect.class);
+		COMMANDS.put("pipeline", FramePipeline.class);
+		COMMANDS.put("segment-parallel", SegmentParallel.class);
+		COMMANDS.put("tiled-canny-benchmark", TiledCannyBenchmark.class);
+		COMMANDS.put("writer", Writer.class);
+	}
+
+	/**
+	 * Suppress default constructor for noninstantiability.
+	 */
+	private Launcher() {
+		throw new AssertionError();
+	}
+
+	/**
+	 * Read logging.properties from the class path the first time this is
+	 * called. Later calls do nothing, so each main can call it and a batch
+	 * only reads it once.
+	 */
+	public static synchronized void configureLogging() {
+		if (!loggingConfigured) {
+			loggingConfigured = true;
+			// Custom logging properties via class loader
+			try (final InputStream in = Launcher.class.getClassLoader().getResourceAsStream("logging.properties")) {
+				LogManager.getLogManager().readConfiguration(in);
+			} catch (SecurityException | IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Run sub-command.
+	 *
+	 * @param command
+	 *            Sub-command.
+	 * @param args
+	 *            Arguments passed to sub-command's main.
+	 * @throws Exception
+	 *             Anything thrown by sub-command's main.
+	 */
+	// CHECKSTYLE:OFF IllegalThrows - Mains throw different checked exceptions
+	public static void run(final String command, final String[] args) throws Exception { // NOPMD
+		// CHECKSTYLE:ON IllegalThrows
+		final Class<?> mainClass = COMMANDS.get(command);
+		if (mainClass == null) {
+			throw new IllegalArgumentException(String.format("Unknown command: %s", command));
+		}
+		final Method main = mainClass.getMethod("main", String[].class);
+		final long start = System.nanoTime();
+		try {
+			main.invoke(null, (Object) args);
+		} catch (InvocationTargetException e) {
+			if (e.getCause() instanceof Exception) {
+				throw (Exception) e.getCause();
+			}
+			throw e;
+		}
+		// CHECKSTYLE:OFF MagicNumber - Nanoseconds to seconds
+		logger.log(Level.INFO, String.format("%s %s: %4.2f seconds", command, Arrays.toString(args),
+				(System.nanoTime() - start) / 1e9));
+		// CHECKSTYLE:ON MagicNumber
+	}
+
+	/**
+	 * Run each command line in file or stdin.
+	 *
+	 * @param fileName
+	 *            File of command lines or "-" for stdin.
+	 * @return Number of failed command lines.
+	 * @throws IOException
+	 *             Possible exception.
+	 */
+	public static int batch(final String fileName) throws IOException {
+		final List<String> lines = new ArrayList<String>();
+		if ("-".equals(fileName)) {
+			final BufferedReader reader = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+			String line;
+			while ((line = reader.readLine()) != null) {
+				lines.add(line);
+			}
+		} else {
+			lines.addAll(Files.readAllLines(Paths.get(fileName), StandardCharsets.UTF_8));
+		}
+		final long start = System.nanoTime();
+		int commands = 0;
+		int failed = 0;
+		for (final String line : lines) {
+			final String trimmed = line.trim();
+			if (!trimmed.isEmpty() && !trimmed.startsWith("#")) {
+				final String[] tokens = trimmed.split("\\s+");
+				commands++;
+				try {
+					run(tokens[0], Arrays.copyOfRange(tokens, 1, tokens.length));
+				} catch (Exception e) { // NOPMD - One bad input should not stop the batch
+					failed++;
+					logger.log(Level.SEVERE, String.format("Command failed: %s", trimmed), e);
+				}
+			}
+		}
+		// CHECKSTYLE:OFF MagicNumber - Nanoseconds to seconds
+		logger.log(Level.INFO, String.format("Batch of %d commands, %d failed, elapsed time: %4.2f seconds", commands,
+				failed, (System.nanoTime() - start) / 1e9));
+		// CHECKSTYLE:ON MagicNumber
+		return failed;
+	}
+
+	/**
+	 * Log usage.
+	 */
+	private static void usage() {
+		logger.log(Level.INFO, String.format("Usage: Launcher <command> [args...] | batch <file | ->, commands: %s",
+				COMMANDS.keySet()));
+	}
+
+	/**
+	 * Dispatch to sub-command or batch.
+	 *
+	 * @param args
+	 *            String array of arguments.
+	 * @throws Exception
+	 *             Anything thrown by sub-command's main.
+	 */
+	// CHECKSTYLE:OFF IllegalThrows - Mains throw different checked exceptions
+	public static void main(final String[] args) throws Exception { // NOPMD
+		// CHECKSTYLE:ON IllegalThrows
+		configureLogging();
+		// CHECKSTYLE:OFF MagicNumber - Nanoseconds to milliseconds
+		logger.log(Level.INFO, String.format("OpenCV %s, JVM startup: %d ms, native library load: %4.1f ms",
+				Core.VERSION, ManagementFactory.getRuntimeMXBean().getUptime(), NATIVE_LOAD_TIME / 1e6));
+		// CHECKSTYLE:ON MagicNumber
+		if (args.length == 0) {
+			usage();
+		} else if ("batch".equals(args[0])) {
+			if (args.length < 2) {
+				usage();
+			} else if (batch(args[1]) > 0) {
+				System.exit(1);
+			}
+		} else if (COMMANDS.containsKey(args[0])) {
+			run(args[0], Arrays.copyOfRange(args, 1, args.length));
+		} else {
+			logger.log(Level.SEVERE, String.format("Unknown command: %s", args[0]));
+			usage();
+		}
+	}
+}
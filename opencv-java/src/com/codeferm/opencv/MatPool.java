@@ -0,0 +1,231 @@
+/*
+ * Copyright (c) Steven P. Goldsmith. All rights reserved.
+ *
+ * Created by Steven P. Goldsmith on February 9, 2016
+ * sgoldsmith@codeferm.com
+ */
+package com.codeferm.opencv;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+
+/**
+ * Pool of reusable Mats keyed by rows, cols and type. Leasing a Mat of a size
+ * and type that was released before reuses its native memory instead of
+ * allocating new native memory every frame. Mats must be returned with
+ * release. Any Mats still leased when the pool is freed are reported as leaks.
+ *
+ * Methods are synchronized, so a pool can be shared by pipeline threads. Mats
+ * the pool allocates can also be accounted by a MatTracker.
+ *
+ * @author sgoldsmith
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+final class MatPool {
+	/**
+	 * Logger.
+	 */
+	// CHECKSTYLE:OFF ConstantName - Logger is static final, not a constant
+	private static final Logger logger = Logger.getLogger(MatPool.class // NOPMD
+			.getName());
+	// CHECKSTYLE:ON ConstantName
+	/**
+	 * Available Mats by key.
+	 */
+	private final Map<Long, Deque<Mat>> available = new HashMap<Long, Deque<Mat>>();
+	/**
+	 * Leased Mats and where they were leased from (null if sites are not
+	 * recorded).
+	 */
+	private final Map<Mat, Throwable> leased = new IdentityHashMap<Mat, Throwable>();
+	/**
+	 * Record stack trace of each lease for leak reports.
+	 */
+	private final boolean recordSites;
+	/**
+	 * Tracks Mats allocated by this pool or null for none.
+	 */
+	private final MatTracker tracker;
+	/**
+	 * Total leases.
+	 */
+	private long leases;
+	/**
+	 * Leases that required a new Mat.
+	 */
+	private long allocations;
+
+	/**
+	 * Create pool without lease site recording.
+	 */
+	public MatPool() {
+		this(false);
+	}
+
+	/**
+	 * Create pool.
+	 *
+	 * @param recordSites
+	 *            Record stack trace of each lease for leak reports. This is
+	 *            slow, so only use it when hunting leaks.
+	 */
+	public MatPool(final boolean recordSites) {
+		this(recordSites, null);
+	}
+
+	/**
+	 * Create pool.
+	 *
+	 * @param recordSites
+	 *            Record stack trace of each lease for leak reports. This is
+	 *            slow, so only use it when hunting leaks.
+	 * @param tracker
+	 *            Tracks Mats allocated by this pool or null for none.
+	 */
+	public MatPool(final boolean recordSites, final MatTracker tracker) {
+		this.recordSites = recordSites;
+		this.tracker = tracker;
+	}
+
+	/**
+	 * Pack rows, cols and type into key.
+	 *
+	 * @param rows
+	 *            Rows.
+	 * @param cols
+	 *            Columns.
+	 * @param type
+	 *            CvType.
+	 * @return Key.
+	 */
+	private static Long key(final int rows, final int cols, final int type) {
+		// CHECKSTYLE:OFF MagicNumber - Bit packing
+		return Long.valueOf(((long) rows << 40) | ((long) cols << 16) | type);
+		// CHECKSTYLE:ON MagicNumber
+	}
+
+	/**
+	 * Lease Mat. Contents are undefined, so clear it if needed.
+	 *
+	 * @param rows
+	 *            Rows.
+	 * @param cols
+	 *            Columns.
+	 * @param type
+	 *            CvType.
+	 * @return Mat of rows, cols and type.
+	 */
+	public synchronized Mat lease(final int rows, final int cols, final int type) {
+		final Deque<Mat> deque = available.get(key(rows, cols, type));
+		Mat mat;
+		if (deque == null || deque.isEmpty()) {
+			mat = new Mat(rows, cols, type);
+			if (tracker != null) {
+				tracker.track(mat);
+			}
+			allocations++;
+		} else {
+			mat = deque.pop();
+		}
+		leases++;
+		leased.put(mat, recordSites ? new Throwable("Leased here") : null);
+		return mat;
+	}
+
+	/**
+	 * Lease Mat. Contents are undefined, so clear it if needed.
+	 *
+	 * @param size
+	 *            Size.
+	 * @param type
+	 *            CvType.
+	 * @return Mat of size and type.
+	 */
+	public Mat lease(final Size size, final int type) {
+		return lease((int) size.height, (int) size.width, type);
+	}
+
+	/**
+	 * Return leased Mat to pool. The Mat is pooled by its current rows, cols
+	 * and type since OpenCV functions may have reallocated it.
+	 *
+	 * @param mat
+	 *            Mat leased from this pool.
+	 */
+	public synchronized void release(final Mat mat) {
+		if (!leased.containsKey(mat)) {
+			throw new IllegalArgumentException("Mat was not leased from this pool");
+		}
+		leased.remove(mat);
+		final Long key = key(mat.rows(), mat.cols(), mat.type());
+		Deque<Mat> deque = available.get(key);
+		if (deque == null) {
+			deque = new ArrayDeque<Mat>();
+			available.put(key, deque);
+		}
+		deque.push(mat);
+	}
+
+	/**
+	 * Number of Mats currently leased.
+	 *
+	 * @return Leased Mats.
+	 */
+	public synchronized int getLeased() {
+		return leased.size();
+	}
+
+	/**
+	 * Native bytes held by leased and pooled Mats.
+	 *
+	 * @return Native bytes.
+	 */
+	public synchronized long getBytes() {
+		long bytes = 0;
+		for (final Mat mat : leased.keySet()) {
+			bytes += mat.total() * mat.elemSize();
+		}
+		for (final Deque<Mat> deque : available.values()) {
+			for (final Mat mat : deque) {
+				bytes += mat.total() * mat.elemSize();
+			}
+		}
+		return bytes;
+	}
+
+	/**
+	 * Free pooled Mats and report leaks. Leaked Mats are not freed since they
+	 * may still be in use.
+	 *
+	 * @return Number of leaked Mats.
+	 */
+	public synchronized int free() {
+		for (final Map.Entry<Mat, Throwable> entry : leased.entrySet()) {
+			final Mat mat = entry.getKey();
+			logger.log(Level.WARNING, String.format("Mat leaked: %dx%d type %d", mat.cols(), mat.rows(), mat.type()),
+					entry.getValue());
+		}
+		for (final Deque<Mat> deque : available.values()) {
+			for (final Mat mat : deque) {
+				if (tracker == null) {
+					mat.free();
+				} else {
+					tracker.free(mat);
+				}
+			}
+		}
+		available.clear();
+		logger.log(Level.FINE, String.format("%d leases, %d allocations, %d leaks", leases, allocations,
+				leased.size()));
+		return leased.size();
+	}
+}
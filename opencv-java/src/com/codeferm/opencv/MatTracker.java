@@ -0,0 +1,251 @@
+/*
+ * Copyright (c) Steven P. Goldsmith. All rights reserved.
+ *
+ * Created by Steven P. Goldsmith on March 14, 2016
+ * sgoldsmith@codeferm.com
+ */
+package com.codeferm.opencv;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.opencv.core.Mat;
+
+/**
+ * Opt-in accounting of native Mat memory. Tracked Mats are recorded with where
+ * they were tracked from, so Mats never freed can be reported as leaks. Mats
+ * grow after they are created, so native bytes (total() * elemSize()) are
+ * measured when sampled, not when tracked. Peak live bytes and count are kept
+ * across samples and an optional budget makes sample throw once live bytes
+ * exceed it, so a long running service fails fast instead of growing RSS.
+ *
+ * Methods are synchronized, so one tracker can be shared by pipeline threads.
+ *
+ * @author sgoldsmith
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+final class MatTracker implements AutoCloseable {
+	/**
+	 * Logger.
+	 */
+	// CHECKSTYLE:OFF ConstantName - Logger is static final, not a constant
+	private static final Logger logger = Logger.getLogger(MatTracker.class // NOPMD
+			.getName());
+	// CHECKSTYLE:ON ConstantName
+	/**
+	 * Tracked Mats and where they were tracked from (null if sites are not
+	 * recorded).
+	 */
+	private final Map<Mat, Throwable> tracked = new IdentityHashMap<Mat, Throwable>();
+	/**
+	 * Record stack trace of each track call.
+	 */
+	private final boolean recordSites;
+	/**
+	 * Maximum live bytes or 0 for no budget.
+	 */
+	private final long budget;
+	/**
+	 * Live bytes at last sample.
+	 */
+	private long liveBytes;
+	/**
+	 * Peak live bytes.
+	 */
+	private long peakBytes;
+	/**
+	 * Peak live Mats.
+	 */
+	private int peakCount;
+	/**
+	 * Mats tracked.
+	 */
+	private long trackCount;
+
+	/**
+	 * Create tracker.
+	 *
+	 * @param recordSites
+	 *            Record stack trace of each tracked Mat for leak reports. This
+	 *            is slow, so only use it when hunting leaks.
+	 * @param budget
+	 *            Maximum live native bytes or 0 for no budget.
+	 */
+	public MatTracker(final boolean recordSites, final long budget) {
+		this.recordSites = recordSites;
+		this.budget = budget;
+	}
+
+	/**
+	 * Create tracker from system properties. Returns null unless
+	 * com.codeferm.opencv.trackMats is true. com.codeferm.opencv.matSites
+	 * turns on site recording and com.codeferm.opencv.matBudget sets the
+	 * budget in bytes.
+	 *
+	 * @return Tracker or null if not enabled.
+	 */
+	public static MatTracker fromSystemProperties() {
+		MatTracker tracker = null;
+		if (Boolean.getBoolean("com.codeferm.opencv.trackMats")) {
+			tracker = new MatTracker(Boolean.getBoolean("com.codeferm.opencv.matSites"),
+					Long.getLong("com.codeferm.opencv.matBudget", 0));
+		}
+		return tracker;
+	}
+
+	/**
+	 * Track Mat.
+	 *
+	 * @param <T>
+	 *            Mat type.
+	 * @param mat
+	 *            Mat.
+	 * @return Mat, so allocation and tracking can be one expression.
+	 */
+	public synchronized <T extends Mat> T track(final T mat) {
+		tracked.put(mat, recordSites ? new Throwable("Tracked here") : null);
+		trackCount++;
+		sample();
+		return mat;
+	}
+
+	/**
+	 * Track Mats owned by a stage, detector or sink. They are sampled once
+	 * after all are added.
+	 *
+	 * @param mats
+	 *            Mats.
+	 */
+	public synchronized void trackAll(final Mat... mats) {
+		for (final Mat mat : mats) {
+			tracked.put(mat, recordSites ? new Throwable("Tracked here") : null);
+			trackCount++;
+		}
+		sample();
+	}
+
+	/**
+	 * Stop tracking Mats without freeing them. Owners call this before freeing
+	 * Mats they tracked with trackAll.
+	 *
+	 * @param mats
+	 *            Tracked Mats.
+	 */
+	public synchronized void untrackAll(final Mat... mats) {
+		for (final Mat mat : mats) {
+			tracked.remove(mat);
+		}
+	}
+
+	/**
+	 * Stop tracking Mat without freeing it.
+	 *
+	 * @param mat
+	 *            Tracked Mat.
+	 */
+	public synchronized void untrack(final Mat mat) {
+		tracked.remove(mat);
+	}
+
+	/**
+	 * Stop tracking Mat and free its native memory.
+	 *
+	 * @param mat
+	 *            Tracked Mat.
+	 */
+	public synchronized void free(final Mat mat) {
+		tracked.remove(mat);
+		mat.free();
+	}
+
+	/**
+	 * Measure live bytes, update peaks and enforce budget.
+	 *
+	 * @return Live bytes.
+	 * @throws IllegalStateException
+	 *             If live bytes exceed budget.
+	 */
+	public synchronized long sample() {
+		long bytes = 0;
+		for (final Mat mat : tracked.keySet()) {
+			bytes += mat.total() * mat.elemSize();
+		}
+		liveBytes = bytes;
+		peakBytes = Math.max(peakBytes, bytes);
+		peakCount = Math.max(peakCount, tracked.size());
+		if (budget > 0 && bytes > budget) {
+			throw new IllegalStateException(String.format("Native Mat budget exceeded: %d bytes live in %d Mats, "
+					+ "budget %d bytes", bytes, tracked.size(), budget));
+		}
+		return bytes;
+	}
+
+	/**
+	 * Live bytes at last sample.
+	 *
+	 * @return Bytes.
+	 */
+	public synchronized long getLiveBytes() {
+		return liveBytes;
+	}
+
+	/**
+	 * Live Mats.
+	 *
+	 * @return Count.
+	 */
+	public synchronized int getLiveCount() {
+		return tracked.size();
+	}
+
+	/**
+	 * Peak live bytes.
+	 *
+	 * @return Bytes.
+	 */
+	public synchronized long getPeakBytes() {
+		return peakBytes;
+	}
+
+	/**
+	 * Peak live Mats.
+	 *
+	 * @return Count.
+	 */
+	public synchronized int getPeakCount() {
+		return peakCount;
+	}
+
+	/**
+	 * Log each Mat still tracked as a leak with its size and site, then log
+	 * peak usage.
+	 *
+	 * @return Number of leaked Mats.
+	 */
+	public synchronized int report() {
+		for (final Map.Entry<Mat, Throwable> entry : tracked.entrySet()) {
+			final Mat mat = entry.getKey();
+			logger.log(Level.WARNING, String.format("Mat leaked: %dx%d type %d, %d bytes", mat.cols(), mat.rows(),
+					mat.type(), mat.total() * mat.elemSize()), entry.getValue());
+		}
+		logger.log(Level.INFO, String.format("%d Mats tracked, %d leaked, peak %d Mats, peak %d bytes", trackCount,
+				tracked.size(), peakCount, peakBytes));
+		return tracked.size();
+	}
+
+	/**
+	 * Report leaks, then free them. Use with try-with-resources, so native
+	 * memory is released on exception paths too.
+	 */
+	@Override
+	public synchronized void close() {
+		report();
+		for (final Mat mat : tracked.keySet()) {
+			mat.free();
+		}
+		tracked.clear();
+	}
+}
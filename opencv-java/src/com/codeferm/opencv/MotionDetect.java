@@ -6,32 +6,35 @@
  */
 package com.codeferm.opencv;
 
-import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.logging.Level;
-import java.util.logging.LogManager;
 import java.util.logging.Logger;
 
 import org.opencv.core.Core;
-import org.opencv.core.CvType;
 import org.opencv.core.Mat;
 import org.opencv.core.MatOfPoint;
 import org.opencv.core.Point;
 import org.opencv.core.Rect;
-import org.opencv.core.Scalar;
 import org.opencv.core.Size;
 import org.opencv.imgproc.Imgproc;
-import org.opencv.videoio.VideoCapture;
-import org.opencv.videoio.VideoWriter;
-import org.opencv.videoio.Videoio;
 
 /**
- * Uses moving average to determine change percent.
+ * Uses moving average to determine change percent. Detection is done by
+ * MotionDetector, which keeps all state per instance, in a MotionDetectStage.
+ * The static contours method only shares a read only kernel, so it is thread
+ * safe. Use Contours or another RegionFinder to avoid allocating per call.
  *
  * args[0] = source file or will default to "../resources/traffic.mp4" if no
  * args passed.
  *
+ * args[1] = "events" to only record clips around motion or will default to
+ * recording every frame if not passed.
+ *
+ * args[2] = event pre-roll seconds or will default to 2 if not passed.
+ *
+ * args[3] = event post-roll seconds or will default to 3 if not passed.
+ *
  * @author sgoldsmith
  * @version 1.0.0
  * @since 1.0.0
@@ -51,19 +54,22 @@ final class MotionDetect {
 	}
 
 	/**
-	 * Kernel used for contours.
+	 * Default event pre-roll seconds.
 	 */
-	private static final Mat CONTOUR_KERNEL = Imgproc.getStructuringElement(Imgproc.MORPH_DILATE, new Size(3, 3),
-			new Point(1, 1));
+	private static final double DEFAULT_PRE_ROLL = 2;
 	/**
-	 * Contour hierarchy.
+	 * Default event post-roll seconds.
 	 */
-	private static final Mat HIERARCHY = new Mat();
+	private static final double DEFAULT_POST_ROLL = 3;
+	/**
+	 * Kernel used for contours. Only read, so it is safe to share.
+	 */
+	private static final Mat CONTOUR_KERNEL = Imgproc.getStructuringElement(Imgproc.MORPH_DILATE, new Size(3, 3),
+			new Point(1, 1));
 	/**
 	 * Point used for contour dilate and erode.
 	 */
 	private static final Point CONTOUR_POINT = new Point(-1, -1);
-
 	/**
 	 * Suppress default constructor for noninstantiability.
 	 */
@@ -72,10 +78,11 @@ final class MotionDetect {
 	}
 
 	/**
-	 * Get contours from image.
+	 * Get contours from image. A new List, hierarchy and MatOfPoint per
+	 * contour are created each call, so it is thread safe.
 	 *
 	 * @param source
-	 *            Source image.
+	 *            Source image. This value is modified.
 	 * @return List of rectangles.
 	 */
 	public static List<Rect> contours(final Mat source) {
@@ -84,14 +91,16 @@ final class MotionDetect {
 		Imgproc.erode(source, source, CONTOUR_KERNEL, CONTOUR_POINT, 10);
 		// CHECKSTYLE:ON MagicNumber
 		final List<MatOfPoint> contoursList = new ArrayList<MatOfPoint>();
-		Imgproc.findContours(source, contoursList, HIERARCHY, Imgproc.RETR_TREE, Imgproc.CHAIN_APPROX_SIMPLE);
-		List<Rect> rectList = new ArrayList<Rect>();
+		final Mat hierarchy = new Mat();
+		Imgproc.findContours(source, contoursList, hierarchy, Imgproc.RETR_TREE, Imgproc.CHAIN_APPROX_SIMPLE);
+		final List<Rect> rectList = new ArrayList<Rect>();
 		// Convert MatOfPoint to Rectangles
-		for (MatOfPoint mop : contoursList) {
+		for (final MatOfPoint mop : contoursList) {
 			rectList.add(Imgproc.boundingRect(mop));
 			// Release native memory
 			mop.free();
 		}
+		hierarchy.free();
 		return rectList;
 	}
 
@@ -101,12 +110,22 @@ final class MotionDetect {
 	 * args[0] = source file or will default to "../resources/traffic.mp4" if no
 	 * args passed.
 	 *
+	 * args[1] = "events" to only record clips around motion or will default to
+	 * recording every frame if not passed.
+	 *
+	 * args[2] = event pre-roll seconds or will default to 2 if not passed.
+	 *
+	 * args[3] = event post-roll seconds or will default to 3 if not passed.
+	 *
 	 * @param args
 	 *            String array of arguments.
+	 * @throws InterruptedException
+	 *             Possible exception.
 	 */
-	public static void main(final String[] args) {
+	public static void main(final String[] args) throws InterruptedException {
 		String url = null;
 		final String outputFile = "../output/motion-detect-java.avi";
+		final String eventPrefix = "../output/motion-detect-event-java";
 		// Check how many arguments were passed in
 		if (args.length == 0) {
 			// If no arguments were passed then default to
@@ -115,93 +134,57 @@ final class MotionDetect {
 		} else {
 			url = args[0];
 		}
-		// Custom logging properties via class loader
-		try {
-			LogManager.getLogManager()
-					.readConfiguration(MotionDetect.class.getClassLoader().getResourceAsStream("logging.properties"));
-		} catch (SecurityException | IOException e) {
-			e.printStackTrace();
+		final boolean events = args.length > 1 && "events".equals(args[1]);
+		double preRoll = DEFAULT_PRE_ROLL;
+		if (args.length > 2) {
+			preRoll = Double.parseDouble(args[2]);
 		}
+		double postRoll = DEFAULT_POST_ROLL;
+		if (args.length > 3) {
+			postRoll = Double.parseDouble(args[3]);
+		}
+		// Custom logging properties via class loader, read once per JVM
+		Launcher.configureLogging();
 		logger.log(Level.INFO, String.format("OpenCV %s", Core.VERSION));
-		logger.log(Level.INFO, String.format("Input file: %s", url));
-		logger.log(Level.INFO, String.format("Output file: %s", outputFile));
-		VideoCapture videoCapture = new VideoCapture(url);
-		final Size frameSize = new Size((int) videoCapture.get(Videoio.CAP_PROP_FRAME_WIDTH),
-				(int) videoCapture.get(Videoio.CAP_PROP_FRAME_HEIGHT));
-		logger.log(Level.INFO, String.format("Resolution: %s", frameSize));
-		final FourCC fourCC = new FourCC("X264");
-		VideoWriter videoWriter = new VideoWriter(outputFile, fourCC.toInt(), videoCapture.get(Videoio.CAP_PROP_FPS),
-				frameSize, true);
-		final Mat mat = new Mat();
-		int frames = 0;
-		final Mat workImg = new Mat();
-		Mat movingAvgImg = null;
-		final Mat gray = new Mat();
-		final Mat diffImg = new Mat();
-		final Mat scaleImg = new Mat();
-		final Point rectPoint1 = new Point();
-		final Point rectPoint2 = new Point();
-		final Scalar rectColor = new Scalar(0, 255, 0);
-		final Size kSize = new Size(8, 8);
-		final double totalPixels = frameSize.area();
-		double motionPercent = 0.0;
-		int framesWithMotion = 0;
-		final long startTime = System.currentTimeMillis();
-		while (videoCapture.read(mat)) {
-			// Generate work image by blurring
-			Imgproc.blur(mat, workImg, kSize);
-			// Generate moving average image if needed
-			if (movingAvgImg == null) {
-				movingAvgImg = new Mat();
-				workImg.convertTo(movingAvgImg, CvType.CV_32F);
-
-			}
-			// Generate moving average image
-			// CHECKSTYLE:OFF MagicNumber - Magic numbers here for illustration
-			Imgproc.accumulateWeighted(workImg, movingAvgImg, .03);
-			// Convert the scale of the moving average
-			Core.convertScaleAbs(movingAvgImg, scaleImg);
-			// Subtract the work image frame from the scaled image average
-			Core.absdiff(workImg, scaleImg, diffImg);
-			// Convert the image to grayscale
-			Imgproc.cvtColor(diffImg, gray, Imgproc.COLOR_BGR2GRAY);
-			// Convert to BW
-			Imgproc.threshold(gray, gray, 25, 255, Imgproc.THRESH_BINARY);
-			// Total number of changed motion pixels
-			motionPercent = 100.0 * Core.countNonZero(gray) / totalPixels;
-			// Detect if camera is adjusting and reset reference if more than
-			// 25%
-			if (motionPercent > 25.0) {
-				workImg.convertTo(movingAvgImg, CvType.CV_32F);
-			}
-			List<Rect> movementLocations = contours(gray);
-			// Threshold trigger motion
-			if (motionPercent > 0.75) {
-				framesWithMotion++;
-				for (Rect rect : movementLocations) {
-					rectPoint1.x = rect.x;
-					rectPoint1.y = rect.y;
-					rectPoint2.x = rect.x + rect.width;
-					rectPoint2.y = rect.y + rect.height;
-					// Draw rectangle around fond object
-					Imgproc.rectangle(mat, rectPoint1, rectPoint2, rectColor, 2);
-				}
+		logger.log(Level.INFO,
+				String.format("Motion regions: %s", System.getProperty("com.codeferm.opencv.regions", "contours")));
+		// Enabled with -Dcom.codeferm.opencv.trackMats=true
+		final MatTracker matTracker = MatTracker.fromSystemProperties();
+		final FrameSource source = new FrameSource(url);
+		final MotionDetectStage stage = new MotionDetectStage(new MotionDetector(source.getFrameSize()),
+				MotionDetectStage.DEFAULT_THRESHOLD);
+		final FrameSink sink;
+		EventFrameSink eventSink = null;
+		if (events) {
+			// Seconds to frames, at least one frame of post-roll
+			eventSink = new EventFrameSink(eventPrefix, source.getFps(), source.getFrameSize(),
+					(int) Math.round(preRoll * source.getFps()),
+					Math.max(1, (int) Math.round(postRoll * source.getFps())));
+			stage.setEventSink(eventSink);
+			sink = eventSink;
+		} else {
+			sink = new FrameSink(outputFile, source.getFps(), source.getFrameSize());
+		}
+		final FramePipeline pipeline = new FramePipeline(source, sink, FramePipeline.DEFAULT_RING_SIZE, matTracker);
+		pipeline.addStage(stage);
+		// Break stage latency down into motion detection steps
+		stage.getMotionDetector().setLatency(pipeline.getLatency());
+		pipeline.setCsvFile("../output/motion-detect-latency-java.csv");
+		try {
+			final int frames = pipeline.run();
+			logger.log(Level.INFO,
+					String.format("%d frames, %d frames with motion", frames, stage.getFramesWithMotion()));
+		} finally {
+			// Free native memory
+			pipeline.free();
+			if (matTracker != null) {
+				matTracker.close();
 			}
-			videoWriter.write(mat);
-			frames++;
 		}
-		final long estimatedTime = System.currentTimeMillis() - startTime;
-		final double seconds = (double) estimatedTime / 1000;
-		logger.log(Level.INFO, String.format("%d frames, %d frames with motion", frames, framesWithMotion));
-		logger.log(Level.INFO, String.format("%4.1f FPS, elapsed time: %4.2f seconds", frames / seconds, seconds));
-		// Free native memory
-		videoCapture.free();
-		videoWriter.free();
-		mat.free();
-		workImg.free();
-		movingAvgImg.free();
-		gray.free();
-		diffImg.free();
-		scaleImg.free();
+		// Frames left in pre-roll are counted as skipped once freed
+		if (eventSink != null) {
+			logger.log(Level.INFO, String.format("%d clips, %d frames encoded, %d frames skipped",
+					eventSink.getClips(), eventSink.getFrames(), eventSink.getFramesSkipped()));
+		}
 	}
 }
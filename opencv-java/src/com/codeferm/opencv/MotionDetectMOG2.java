@@ -6,35 +6,32 @@
  */
 package com.codeferm.opencv;
 
-import java.io.IOException;
-import java.util.ArrayList;
-import java.util.List;
 import java.util.logging.Level;
-import java.util.logging.LogManager;
 import java.util.logging.Logger;
 
 import org.opencv.core.Core;
 import org.opencv.core.Mat;
-import org.opencv.core.MatOfPoint;
-import org.opencv.core.Point;
-import org.opencv.core.Rect;
-import org.opencv.core.Scalar;
 import org.opencv.core.Size;
-import org.opencv.imgproc.Imgproc;
-import org.opencv.video.BackgroundSubtractorMOG2;
-import org.opencv.video.Video;
-import org.opencv.videoio.VideoCapture;
-import org.opencv.videoio.VideoWriter;
-import org.opencv.videoio.Videoio;
 
 /**
  * Uses Gaussian Mixture-based Background/Foreground Segmentation Algorithm.
  * You'll note this is much slower then using moving average, but motion blobs
- * are more refined.
+ * are more refined. Detection is done by MotionDetectMOG2Stage in a
+ * FramePipeline.
  *
  * args[0] = source file or will default to "../resources/traffic.mp4" if no
  * args passed.
  *
+ * args[1] = "cascade" to run MOG2 only when a moving average gate fires
+ * (CascadedMotionStage) or will default to MOG2 on every frame if not passed.
+ *
+ * args[2] = width divisor of MOG2 background model or will default to 1 (full
+ * size) if not passed. When resized, detect FPS at full size and at this scale
+ * is measured on the first frames after the run and the gain is logged.
+ *
+ * args[3] = "mask" to draw the foreground mask under rectangles or will
+ * default to rectangles only if not passed.
+ *
  * @author sgoldsmith
  * @version 1.0.0
  * @since 1.0.0
@@ -54,18 +51,9 @@ final class MotionDetectMOG2 {
 	}
 
 	/**
-	 * Kernel used for contours.
-	 */
-	private static final Mat CONTOUR_KERNEL = Imgproc.getStructuringElement(Imgproc.MORPH_DILATE, new Size(3, 3),
-			new Point(1, 1));
-	/**
-	 * Contour hierarchy.
+	 * Frames timed to measure resize gain.
 	 */
-	private static final Mat HIERARCHY = new Mat();
-	/**
-	 * Point used for contour dilate and erode.
-	 */
-	private static final Point CONTOUR_POINT = new Point(-1, -1);
+	private static final int GAIN_FRAMES = 100;
 
 	/**
 	 * Suppress default constructor for noninstantiability.
@@ -75,27 +63,32 @@ final class MotionDetectMOG2 {
 	}
 
 	/**
-	 * Get contours from image.
+	 * Time MOG2 detect over the first frames of source. Decoding is not
+	 * timed.
 	 *
-	 * @param source
-	 *            Source image.
-	 * @return List of rectangles.
+	 * @param url
+	 *            Source file.
+	 * @param stage
+	 *            MOG2 stage. Freed by this method.
+	 * @return Detect frames per second.
 	 */
-	public static List<Rect> contours(final Mat source) {
-		// CHECKSTYLE:OFF MagicNumber - Magic numbers here for illustration
-		Imgproc.dilate(source, source, CONTOUR_KERNEL, CONTOUR_POINT, 15);
-		Imgproc.erode(source, source, CONTOUR_KERNEL, CONTOUR_POINT, 10);
-		// CHECKSTYLE:ON MagicNumber
-		final List<MatOfPoint> contoursList = new ArrayList<MatOfPoint>();
-		Imgproc.findContours(source, contoursList, HIERARCHY, Imgproc.RETR_TREE, Imgproc.CHAIN_APPROX_SIMPLE);
-		List<Rect> rectList = new ArrayList<Rect>();
-		// Convert MatOfPoint to Rectangles
-		for (MatOfPoint mop : contoursList) {
-			rectList.add(Imgproc.boundingRect(mop));
-			// Release native memory
-			mop.free();
+	private static double detectFps(final String url, final MotionDetectMOG2Stage stage) {
+		final FrameSource source = new FrameSource(url);
+		final Mat frame = new Mat();
+		long time = 0;
+		int frames = 0;
+		while (frames < GAIN_FRAMES && source.read(frame)) {
+			final long start = System.nanoTime();
+			stage.detect(frame);
+			time += System.nanoTime() - start;
+			frames++;
 		}
-		return rectList;
+		frame.free();
+		source.free();
+		stage.free();
+		// CHECKSTYLE:OFF MagicNumber - Nanoseconds to seconds
+		return time == 0 ? 0 : frames / (time / 1e9);
+		// CHECKSTYLE:ON MagicNumber
 	}
 
 	/**
@@ -104,10 +97,21 @@ final class MotionDetectMOG2 {
 	 * args[0] = source file or will default to "../resources/traffic.mp4" if no
 	 * args passed.
 	 *
+	 * args[1] = "cascade" to run MOG2 only when a moving average gate fires
+	 * or will default to MOG2 on every frame if not passed.
+	 *
+	 * args[2] = width divisor of MOG2 background model or will default to 1
+	 * (full size) if not passed.
+	 *
+	 * args[3] = "mask" to draw the foreground mask under rectangles or will
+	 * default to rectangles only if not passed.
+	 *
 	 * @param args
 	 *            String array of arguments.
+	 * @throws InterruptedException
+	 *             Possible exception.
 	 */
-	public static void main(final String[] args) {
+	public static void main(final String[] args) throws InterruptedException {
 		String url = null;
 		final String outputFile = "../output/motion-detect-mog2-java.avi";
 		// Check how many arguments were passed in
@@ -118,78 +122,47 @@ final class MotionDetectMOG2 {
 		} else {
 			url = args[0];
 		}
-		// Custom logging properties via class loader
-		try {
-			LogManager.getLogManager().readConfiguration(
-					MotionDetectMOG2.class.getClassLoader().getResourceAsStream("logging.properties"));
-		} catch (SecurityException | IOException e) {
-			e.printStackTrace();
+		final boolean cascade = args.length > 1 && "cascade".equals(args[1]);
+		int widthDivisor = 1;
+		if (args.length > 2) {
+			widthDivisor = Integer.parseInt(args[2]);
 		}
+		final boolean drawMask = args.length > 3 && "mask".equals(args[3]);
+		// Custom logging properties via class loader, read once per JVM
+		Launcher.configureLogging();
 		logger.log(Level.INFO, String.format("OpenCV %s", Core.VERSION));
-		logger.log(Level.INFO, String.format("Input file: %s", url));
-		logger.log(Level.INFO, String.format("Output file: %s", outputFile));
-		VideoCapture videoCapture = new VideoCapture(url);
-		final Size frameSize = new Size((int) videoCapture.get(Videoio.CAP_PROP_FRAME_WIDTH),
-				(int) videoCapture.get(Videoio.CAP_PROP_FRAME_HEIGHT));
-		logger.log(Level.INFO, String.format("Resolution: %s", frameSize));
-		final FourCC fourCC = new FourCC("X264");
-		VideoWriter videoWriter = new VideoWriter(outputFile, fourCC.toInt(), videoCapture.get(Videoio.CAP_PROP_FPS),
-				frameSize, true);
-		final BackgroundSubtractorMOG2 mog2 = Video.createBackgroundSubtractorMOG2(300, 32, true);
-		final Mat capture = new Mat();
-		final Mat foreground = new Mat();
-		final Mat blur = new Mat();
-		final Mat binaryImg = new Mat();
-		// Create a structuring element (SE)
-		final Mat element = Imgproc.getStructuringElement(Imgproc.MORPH_RECT, new Size(7, 7), new Point(3, 3));
-		final Size kSize = new Size(4, 4);
-		final Point rectPoint1 = new Point();
-		final Point rectPoint2 = new Point();
-		final Scalar rectColor = new Scalar(0, 255, 0);
-		int frames = 0;
-		int framesWithMotion = 0;
-		final long startTime = System.currentTimeMillis();
-		// Process all frames in file
-		while (videoCapture.read(capture)) {
-			// Reduce noise with a kernel 4x4
-			Imgproc.blur(capture, blur, kSize);
-			// Update the background model
-			mog2.apply(blur, foreground, -1);
-			// Apply the close morphology operation
-			Imgproc.morphologyEx(foreground, binaryImg, Imgproc.MORPH_CLOSE, element);
-			// Convert to BW
-			Imgproc.threshold(binaryImg, binaryImg, 128, 255, Imgproc.THRESH_BINARY);
-			List<Rect> movementLocations = contours(binaryImg);
-			// Contours trigger motion
-			if (movementLocations.size() > 0) {
-				framesWithMotion++;
-				for (Rect rect : movementLocations) {
-					// Filter out smaller blobs
-					if (rect.width > 30 && rect.height > 30) {
-						rectPoint1.x = rect.x;
-						rectPoint1.y = rect.y;
-						rectPoint2.x = rect.x + rect.width;
-						rectPoint2.y = rect.y + rect.height;
-						// Draw rectangle around fond object
-						Imgproc.rectangle(capture, rectPoint1, rectPoint2, rectColor, 2);
-					}
-				}
-			}
-			videoWriter.write(capture);
-			frames++;
+		final FrameSource source = new FrameSource(url);
+		final FramePipeline pipeline = new FramePipeline(source,
+				new FrameSink(outputFile, source.getFps(), source.getFrameSize()), FramePipeline.DEFAULT_RING_SIZE);
+		final Size frameSize = source.getFrameSize();
+		final MotionDetectMOG2Stage mog2Stage = new MotionDetectMOG2Stage(frameSize, widthDivisor);
+		mog2Stage.setDrawMask(drawMask);
+		if (mog2Stage.getResizeSize() == null) {
+			logger.log(Level.INFO, "MOG2 model at full size");
+		} else {
+			logger.log(Level.INFO, String.format("MOG2 model at 1/%d scale, %dx%d", widthDivisor,
+					(int) mog2Stage.getResizeSize().width, (int) mog2Stage.getResizeSize().height));
+		}
+		if (cascade) {
+			final CascadedMotionStage stage = new CascadedMotionStage(new MotionDetector(frameSize), mog2Stage,
+					MotionDetectStage.DEFAULT_THRESHOLD, CascadedMotionStage.DEFAULT_TAIL,
+					CascadedMotionStage.DEFAULT_IDLE_RATE);
+			final int frames = pipeline.addStage(stage).run();
+			logger.log(Level.INFO, String.format("%d frames, %d frames with motion, MOG2 detect on %d frames", frames,
+					stage.getFramesWithMotion(), stage.getDetectFrames()));
+		} else {
+			final int frames = pipeline.addStage(mog2Stage).run();
+			logger.log(Level.INFO,
+					String.format("%d frames, %d frames with motion", frames, mog2Stage.getFramesWithMotion()));
 		}
-		final long estimatedTime = System.currentTimeMillis() - startTime;
-		final double seconds = (double) estimatedTime / 1000;
-		logger.log(Level.INFO, String.format("%d frames, %d frames with motion", frames, framesWithMotion));
-		logger.log(Level.INFO, String.format("%4.1f FPS, elapsed time: %4.2f seconds", frames / seconds, seconds));
 		// Free native memory
-		videoCapture.free();
-		videoWriter.free();
-		mog2.free();
-		capture.free();
-		foreground.free();
-		blur.free();
-		binaryImg.free();
-		element.free();
+		pipeline.free();
+		if (widthDivisor > 1) {
+			final double fullFps = detectFps(url, new MotionDetectMOG2Stage());
+			final double scaledFps = detectFps(url, new MotionDetectMOG2Stage(frameSize, widthDivisor));
+			logger.log(Level.INFO, String.format(
+					"MOG2 detect over first %d frames: %4.1f FPS full size, %4.1f FPS at 1/%d scale, gain %4.2fx",
+					GAIN_FRAMES, fullFps, scaledFps, widthDivisor, fullFps == 0 ? 0 : scaledFps / fullFps));
+		}
 	}
 }
@@ -0,0 +1,369 @@
+/*
+ * Copyright (c) Steven P. Goldsmith. All rights reserved.
+ *
+ * Created by Steven P. Goldsmith on March 8, 2016
+ * sgoldsmith@codeferm.com
+ */
+package com.codeferm.opencv;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Scalar;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+import org.opencv.video.BackgroundSubtractorMOG2;
+import org.opencv.video.Video;
+
+/**
+ * Gaussian Mixture-based Background/Foreground Segmentation stage. Rectangles
+ * are drawn around foreground blobs larger than the minimum size.
+ *
+ * detect and learn are split out of process, so CascadedMotionStage can run
+ * the full model only when a cheaper gate fires and just update the
+ * background the rest of the time.
+ *
+ * The model can be kept on a frame downscaled by a width divisor. Mixture
+ * cost grows with pixel count, so this is where most of the time goes at high
+ * resolution. Rectangles are scaled back to full size frame coordinates
+ * before the minimum blob size is applied. The foreground mask is only
+ * upscaled when it is drawn. Blur, close and contour kernels are not scaled,
+ * so blobs merge more readily at smaller scales.
+ *
+ * @author sgoldsmith
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+final class MotionDetectMOG2Stage implements MotionStage {
+	/**
+	 * Frames of history in background model.
+	 */
+	public static final int HISTORY = 300;
+	/**
+	 * Maximum rectangles per frame.
+	 */
+	private static final int MAX_RECTS = 256;
+	/**
+	 * Blobs must be wider and taller than this to be drawn.
+	 */
+	private static final int MIN_BLOB_SIZE = 30;
+	/**
+	 * Rectangle color.
+	 */
+	private static final Scalar RECT_COLOR = new Scalar(0, 255, 0);
+	/**
+	 * Noise reduction kernel.
+	 */
+	private static final Size KERNEL_SIZE = new Size(4, 4);
+	/**
+	 * Foreground mask color.
+	 */
+	private static final Scalar MASK_COLOR = new Scalar(0, 0, 255);
+	/**
+	 * Frame width and height divisor. 1 means no resize.
+	 */
+	private final int widthDivisor;
+	/**
+	 * Resized frame size or null if not resized.
+	 */
+	private final Size resizeSize;
+	/**
+	 * Used for full size image marking.
+	 */
+	private final double widthMultiplier;
+	/**
+	 * Used for full size image marking.
+	 */
+	private final double heightMultiplier;
+	/**
+	 * Background subtractor.
+	 */
+	// CHECKSTYLE:OFF MagicNumber - Magic numbers here for illustration
+	private final BackgroundSubtractorMOG2 mog2 = Video.createBackgroundSubtractorMOG2(HISTORY, 32, true);
+	/**
+	 * Structuring element for close.
+	 */
+	private final Mat element = Imgproc.getStructuringElement(Imgproc.MORPH_RECT, new Size(7, 7), new Point(3, 3));
+	// CHECKSTYLE:ON MagicNumber
+	/**
+	 * Resized frame.
+	 */
+	private final Mat resizeImg = new Mat();
+	/**
+	 * Foreground mask.
+	 */
+	private final Mat foreground = new Mat();
+	/**
+	 * Blurred frame.
+	 */
+	private final Mat blur = new Mat();
+	/**
+	 * Closed and thresholded foreground.
+	 */
+	private final Mat binaryImg = new Mat();
+	/**
+	 * Closed and thresholded foreground before contours modify it.
+	 */
+	private final Mat maskImg = new Mat();
+	/**
+	 * Foreground mask upscaled to frame size.
+	 */
+	private final Mat fullMask = new Mat();
+	/**
+	 * Contour buffers owned by this stage, not shared static state.
+	 */
+	private final Contours contours = new Contours();
+	/**
+	 * Rectangles (x, y, width, height packed).
+	 */
+	private final int[] rects = new int[MAX_RECTS * Contours.RECT_INTS];
+	/**
+	 * Blobs larger than minimum size at front of rects.
+	 */
+	private int blobCount;
+	/**
+	 * Work point.
+	 */
+	private final Point rectPoint1 = new Point();
+	/**
+	 * Work point.
+	 */
+	private final Point rectPoint2 = new Point();
+	/**
+	 * Frames with motion.
+	 */
+	private volatile int framesWithMotion;
+	/**
+	 * Draw foreground mask under rectangles.
+	 */
+	private boolean drawMask;
+	/**
+	 * True if maskImg is from last frame.
+	 */
+	private boolean maskValid;
+	/**
+	 * Native Mat tracker or null for none.
+	 */
+	private MatTracker tracker;
+
+	/**
+	 * Create stage that keeps model at full size.
+	 */
+	public MotionDetectMOG2Stage() {
+		this.widthDivisor = 1;
+		this.resizeSize = null;
+		this.widthMultiplier = 1;
+		this.heightMultiplier = 1;
+	}
+
+	/**
+	 * Create stage that keeps model on resized frames.
+	 *
+	 * @param frameSize
+	 *            Frame size.
+	 * @param widthDivisor
+	 *            Divide frame width and height by this value. 1 means no
+	 *            resize.
+	 */
+	public MotionDetectMOG2Stage(final Size frameSize, final int widthDivisor) {
+		if (widthDivisor < 1) {
+			throw new IllegalArgumentException("Width divisor must be at least 1");
+		}
+		this.widthDivisor = widthDivisor;
+		if (widthDivisor > 1) {
+			this.resizeSize = new Size((int) (frameSize.width / widthDivisor), (int) (frameSize.height / widthDivisor));
+			this.widthMultiplier = frameSize.width / resizeSize.width;
+			this.heightMultiplier = frameSize.height / resizeSize.height;
+		} else {
+			this.resizeSize = null;
+			this.widthMultiplier = 1;
+			this.heightMultiplier = 1;
+		}
+	}
+
+	/**
+	 * Resize frame if needed and blur.
+	 *
+	 * @param frame
+	 *            BGR frame.
+	 */
+	private void blurFrame(final Mat frame) {
+		if (resizeSize == null) {
+			// Reduce noise with a kernel 4x4
+			Imgproc.blur(frame, blur, KERNEL_SIZE);
+		} else {
+			// Area interpolation averages pixels, so small objects fade
+			// instead of flicker
+			Imgproc.resize(frame, resizeImg, resizeSize, 0, 0, Imgproc.INTER_AREA);
+			Imgproc.blur(resizeImg, blur, KERNEL_SIZE);
+		}
+	}
+
+	/**
+	 * Update background model and find foreground blobs larger than the
+	 * minimum size. The frame is not modified.
+	 *
+	 * @param frame
+	 *            BGR frame.
+	 * @return Number of blobs.
+	 */
+	public int detect(final Mat frame) {
+		blurFrame(frame);
+		// Update the background model
+		mog2.apply(blur, foreground, -1);
+		// Apply the close morphology operation
+		Imgproc.morphologyEx(foreground, binaryImg, Imgproc.MORPH_CLOSE, element);
+		// Convert to BW
+		// CHECKSTYLE:OFF MagicNumber - Magic numbers here for illustration
+		Imgproc.threshold(binaryImg, binaryImg, 128, 255, Imgproc.THRESH_BINARY);
+		// CHECKSTYLE:ON MagicNumber
+		if (drawMask) {
+			// Contours modify binaryImg
+			binaryImg.copyTo(maskImg);
+			maskValid = true;
+		}
+		final int count = Math.min(contours.boundingRects(binaryImg, rects), MAX_RECTS);
+		// Contours trigger motion
+		if (count > 0) {
+			framesWithMotion++;
+		}
+		blobCount = 0;
+		for (int i = 0; i < count * Contours.RECT_INTS; i += Contours.RECT_INTS) {
+			if (resizeSize != null) {
+				rects[i] = (int) (rects[i] * widthMultiplier);
+				rects[i + 1] = (int) (rects[i + 1] * heightMultiplier);
+				rects[i + 2] = (int) (rects[i + 2] * widthMultiplier);
+				rects[i + 3] = (int) (rects[i + 3] * heightMultiplier);
+			}
+			// Filter out smaller blobs
+			if (rects[i + 2] > MIN_BLOB_SIZE && rects[i + 3] > MIN_BLOB_SIZE) {
+				System.arraycopy(rects, i, rects, blobCount * Contours.RECT_INTS, Contours.RECT_INTS);
+				blobCount++;
+			}
+		}
+		return blobCount;
+	}
+
+	/**
+	 * Update background model only, skipping morphology and contours. Clears
+	 * blobs.
+	 *
+	 * @param frame
+	 *            BGR frame.
+	 * @param learningRate
+	 *            Learning rate between 0 and 1 or -1 for automatic.
+	 */
+	public void learn(final Mat frame, final double learningRate) {
+		blurFrame(frame);
+		mog2.apply(blur, foreground, learningRate);
+		blobCount = 0;
+		maskValid = false;
+	}
+
+	/**
+	 * Draw rectangles around blobs found by last detect and the foreground
+	 * mask if set.
+	 *
+	 * @param frame
+	 *            Frame to draw on.
+	 */
+	public void drawBlobs(final Mat frame) {
+		if (maskValid) {
+			if (resizeSize == null) {
+				frame.setTo(MASK_COLOR, maskImg);
+			} else {
+				// Nearest keeps mask binary
+				Imgproc.resize(maskImg, fullMask, frame.size(), 0, 0, Imgproc.INTER_NEAREST);
+				frame.setTo(MASK_COLOR, fullMask);
+			}
+		}
+		for (int i = 0; i < blobCount * Contours.RECT_INTS; i += Contours.RECT_INTS) {
+			rectPoint1.x = rects[i];
+			rectPoint1.y = rects[i + 1];
+			rectPoint2.x = rects[i] + rects[i + 2];
+			rectPoint2.y = rects[i + 1] + rects[i + 3];
+			// Draw rectangle around fond object
+			Imgproc.rectangle(frame, rectPoint1, rectPoint2, RECT_COLOR, 2);
+		}
+	}
+
+	@Override
+	public void process(final Mat frame) {
+		detect(frame);
+		drawBlobs(frame);
+	}
+
+	/**
+	 * Blobs found by last detect (x, y, width, height packed). Only the first
+	 * getBlobCount() are valid.
+	 *
+	 * @return Rectangles.
+	 */
+	public int[] getBlobs() {
+		return rects;
+	}
+
+	/**
+	 * Number of blobs found by last detect.
+	 *
+	 * @return Number of blobs.
+	 */
+	public int getBlobCount() {
+		return blobCount;
+	}
+
+	/**
+	 * Draw foreground mask under rectangles. Set before processing starts.
+	 *
+	 * @param drawMask
+	 *            True to draw mask.
+	 */
+	public void setDrawMask(final boolean drawMask) {
+		this.drawMask = drawMask;
+	}
+
+	/**
+	 * Frame width and height divisor.
+	 *
+	 * @return Divisor, 1 if not resized.
+	 */
+	public int getWidthDivisor() {
+		return widthDivisor;
+	}
+
+	/**
+	 * Size of image background model is kept on.
+	 *
+	 * @return Resized frame size or null if not resized.
+	 */
+	public Size getResizeSize() {
+		return resizeSize;
+	}
+
+	@Override
+	public int getFramesWithMotion() {
+		return framesWithMotion;
+	}
+
+	@Override
+	public void setTracker(final MatTracker tracker) {
+		this.tracker = tracker;
+		tracker.trackAll(element, resizeImg, foreground, blur, binaryImg, maskImg, fullMask);
+		contours.setTracker(tracker);
+	}
+
+	@Override
+	public void free() {
+		if (tracker != null) {
+			tracker.untrackAll(element, resizeImg, foreground, blur, binaryImg, maskImg, fullMask);
+		}
+		mog2.free();
+		resizeImg.free();
+		foreground.free();
+		blur.free();
+		binaryImg.free();
+		maskImg.free();
+		fullMask.free();
+		element.free();
+		contours.free();
+	}
+}
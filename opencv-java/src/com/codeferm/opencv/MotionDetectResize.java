@@ -0,0 +1,184 @@
+/*
+ * Copyright (c) Steven P. Goldsmith. All rights reserved.
+ *
+ * Created by Steven P. Goldsmith on February 2, 2016
+ * sgoldsmith@codeferm.com
+ */
+package com.codeferm.opencv;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.opencv.core.Core;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * Uses moving average to determine change percent on a resized frame. The
+ * rectangles found are scaled back up to the full size frame for drawing by
+ * MotionDetector. This is the Java version of MotionDetectResize.py. The same
+ * file is processed without resizing first, so both FPS values can be
+ * compared.
+ *
+ * args[0] = source file or will default to "../resources/traffic.mp4" if no
+ * args passed.
+ *
+ * args[1] = width divisor or will default to frame width / 480 if not passed,
+ * so frames are not resized below 480 wide. Frames under 960 wide get a
+ * divisor of 1, which does not resize, so only the full size run is done.
+ *
+ * args[2] = resize interpolation (nearest, linear, area or cubic) or will
+ * default to nearest if not passed.
+ *
+ * @author sgoldsmith
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+final class MotionDetectResize {
+	/**
+	 * Logger.
+	 */
+	// CHECKSTYLE:OFF - Logger is static final, not a constant
+	private static final Logger logger = Logger.getLogger(MotionDetectResize.class // NOPMD
+			.getName());
+
+	// CHECKSTYLE:ON
+	/* Load the OpenCV system library */
+	static {
+		System.loadLibrary(Core.NATIVE_LIBRARY_NAME); // NOPMD
+	}
+
+	/**
+	 * Suppress default constructor for noninstantiability.
+	 */
+	private MotionDetectResize() {
+		throw new AssertionError();
+	}
+
+	/**
+	 * Convert interpolation name to Imgproc constant.
+	 *
+	 * @param name
+	 *            nearest, linear, area or cubic.
+	 * @return Imgproc interpolation constant.
+	 */
+	public static int interpolation(final String name) {
+		int interpolation;
+		switch (name.toLowerCase()) {
+		case "nearest":
+			interpolation = Imgproc.INTER_NEAREST;
+			break;
+		case "linear":
+			interpolation = Imgproc.INTER_LINEAR;
+			break;
+		case "area":
+			interpolation = Imgproc.INTER_AREA;
+			break;
+		case "cubic":
+			interpolation = Imgproc.INTER_CUBIC;
+			break;
+		default:
+			throw new IllegalArgumentException(String.format("Unknown interpolation: %s", name));
+		}
+		return interpolation;
+	}
+
+	/**
+	 * Mark frames with motion detected using a resized work image.
+	 *
+	 * @param url
+	 *            Source file.
+	 * @param outputFile
+	 *            Output file.
+	 * @param widthDivisor
+	 *            Divide frame width and height by this value. 1 means no
+	 *            resize.
+	 * @param interpolation
+	 *            Resize interpolation.
+	 * @return Frames per second.
+	 * @throws InterruptedException
+	 *             Possible exception.
+	 */
+	public static double detect(final String url, final String outputFile, final int widthDivisor,
+			final int interpolation) throws InterruptedException {
+		final FrameSource source = new FrameSource(url);
+		final Size frameSize = source.getFrameSize();
+		final Size resizeSize = new Size((int) (frameSize.width / widthDivisor),
+				(int) (frameSize.height / widthDivisor));
+		logger.log(Level.INFO, String.format("Resized to: %s", resizeSize));
+		final FramePipeline pipeline = new FramePipeline(source,
+				new FrameSink(outputFile, source.getFps(), frameSize), FramePipeline.DEFAULT_RING_SIZE);
+		// Rectangles are scaled back to full size frame by detector
+		final MotionDetectStage stage = new MotionDetectStage(
+				new MotionDetector(frameSize, widthDivisor, interpolation), MotionDetectStage.DEFAULT_THRESHOLD);
+		final int frames = pipeline.addStage(stage).run();
+		final double fps = pipeline.getFps();
+		logger.log(Level.INFO, String.format("%d frames, %d frames with motion", frames, stage.getFramesWithMotion()));
+		// Free native memory
+		pipeline.free();
+		return fps;
+	}
+
+	/**
+	 * Mark frames with motion detected with and without resizing.
+	 *
+	 * args[0] = source file or will default to "../resources/traffic.mp4" if no
+	 * args passed.
+	 *
+	 * args[1] = width divisor or will default to frame width / 480 if not
+	 * passed, so frames are not resized below 480 wide. Frames under 960 wide
+	 * get a divisor of 1, which does not resize, so only the full size run is
+	 * done.
+	 *
+	 * args[2] = resize interpolation (nearest, linear, area or cubic) or will
+	 * default to nearest if not passed.
+	 *
+	 * @param args
+	 *            String array of arguments.
+	 * @throws InterruptedException
+	 *             Possible exception.
+	 */
+	public static void main(final String[] args) throws InterruptedException {
+		String url = null;
+		// Check how many arguments were passed in
+		if (args.length == 0) {
+			// If no arguments were passed then default to
+			// ../resources/traffic.mp4
+			url = "../resources/traffic.mp4";
+		} else {
+			url = args[0];
+		}
+		// Custom logging properties via class loader, read once per JVM
+		Launcher.configureLogging();
+		logger.log(Level.INFO, String.format("OpenCV %s", Core.VERSION));
+		int widthDivisor;
+		if (args.length > 1) {
+			widthDivisor = Integer.parseInt(args[1]);
+		} else {
+			final FrameSource source = new FrameSource(url);
+			widthDivisor = MotionDetector.widthDivisor(source.getFrameSize());
+			source.free();
+		}
+		if (widthDivisor < 1) {
+			widthDivisor = 1;
+		}
+		int interpolation = Imgproc.INTER_NEAREST;
+		if (args.length > 2) {
+			interpolation = interpolation(args[2]);
+		}
+		logger.log(Level.INFO, String.format("Width divisor: %d, interpolation: %d", widthDivisor, interpolation));
+		logger.log(Level.INFO, "Processing without resize");
+		final double fullFps = detect(url, "../output/motion-detect-full-java.avi", 1, interpolation);
+		if (widthDivisor == 1) {
+			logger.log(Level.WARNING, String.format(
+					"Width divisor 1 does not resize, frames under %d wide are not resized by default, "
+							+ "pass a divisor to compare",
+					MotionDetector.MIN_RESIZE_WIDTH * 2));
+			return;
+		}
+		logger.log(Level.INFO, "Processing with resize");
+		final double resizeFps = detect(url, "../output/motion-detect-resize-java.avi", widthDivisor, interpolation);
+		logger.log(Level.INFO, String.format("%4.1f FPS without resize, %4.1f FPS with resize, %4.2fx", fullFps,
+				resizeFps, resizeFps / fullFps));
+	}
+}
@@ -0,0 +1,540 @@
+/*
+ * Copyright (c) Steven P. Goldsmith. All rights reserved.
+ *
+ * Created by Steven P. Goldsmith on February 20, 2016
+ * sgoldsmith@codeferm.com
+ */
+package com.codeferm.opencv;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * Long running motion detection service for many sources. Each source gets its
+ * own FrameSource and MotionDetector, so stream state is isolated.
+ *
+ * Opening and reading a source is mostly waiting on the network or the next
+ * camera frame, so each stream has its own grab thread that opens the source
+ * and decodes frames. Only motion detection runs on a fixed pool sized to the
+ * number of cores. The grab thread hands the latest frame to its stream
+ * through a slot of swapped Mats, so no Mat is allocated per frame. A live
+ * source (camera index or URL with a scheme) never waits for detection and a
+ * frame still in the slot is replaced and counted as dropped. A file waits
+ * until its previous frame is taken, so every frame is processed. A stream
+ * has at most one detection task queued or running, so streams share the
+ * pool fairly and a stream is never processed by two threads at once. A hung
+ * source only blocks its own grab thread.
+ *
+ * Streams that fail to open, fail while processing or reach end of stream are
+ * retired without stalling the others. Per stream and aggregate FPS are
+ * logged periodically. With -Dcom.codeferm.opencv.trackMats=true the frame and
+ * detector Mats of every stream are tracked, live native bytes are logged with
+ * each report and all streams are stopped if the budget is exceeded. Stopped
+ * sources are closed, so a grab thread blocked in read returns, and the
+ * service gives up waiting for streams that still do not retire.
+ *
+ * args = source files or URLs or will default to "../resources/traffic.mp4"
+ * and "../resources/walking.mp4" if no args passed.
+ *
+ * @author sgoldsmith
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+final class MotionDetectService {
+	/**
+	 * Logger.
+	 */
+	// CHECKSTYLE:OFF - Logger is static final, not a constant
+	private static final Logger logger = Logger.getLogger(MotionDetectService.class // NOPMD
+			.getName());
+
+	// CHECKSTYLE:ON
+	/* Load the OpenCV system library */
+	static {
+		System.loadLibrary(Core.NATIVE_LIBRARY_NAME); // NOPMD
+	}
+
+	/**
+	 * Seconds between statistics reports.
+	 */
+	private static final int REPORT_SECONDS = 10;
+	/**
+	 * Seconds to wait for streams to retire once stopped.
+	 */
+	private static final int STOP_SECONDS = 10;
+	/**
+	 * Nanoseconds per second.
+	 */
+	private static final double NANOS_PER_SECOND = 1e9;
+
+	/**
+	 * State of one source. The grab thread owns the FrameSource and grab
+	 * Mat, the detection task owns the detector and work Mat, and the slot is
+	 * guarded by the stream's monitor.
+	 */
+	private final class Stream implements Runnable {
+		/**
+		 * Source URL.
+		 */
+		private final String url;
+		/**
+		 * Live source drops frames instead of waiting for detection.
+		 */
+		private final boolean live;
+		/**
+		 * Frame source or null until opened. Volatile, so stop can close it
+		 * from another thread.
+		 */
+		private volatile FrameSource source;
+		/**
+		 * Motion detector.
+		 */
+		private MotionDetector motionDetector;
+		/**
+		 * Frame being read by grab thread.
+		 */
+		private Mat grabMat = new Mat();
+		/**
+		 * Latest frame handed to detection.
+		 */
+		private Mat slotMat = new Mat();
+		/**
+		 * Frame being processed by detection task.
+		 */
+		private Mat workMat = new Mat();
+		/**
+		 * Slot holds a frame not yet taken.
+		 */
+		private boolean slotFull;
+		/**
+		 * Detection task queued or running.
+		 */
+		private boolean scheduled;
+		/**
+		 * Grab thread has exited.
+		 */
+		private boolean grabDone;
+		/**
+		 * Detection failed or Mat budget exceeded, grab thread should stop.
+		 */
+		private volatile boolean stopped;
+		/**
+		 * Frames processed.
+		 */
+		private volatile long frames;
+		/**
+		 * Frames with motion.
+		 */
+		private volatile long framesWithMotion;
+		/**
+		 * Live frames replaced before detection took them.
+		 */
+		private volatile long droppedFrames;
+		/**
+		 * Frames processed at last report.
+		 */
+		private long reportFrames;
+		/**
+		 * Start time in nanoseconds.
+		 */
+		private volatile long startTime;
+		/**
+		 * Stream retired.
+		 */
+		private volatile boolean retired;
+
+		/**
+		 * Create stream.
+		 *
+		 * @param url
+		 *            Source URL.
+		 */
+		Stream(final String url) {
+			this.url = url;
+			// Camera index or URL with a scheme like rtsp:// or http://
+			this.live = url.matches("-?\\d+") || url.matches("[a-zA-Z][a-zA-Z0-9+.-]*://.*");
+			// Swapped Mats keep their identity, so they are tracked once
+			if (matTracker != null) {
+				matTracker.trackAll(grabMat, slotMat, workMat);
+			}
+		}
+
+		/**
+		 * Open source and create detector.
+		 *
+		 * @return True if source opened.
+		 */
+		private boolean open() {
+			try {
+				source = new FrameSource(url);
+			} catch (IllegalStateException e) {
+				return false;
+			}
+			final Size frameSize = source.getFrameSize();
+			// Deal with VideoCapture always returning True
+			if (frameSize.width <= 0 || frameSize.height <= 0) {
+				return false;
+			}
+			motionDetector = new MotionDetector(frameSize, MotionDetector.widthDivisor(frameSize),
+					Imgproc.INTER_NEAREST);
+			if (matTracker != null) {
+				motionDetector.setTracker(matTracker);
+			}
+			logger.log(Level.INFO, String.format("Opened %s (%s), resolution: %s, resized to: %s", url,
+					live ? "live" : "file", frameSize, motionDetector.getResizeSize()));
+			startTime = System.nanoTime();
+			return true;
+		}
+
+		/**
+		 * Open source and grab frames until end of stream or stopped. Runs on
+		 * the stream's own grab thread.
+		 */
+		void grab() {
+			try {
+				if (!open()) {
+					logger.log(Level.WARNING, String.format("Unable to open %s", url));
+				} else {
+					while (!stopped && source.read(grabMat)) {
+						publish();
+					}
+					if (!stopped) {
+						logger.log(Level.INFO, String.format("End of stream %s", url));
+					}
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} catch (RuntimeException e) {
+				logger.log(Level.SEVERE, String.format("Stream %s grab failed", url), e);
+			} finally {
+				if (source != null) {
+					source.free();
+				}
+				if (matTracker != null) {
+					matTracker.untrackAll(grabMat);
+				}
+				grabMat.free();
+				boolean idle;
+				synchronized (this) {
+					grabDone = true;
+					idle = !scheduled;
+				}
+				if (idle) {
+					retire();
+				}
+			}
+		}
+
+		/**
+		 * Swap grabbed frame into slot and schedule detection if needed.
+		 *
+		 * @throws InterruptedException
+		 *             Possible exception.
+		 */
+		private synchronized void publish() throws InterruptedException {
+			// A file waits for detection, so no frame is skipped
+			while (!live && slotFull && !stopped) {
+				wait();
+			}
+			if (stopped) {
+				return;
+			}
+			if (slotFull) {
+				droppedFrames++;
+			}
+			final Mat swap = slotMat;
+			slotMat = grabMat;
+			grabMat = swap;
+			slotFull = true;
+			if (!scheduled) {
+				scheduled = true;
+				executor.execute(this);
+			}
+		}
+
+		/**
+		 * Take latest frame from slot, detect motion and reschedule if another
+		 * frame is waiting. Runs on the worker pool.
+		 */
+		@Override
+		public void run() {
+			synchronized (this) {
+				final Mat swap = workMat;
+				workMat = slotMat;
+				slotMat = swap;
+				slotFull = false;
+				notifyAll();
+			}
+			try {
+				if (motionDetector.process(workMat) > MotionDetectStage.DEFAULT_THRESHOLD) {
+					framesWithMotion++;
+				}
+				frames++;
+			} catch (RuntimeException e) {
+				logger.log(Level.SEVERE, String.format("Stream %s failed", url), e);
+				stopped = true;
+			}
+			boolean idle;
+			synchronized (this) {
+				if (slotFull && !stopped) {
+					executor.execute(this);
+					idle = false;
+				} else {
+					scheduled = false;
+					// Wake a file grab thread waiting on the slot after failure
+					notifyAll();
+					idle = grabDone;
+				}
+			}
+			if (idle) {
+				retire();
+			}
+		}
+
+		/**
+		 * Stop grabbing and close source, so a grab thread blocked in read
+		 * returns. Called from another thread.
+		 */
+		void stop() {
+			synchronized (this) {
+				stopped = true;
+				// Wake a file grab thread waiting on the slot
+				notifyAll();
+			}
+			final FrameSource current = source;
+			if (current != null) {
+				current.close();
+			}
+		}
+
+		/**
+		 * Log statistics and free native memory. Called once, after the grab
+		 * thread has exited and no detection task is scheduled.
+		 */
+		private void retire() {
+			retired = true;
+			final double seconds = (System.nanoTime() - startTime) / NANOS_PER_SECOND;
+			logger.log(Level.INFO, String.format(
+					"Retired %s: %d frames, %d frames with motion, %d dropped, %4.1f FPS", url, frames,
+					framesWithMotion, droppedFrames, startTime == 0 ? 0.0 : frames / seconds));
+			if (motionDetector != null) {
+				motionDetector.free();
+			}
+			if (matTracker != null) {
+				matTracker.untrackAll(slotMat, workMat);
+			}
+			slotMat.free();
+			workMat.free();
+			remaining.countDown();
+		}
+	}
+
+	/**
+	 * Streams being serviced.
+	 */
+	private final List<Stream> streams = new ArrayList<Stream>();
+	/**
+	 * Motion detection pool.
+	 */
+	private final ExecutorService executor;
+	/**
+	 * Counted down as streams retire.
+	 */
+	private final CountDownLatch remaining;
+	/**
+	 * Native Mat tracker or null for none.
+	 */
+	private final MatTracker matTracker;
+	/**
+	 * Aggregate frames at last report.
+	 */
+	private long reportFrames;
+	/**
+	 * All streams were stopped.
+	 */
+	private volatile boolean stopping;
+
+	/**
+	 * Create service.
+	 *
+	 * @param urls
+	 *            Source URLs.
+	 * @param threads
+	 *            Motion detection threads.
+	 */
+	MotionDetectService(final List<String> urls, final int threads) {
+		this(urls, threads, null);
+	}
+
+	/**
+	 * Create service with native Mat tracking.
+	 *
+	 * @param urls
+	 *            Source URLs.
+	 * @param threads
+	 *            Motion detection threads.
+	 * @param matTracker
+	 *            Native Mat tracker or null for none.
+	 */
+	MotionDetectService(final List<String> urls, final int threads, final MatTracker matTracker) {
+		// Streams track their Mats when created
+		this.matTracker = matTracker;
+		for (final String url : urls) {
+			streams.add(new Stream(url));
+		}
+		executor = Executors.newFixedThreadPool(threads);
+		remaining = new CountDownLatch(streams.size());
+	}
+
+	/**
+	 * Log per stream and aggregate FPS since last report.
+	 *
+	 * @param seconds
+	 *            Seconds since last report.
+	 */
+	private void report(final double seconds) {
+		long totalFrames = 0;
+		int active = 0;
+		for (final Stream stream : streams) {
+			final long frames = stream.frames;
+			totalFrames += frames;
+			if (!stream.retired) {
+				active++;
+				logger.log(Level.INFO, String.format("%s: %d frames, %d frames with motion, %d dropped, %4.1f FPS",
+						stream.url, frames, stream.framesWithMotion, stream.droppedFrames,
+						(frames - stream.reportFrames) / seconds));
+			}
+			stream.reportFrames = frames;
+		}
+		logger.log(Level.INFO, String.format("Aggregate: %d active streams, %d frames, %4.1f FPS", active,
+				totalFrames, (totalFrames - reportFrames) / seconds));
+		reportFrames = totalFrames;
+		if (matTracker != null) {
+			sampleMats();
+		}
+	}
+
+	/**
+	 * Log live native Mat bytes and stop all streams if the budget is
+	 * exceeded.
+	 */
+	private void sampleMats() {
+		try {
+			final long bytes = matTracker.sample();
+			logger.log(Level.INFO, String.format("Native Mats: %d live, %d bytes, peak %d bytes",
+					matTracker.getLiveCount(), bytes, matTracker.getPeakBytes()));
+		} catch (IllegalStateException e) {
+			logger.log(Level.SEVERE, "Stopping all streams", e);
+			stopping = true;
+			for (final Stream stream : streams) {
+				stream.stop();
+			}
+		}
+	}
+
+	/**
+	 * Service all streams until every stream is retired.
+	 *
+	 * @throws InterruptedException
+	 *             Possible exception.
+	 */
+	public void run() throws InterruptedException {
+		final ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor();
+		reporter.scheduleAtFixedRate(new Runnable() {
+			@Override
+			public void run() {
+				report(REPORT_SECONDS);
+			}
+		}, REPORT_SECONDS, REPORT_SECONDS, TimeUnit.SECONDS);
+		final long startTime = System.nanoTime();
+		// Grab threads open and read sources outside the detection pool
+		for (final Stream stream : streams) {
+			final Thread thread = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					stream.grab();
+				}
+			}, String.format("grab-%s", stream.url));
+			// A hung source does not keep the JVM alive
+			thread.setDaemon(true);
+			thread.start();
+		}
+		boolean allRetired = true;
+		while (!remaining.await(REPORT_SECONDS, TimeUnit.SECONDS)) {
+			if (stopping) {
+				// Closed sources return from read, so this only times out if
+				// a backend ignores close
+				allRetired = remaining.await(STOP_SECONDS, TimeUnit.SECONDS);
+				break;
+			}
+		}
+		final double seconds = (System.nanoTime() - startTime) / NANOS_PER_SECOND;
+		reporter.shutdownNow();
+		executor.shutdown();
+		long totalFrames = 0;
+		for (final Stream stream : streams) {
+			totalFrames += stream.frames;
+		}
+		logger.log(Level.INFO, String.format("%d streams, %d frames", streams.size(), totalFrames));
+		logger.log(Level.INFO, String.format("%4.1f FPS, elapsed time: %4.2f seconds", totalFrames / seconds,
+				seconds));
+		if (!allRetired) {
+			logger.log(Level.WARNING, String.format("%d streams did not stop in %d seconds", remaining.getCount(),
+					STOP_SECONDS));
+		}
+		if (matTracker != null) {
+			if (allRetired) {
+				// Every stream untracked its Mats when retired
+				matTracker.close();
+			} else {
+				// Streams that did not stop may still use their Mats
+				matTracker.report();
+			}
+		}
+	}
+
+	/**
+	 * Run motion detection on all sources.
+	 *
+	 * args = source files or URLs or will default to "../resources/traffic.mp4"
+	 * and "../resources/walking.mp4" if no args passed.
+	 *
+	 * @param args
+	 *            String array of arguments.
+	 * @throws InterruptedException
+	 *             Possible exception.
+	 */
+	public static void main(final String[] args) throws InterruptedException {
+		final List<String> urls = new ArrayList<String>();
+		// Check how many arguments were passed in
+		if (args.length == 0) {
+			// If no arguments were passed then default to local files
+			urls.add("../resources/traffic.mp4");
+			urls.add("../resources/walking.mp4");
+		} else {
+			for (final String arg : args) {
+				urls.add(arg);
+			}
+		}
+		// Custom logging properties via class loader, read once per JVM
+		Launcher.configureLogging();
+		final int threads = Runtime.getRuntime().availableProcessors();
+		logger.log(Level.INFO, String.format("OpenCV %s", Core.VERSION));
+		logger.log(Level.INFO, String.format("%d streams, %d grab threads, %d detection threads", urls.size(),
+				urls.size(), threads));
+		// Enabled with -Dcom.codeferm.opencv.trackMats=true
+		new MotionDetectService(urls, threads, MatTracker.fromSystemProperties()).run();
+	}
+}
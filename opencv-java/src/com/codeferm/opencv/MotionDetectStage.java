@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) Steven P. Goldsmith. All rights reserved.
+ *
+ * Created by Steven P. Goldsmith on March 8, 2016
+ * sgoldsmith@codeferm.com
+ */
+package com.codeferm.opencv;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Scalar;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * Moving average motion detection stage. Motion rectangles are drawn on frames
+ * where the percent of pixels changed is above the threshold and those frames
+ * trigger the event sink, if set.
+ *
+ * @author sgoldsmith
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+final class MotionDetectStage implements MotionStage {
+	/**
+	 * Default percent of pixels changed to mark frame.
+	 */
+	public static final double DEFAULT_THRESHOLD = 0.75;
+	/**
+	 * Rectangle color.
+	 */
+	private static final Scalar RECT_COLOR = new Scalar(0, 255, 0);
+	/**
+	 * Motion detector.
+	 */
+	private final MotionDetector motionDetector;
+	/**
+	 * Percent of pixels changed to mark frame.
+	 */
+	private final double threshold;
+	/**
+	 * Work point.
+	 */
+	private final Point rectPoint1 = new Point();
+	/**
+	 * Work point.
+	 */
+	private final Point rectPoint2 = new Point();
+	/**
+	 * Frames with motion.
+	 */
+	private volatile int framesWithMotion;
+	/**
+	 * Event sink triggered by frames with motion or null for none.
+	 */
+	private EventFrameSink eventSink;
+
+	/**
+	 * Create stage.
+	 *
+	 * @param motionDetector
+	 *            Motion detector. Freed with this stage.
+	 * @param threshold
+	 *            Percent of pixels changed to mark frame.
+	 */
+	public MotionDetectStage(final MotionDetector motionDetector, final double threshold) {
+		this.motionDetector = motionDetector;
+		this.threshold = threshold;
+	}
+
+	@Override
+	public void process(final Mat frame) {
+		final double motionPercent = motionDetector.process(frame);
+		// Threshold trigger motion
+		if (motionPercent > threshold) {
+			framesWithMotion++;
+			if (eventSink != null) {
+				eventSink.trigger(frame);
+			}
+			final int[] rects = motionDetector.getRects();
+			for (int i = 0; i < motionDetector.getRectCount() * Contours.RECT_INTS; i += Contours.RECT_INTS) {
+				rectPoint1.x = rects[i];
+				rectPoint1.y = rects[i + 1];
+				rectPoint2.x = rects[i] + rects[i + 2];
+				rectPoint2.y = rects[i + 1] + rects[i + 3];
+				// Draw rectangle around fond object
+				Imgproc.rectangle(frame, rectPoint1, rectPoint2, RECT_COLOR, 2);
+			}
+		}
+	}
+
+	@Override
+	public void setTracker(final MatTracker tracker) {
+		motionDetector.setTracker(tracker);
+	}
+
+	@Override
+	public int getFramesWithMotion() {
+		return framesWithMotion;
+	}
+
+	/**
+	 * Trigger event sink with frames that have motion. Set before the pipeline
+	 * runs.
+	 *
+	 * @param eventSink
+	 *            Event sink or null for none.
+	 */
+	public void setEventSink(final EventFrameSink eventSink) {
+		this.eventSink = eventSink;
+	}
+
+	/**
+	 * Motion detector.
+	 *
+	 * @return Motion detector.
+	 */
+	public MotionDetector getMotionDetector() {
+		return motionDetector;
+	}
+
+	@Override
+	public void free() {
+		motionDetector.free();
+	}
+}
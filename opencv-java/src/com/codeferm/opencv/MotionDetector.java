@@ -0,0 +1,362 @@
+/*
+ * Copyright (c) Steven P. Goldsmith. All rights reserved.
+ *
+ * Created by Steven P. Goldsmith on February 16, 2016
+ * sgoldsmith@codeferm.com
+ */
+package com.codeferm.opencv;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * Moving average motion detector. Each instance owns its moving average image,
+ * work images and contour hierarchy, so many detectors can run concurrently in
+ * one JVM as long as each instance is only used by one thread at a time.
+ *
+ * Frames can optionally be resized before detection. Rectangles are always
+ * returned in full size frame coordinates.
+ *
+ * Motion regions are found with Contours by default. Set system property
+ * com.codeferm.opencv.regions to grid to use GridMotionMap instead, with cell
+ * size from com.codeferm.opencv.gridCell (default 16). That applies to every
+ * path built on this class, including motion gated people detection.
+ *
+ * @author sgoldsmith
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+final class MotionDetector {
+	/**
+	 * Default maximum rectangles per frame.
+	 */
+	public static final int DEFAULT_MAX_RECTS = 256;
+	/**
+	 * Motion detection generally works best with 480 or wider images.
+	 */
+	public static final int MIN_RESIZE_WIDTH = 480;
+	/**
+	 * Blur kernel size.
+	 */
+	private final Size kSize = new Size(8, 8);
+	/**
+	 * Resized frame size.
+	 */
+	private final Size resizeSize;
+	/**
+	 * Resize interpolation.
+	 */
+	private final int interpolation;
+	/**
+	 * Resize frame before detection.
+	 */
+	private final boolean resize;
+	/**
+	 * Used for full size image marking.
+	 */
+	private final double widthMultiplier;
+	/**
+	 * Used for full size image marking.
+	 */
+	private final double heightMultiplier;
+	/**
+	 * Pixels in work image.
+	 */
+	private final double totalPixels;
+	/**
+	 * Resized frame.
+	 */
+	private final Mat resizeImg = new Mat();
+	/**
+	 * Blurred frame.
+	 */
+	private final Mat workImg = new Mat();
+	/**
+	 * Moving average.
+	 */
+	private final Mat movingAvgImg = new Mat();
+	/**
+	 * Scaled moving average.
+	 */
+	private final Mat scaleImg = new Mat();
+	/**
+	 * Difference between work image and moving average.
+	 */
+	private final Mat diffImg = new Mat();
+	/**
+	 * Thresholded difference.
+	 */
+	private final Mat gray = new Mat();
+	/**
+	 * Motion region extraction.
+	 */
+	private final RegionFinder regionFinder;
+	/**
+	 * Rectangles (x, y, width, height packed) in full size frame coordinates.
+	 */
+	private final int[] rects;
+	/**
+	 * Number of rectangles in rects.
+	 */
+	private int rectCount;
+	/**
+	 * True until first frame initializes moving average.
+	 */
+	private boolean first = true;
+	/**
+	 * Resize and blur latency or null if not timed.
+	 */
+	private LatencyHistogram blurLatency;
+	/**
+	 * Moving average and threshold latency or null if not timed.
+	 */
+	private LatencyHistogram averageLatency;
+	/**
+	 * Contours latency or null if not timed.
+	 */
+	private LatencyHistogram contoursLatency;
+	/**
+	 * Native Mat tracker or null for none.
+	 */
+	private MatTracker tracker;
+
+	/**
+	 * Create detector that works on full size frames.
+	 *
+	 * @param frameSize
+	 *            Frame size.
+	 */
+	public MotionDetector(final Size frameSize) {
+		this(frameSize, 1, Imgproc.INTER_NEAREST);
+	}
+
+	/**
+	 * Create detector that works on resized frames.
+	 *
+	 * @param frameSize
+	 *            Frame size.
+	 * @param widthDivisor
+	 *            Divide frame width and height by this value. 1 means no
+	 *            resize.
+	 * @param interpolation
+	 *            Resize interpolation.
+	 */
+	public MotionDetector(final Size frameSize, final int widthDivisor, final int interpolation) {
+		this(frameSize, widthDivisor, interpolation, DEFAULT_MAX_RECTS);
+	}
+
+	/**
+	 * Create detector that works on resized frames.
+	 *
+	 * @param frameSize
+	 *            Frame size.
+	 * @param widthDivisor
+	 *            Divide frame width and height by this value. 1 means no
+	 *            resize.
+	 * @param interpolation
+	 *            Resize interpolation.
+	 * @param maxRects
+	 *            Maximum rectangles returned per frame.
+	 */
+	public MotionDetector(final Size frameSize, final int widthDivisor, final int interpolation,
+			final int maxRects) {
+		this(frameSize, widthDivisor, interpolation, maxRects, createRegionFinder());
+	}
+
+	/**
+	 * Create detector that works on resized frames.
+	 *
+	 * @param frameSize
+	 *            Frame size.
+	 * @param widthDivisor
+	 *            Divide frame width and height by this value. 1 means no
+	 *            resize.
+	 * @param interpolation
+	 *            Resize interpolation.
+	 * @param maxRects
+	 *            Maximum rectangles returned per frame.
+	 * @param regionFinder
+	 *            Motion region extraction. Freed with this detector.
+	 */
+	public MotionDetector(final Size frameSize, final int widthDivisor, final int interpolation,
+			final int maxRects, final RegionFinder regionFinder) {
+		if (widthDivisor < 1) {
+			throw new IllegalArgumentException("Width divisor must be at least 1");
+		}
+		this.resizeSize = new Size((int) (frameSize.width / widthDivisor), (int) (frameSize.height / widthDivisor));
+		this.interpolation = interpolation;
+		this.resize = widthDivisor > 1;
+		this.widthMultiplier = frameSize.width / resizeSize.width;
+		this.heightMultiplier = frameSize.height / resizeSize.height;
+		this.totalPixels = resizeSize.area();
+		this.rects = new int[maxRects * Contours.RECT_INTS];
+		this.regionFinder = regionFinder;
+	}
+
+	/**
+	 * Largest width divisor that keeps resized frames at least
+	 * MIN_RESIZE_WIDTH wide.
+	 *
+	 * @param frameSize
+	 *            Frame size.
+	 * @return Width divisor, at least 1.
+	 */
+	public static int widthDivisor(final Size frameSize) {
+		return Math.max(1, (int) frameSize.width / MIN_RESIZE_WIDTH);
+	}
+
+	/**
+	 * Region finder selected by system properties com.codeferm.opencv.regions
+	 * (contours or grid) and com.codeferm.opencv.gridCell.
+	 *
+	 * @return New region finder.
+	 */
+	public static RegionFinder createRegionFinder() {
+		if ("grid".equals(System.getProperty("com.codeferm.opencv.regions", "contours"))) {
+			final int cellSize = Integer.getInteger("com.codeferm.opencv.gridCell", GridMotionMap.DEFAULT_CELL_SIZE);
+			// Same 1/8 of cell as the defaults
+			// CHECKSTYLE:OFF MagicNumber - Magic numbers here for illustration
+			return new GridMotionMap(cellSize, Math.max(1, cellSize * cellSize / 8));
+			// CHECKSTYLE:ON MagicNumber
+		}
+		return new Contours();
+	}
+
+	/**
+	 * Detect motion in frame. The frame is not modified.
+	 *
+	 * @param frame
+	 *            BGR frame.
+	 * @return Percent of pixels with motion.
+	 */
+	public double process(final Mat frame) {
+		final long start = System.nanoTime();
+		// Resize image if needed and generate work image by blurring
+		if (resize) {
+			Imgproc.resize(frame, resizeImg, resizeSize, 0, 0, interpolation);
+			Imgproc.blur(resizeImg, workImg, kSize);
+		} else {
+			Imgproc.blur(frame, workImg, kSize);
+		}
+		final long blurEnd = System.nanoTime();
+		// Generate moving average image if needed
+		if (first) {
+			workImg.convertTo(movingAvgImg, CvType.CV_32F);
+			first = false;
+		}
+		// Generate moving average image
+		// CHECKSTYLE:OFF MagicNumber - Magic numbers here for illustration
+		Imgproc.accumulateWeighted(workImg, movingAvgImg, .03);
+		// Convert the scale of the moving average
+		Core.convertScaleAbs(movingAvgImg, scaleImg);
+		// Subtract the work image frame from the scaled image average
+		Core.absdiff(workImg, scaleImg, diffImg);
+		// Convert the image to grayscale
+		Imgproc.cvtColor(diffImg, gray, Imgproc.COLOR_BGR2GRAY);
+		// Convert to BW
+		Imgproc.threshold(gray, gray, 25, 255, Imgproc.THRESH_BINARY);
+		// Total number of changed motion pixels
+		final double motionPercent = 100.0 * Core.countNonZero(gray) / totalPixels;
+		// Detect if camera is adjusting and reset reference if more than 25%
+		if (motionPercent > 25.0) {
+			workImg.convertTo(movingAvgImg, CvType.CV_32F);
+		}
+		// CHECKSTYLE:ON MagicNumber
+		final long averageEnd = System.nanoTime();
+		rectCount = Math.min(regionFinder.boundingRects(gray, rects), rects.length / Contours.RECT_INTS);
+		if (resize) {
+			scaleRects();
+		}
+		if (blurLatency != null) {
+			blurLatency.record(blurEnd - start);
+			averageLatency.record(averageEnd - blurEnd);
+			contoursLatency.record(System.nanoTime() - averageEnd);
+		}
+		return motionPercent;
+	}
+
+	/**
+	 * Time resize and blur, moving average and threshold, and contours of
+	 * each frame. Must be called before processing starts.
+	 *
+	 * @param latency
+	 *            Histograms to add timings to.
+	 */
+	public void setLatency(final LatencyHistograms latency) {
+		blurLatency = latency.create("MotionDetector blur");
+		averageLatency = latency.create("MotionDetector average");
+		contoursLatency = latency.create("MotionDetector contours");
+	}
+
+	/**
+	 * Track work Mats and region finder buffers. Must be called before
+	 * processing starts.
+	 *
+	 * @param tracker
+	 *            Native Mat tracker.
+	 */
+	public void setTracker(final MatTracker tracker) {
+		this.tracker = tracker;
+		tracker.trackAll(resizeImg, workImg, movingAvgImg, scaleImg, diffImg, gray);
+		regionFinder.setTracker(tracker);
+	}
+
+	/**
+	 * Scale rectangles back to full size frame.
+	 */
+	private void scaleRects() {
+		for (int i = 0; i < rectCount * Contours.RECT_INTS; i += Contours.RECT_INTS) {
+			rects[i] = (int) (rects[i] * widthMultiplier);
+			rects[i + 1] = (int) (rects[i + 1] * heightMultiplier);
+			rects[i + 2] = (int) (rects[i + 2] * widthMultiplier);
+			rects[i + 3] = (int) (rects[i + 3] * heightMultiplier);
+		}
+	}
+
+	/**
+	 * Rectangles found by last process call (x, y, width, height packed). Only
+	 * the first getRectCount() * 4 values are valid.
+	 *
+	 * @return Rectangles.
+	 */
+	public int[] getRects() {
+		return rects;
+	}
+
+	/**
+	 * Number of rectangles found by last process call.
+	 *
+	 * @return Rectangle count.
+	 */
+	public int getRectCount() {
+		return rectCount;
+	}
+
+	/**
+	 * Size of image motion is detected on.
+	 *
+	 * @return Resized frame size or frame size if not resized.
+	 */
+	public Size getResizeSize() {
+		return resizeSize;
+	}
+
+	/**
+	 * Free native memory.
+	 */
+	public void free() {
+		if (tracker != null) {
+			tracker.untrackAll(resizeImg, workImg, movingAvgImg, scaleImg, diffImg, gray);
+		}
+		resizeImg.free();
+		workImg.free();
+		movingAvgImg.free();
+		scaleImg.free();
+		diffImg.free();
+		gray.free();
+		regionFinder.free();
+	}
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright (c) Steven P. Goldsmith. All rights reserved.
+ *
+ * Created by Steven P. Goldsmith on February 23, 2016
+ * sgoldsmith@codeferm.com
+ */
+package com.codeferm.opencv;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * Run HOG only where there is motion. The moving average motion detector runs
+ * on a resized frame first. Frames without motion are skipped entirely.
+ * Otherwise motion rectangles are padded, grown to at least the HOG window and
+ * merged, and HOG runs only inside the merged regions. This is the Java
+ * version of the idea in PeopleDetectResize.py.
+ *
+ * @author sgoldsmith
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+final class MotionGatedPeopleDetector implements PeopleDetector {
+	/**
+	 * Pixels added to each side of a motion rectangle.
+	 */
+	private static final int ROI_PADDING = 32;
+	/**
+	 * Percent of pixels changed to search frame.
+	 */
+	private static final double MOTION_THRESHOLD = 0.75;
+	/**
+	 * Motion detector.
+	 */
+	private final MotionDetector motionDetector;
+	/**
+	 * HOG detector used on regions of interest.
+	 */
+	private final HogPeopleDetector hogDetector = new HogPeopleDetector();
+	/**
+	 * Detections of last detect call.
+	 */
+	private final Detections detections = new Detections();
+	/**
+	 * Regions of interest (x, y, width, height packed).
+	 */
+	private final int[] rois = new int[MotionDetector.DEFAULT_MAX_RECTS * Contours.RECT_INTS];
+	/**
+	 * Region of interest.
+	 */
+	private final Rect roi = new Rect();
+	/**
+	 * Frame width.
+	 */
+	private final int frameWidth;
+	/**
+	 * Frame height.
+	 */
+	private final int frameHeight;
+	/**
+	 * Frames skipped because there was no motion.
+	 */
+	private long skippedFrames;
+	/**
+	 * Regions searched with HOG.
+	 */
+	private long roisSearched;
+	/**
+	 * Pixels searched with HOG.
+	 */
+	private long pixelsSearched;
+
+	/**
+	 * Create detector.
+	 *
+	 * @param frameSize
+	 *            Frame size.
+	 */
+	public MotionGatedPeopleDetector(final Size frameSize) {
+		frameWidth = (int) frameSize.width;
+		frameHeight = (int) frameSize.height;
+		motionDetector = new MotionDetector(frameSize, MotionDetector.widthDivisor(frameSize), Imgproc.INTER_NEAREST);
+	}
+
+	@Override
+	public int detect(final Mat frame) {
+		detections.clear();
+		final double motionPercent = motionDetector.process(frame);
+		final int motionCount = motionDetector.getRectCount();
+		if (motionPercent <= MOTION_THRESHOLD || motionCount == 0) {
+			skippedFrames++;
+			return 0;
+		}
+		System.arraycopy(motionDetector.getRects(), 0, rois, 0, motionCount * Contours.RECT_INTS);
+		Rects.pad(rois, motionCount, ROI_PADDING, HogPeopleDetector.WIN_WIDTH, HogPeopleDetector.WIN_HEIGHT,
+				frameWidth, frameHeight);
+		final int roiCount = Rects.merge(rois, motionCount);
+		for (int i = 0; i < roiCount * Contours.RECT_INTS; i += Contours.RECT_INTS) {
+			roi.x = rois[i];
+			roi.y = rois[i + 1];
+			roi.width = rois[i + 2];
+			roi.height = rois[i + 3];
+			// Frame smaller than HOG window
+			if (roi.width < HogPeopleDetector.WIN_WIDTH || roi.height < HogPeopleDetector.WIN_HEIGHT) {
+				continue;
+			}
+			// Submat shares frame data, so only the header is allocated
+			final Mat roiMat = frame.submat(roi);
+			hogDetector.detect(roiMat, roi.x, roi.y, detections);
+			roiMat.free();
+			roisSearched++;
+			pixelsSearched += (long) roi.width * roi.height;
+		}
+		return detections.getCount();
+	}
+
+	@Override
+	public Detections getDetections() {
+		return detections;
+	}
+
+	/**
+	 * Frames skipped because there was no motion.
+	 *
+	 * @return Skipped frames.
+	 */
+	public long getSkippedFrames() {
+		return skippedFrames;
+	}
+
+	/**
+	 * Regions searched with HOG.
+	 *
+	 * @return Regions searched.
+	 */
+	public long getRoisSearched() {
+		return roisSearched;
+	}
+
+	/**
+	 * Pixels searched with HOG.
+	 *
+	 * @return Pixels searched.
+	 */
+	public long getPixelsSearched() {
+		return pixelsSearched;
+	}
+
+	@Override
+	public void setTracker(final MatTracker tracker) {
+		motionDetector.setTracker(tracker);
+		hogDetector.setTracker(tracker);
+	}
+
+	@Override
+	public void free() {
+		motionDetector.free();
+		hogDetector.free();
+	}
+}
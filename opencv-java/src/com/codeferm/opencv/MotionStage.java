@@ -0,0 +1,25 @@
+/*
+ * Copyright (c) Steven P. Goldsmith. All rights reserved.
+ *
+ * Created by Steven P. Goldsmith on March 22, 2016
+ * sgoldsmith@codeferm.com
+ */
+package com.codeferm.opencv;
+
+/**
+ * Frame stage that detects motion. FramePipeline sums frames with motion of
+ * all motion stages for its statistics, so a new detector only has to
+ * implement this interface to be counted.
+ *
+ * @author sgoldsmith
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+interface MotionStage extends FrameStage {
+	/**
+	 * Frames with motion.
+	 *
+	 * @return Frames.
+	 */
+	int getFramesWithMotion();
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright (c) Steven P. Goldsmith. All rights reserved.
+ *
+ * Created by Steven P. Goldsmith on March 22, 2016
+ * sgoldsmith@codeferm.com
+ */
+package com.codeferm.opencv;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+
+/**
+ * Compare ParallelPeopleDetector with HogPeopleDetector on the same frames.
+ * Both see every frame in order and only detection is timed, not decoding.
+ * Agreement is reported as the difference in people found, frames where the
+ * counts differ and mean intersection over union of each serial detection with
+ * its best parallel match. A serial detection with no overlapping parallel
+ * detection counts as 0.
+ *
+ * args[0] = source file or will default to "../resources/traffic.mp4" if no
+ * args passed.
+ *
+ * args[1] = parallel worker threads or will default to available processors
+ * if not passed.
+ *
+ * @author sgoldsmith
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+final class ParallelPeopleBenchmark {
+	/**
+	 * Logger.
+	 */
+	// CHECKSTYLE:OFF ConstantName - Logger is static final, not a constant
+	private static final Logger logger = Logger.getLogger(ParallelPeopleBenchmark.class // NOPMD
+			.getName());
+	// CHECKSTYLE:ON ConstantName
+	/* Load the OpenCV system library */
+	static {
+		System.loadLibrary(Core.NATIVE_LIBRARY_NAME); // NOPMD
+	}
+
+	/**
+	 * Suppress default constructor for noninstantiability.
+	 */
+	private ParallelPeopleBenchmark() {
+		throw new AssertionError();
+	}
+
+	/**
+	 * Sum of best IoU of each serial detection with parallel detections.
+	 *
+	 * @param serial
+	 *            Serial detections.
+	 * @param parallel
+	 *            Parallel detections.
+	 * @return Sum of IoU.
+	 */
+	private static double bestIouSum(final Detections serial, final Detections parallel) {
+		final int[] serialRects = serial.getRects();
+		final int[] parallelRects = parallel.getRects();
+		double sum = 0.0;
+		for (int i = 0; i < serial.getCount(); i++) {
+			double best = 0.0;
+			for (int j = 0; j < parallel.getCount(); j++) {
+				best = Math.max(best, Rects.iou(serialRects, i * Contours.RECT_INTS, parallelRects,
+						j * Contours.RECT_INTS));
+			}
+			sum += best;
+		}
+		return sum;
+	}
+
+	/**
+	 * Run benchmark.
+	 *
+	 * args[0] = source file or will default to "../resources/traffic.mp4" if no
+	 * args passed.
+	 *
+	 * args[1] = parallel worker threads or will default to available
+	 * processors if not passed.
+	 *
+	 * @param args
+	 *            String array of arguments.
+	 */
+	public static void main(final String[] args) {
+		String url = null;
+		// Check how many arguments were passed in
+		if (args.length == 0) {
+			// If no arguments were passed then default to
+			// ../resources/traffic.mp4
+			url = "../resources/traffic.mp4";
+		} else {
+			url = args[0];
+		}
+		int parallelism = Runtime.getRuntime().availableProcessors();
+		if (args.length > 1) {
+			parallelism = Integer.parseInt(args[1]);
+		}
+		// Custom logging properties via class loader, read once per JVM
+		Launcher.configureLogging();
+		logger.log(Level.INFO, String.format("OpenCV %s", Core.VERSION));
+		logger.log(Level.INFO, String.format("Input file: %s, parallelism %d", url, parallelism));
+		final FrameSource source = new FrameSource(url);
+		final HogPeopleDetector serial = new HogPeopleDetector();
+		final ParallelPeopleDetector parallel = new ParallelPeopleDetector(parallelism,
+				HogPeopleDetector.DEFAULT_SCALE);
+		final Mat frame = new Mat();
+		long serialTime = 0;
+		long parallelTime = 0;
+		int frames = 0;
+		long serialPeople = 0;
+		long parallelPeople = 0;
+		int countsDiffer = 0;
+		double iouTotal = 0;
+		try {
+			while (source.read(frame)) {
+				long start = System.nanoTime();
+				final int serialFound = serial.detect(frame);
+				serialTime += System.nanoTime() - start;
+				start = System.nanoTime();
+				final int parallelFound = parallel.detect(frame);
+				parallelTime += System.nanoTime() - start;
+				frames++;
+				serialPeople += serialFound;
+				parallelPeople += parallelFound;
+				if (serialFound != parallelFound) {
+					countsDiffer++;
+				}
+				iouTotal += bestIouSum(serial.getDetections(), parallel.getDetections());
+			}
+			if (frames == 0) {
+				logger.log(Level.SEVERE, "No frames read");
+			} else {
+				// CHECKSTYLE:OFF MagicNumber - Nanoseconds to seconds and percents
+				logger.log(Level.INFO, String.format("Serial: %4.1f FPS, parallel: %4.1f FPS, speedup %4.2fx",
+						frames / (serialTime / 1e9), frames / (parallelTime / 1e9),
+						(double) serialTime / parallelTime));
+				logger.log(Level.INFO, String.format(
+						"People serial: %d, parallel: %d, difference %d, counts differ on %d of %d frames (%4.1f%%)",
+						serialPeople, parallelPeople, parallelPeople - serialPeople, countsDiffer, frames,
+						countsDiffer * 100.0 / frames));
+				logger.log(Level.INFO, String.format("Mean IoU of serial detections with best parallel match: %4.2f",
+						serialPeople == 0 ? 1.0 : iouTotal / serialPeople));
+				// CHECKSTYLE:ON MagicNumber
+			}
+		} finally {
+			// Free native memory
+			frame.free();
+			serial.free();
+			parallel.free();
+			source.free();
+		}
+	}
+}
@@ -0,0 +1,419 @@
+/*
+ * Copyright (c) Steven P. Goldsmith. All rights reserved.
+ *
+ * Created by Steven P. Goldsmith on February 27, 2016
+ * sgoldsmith@codeferm.com
+ */
+package com.codeferm.opencv;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfDouble;
+import org.opencv.core.MatOfFloat;
+import org.opencv.core.MatOfPoint;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+import org.opencv.objdetect.HOGDescriptor;
+
+/**
+ * Parallel HOG people detector. The image pyramid detectMultiScale builds
+ * internally is built here instead, so each scale level is a task. Large
+ * levels are split further into horizontal stripes that overlap by the
+ * detection window height, so every window position is searched exactly once.
+ * Tasks run on a ForkJoin pool and each stripe leases one of a fixed set of
+ * workers, each with its own HOGDescriptor, for the duration of its search.
+ * Pool threads come and go, but workers are only created once, so native
+ * memory does not grow on long runs. Raw hits from all tasks are merged with
+ * non-maximum suppression. ParallelPeopleBenchmark compares the results with
+ * HogPeopleDetector.
+ *
+ * @author sgoldsmith
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+final class ParallelPeopleDetector implements PeopleDetector {
+	/**
+	 * Maximum pyramid levels, same as HOGDescriptor default.
+	 */
+	private static final int MAX_LEVELS = 64;
+	/**
+	 * Window stride, same as HogPeopleDetector.
+	 */
+	private static final int STRIDE = 8;
+	/**
+	 * Stripes smaller than this many window heights are not split.
+	 */
+	private static final int MIN_STRIPE_WINDOWS = 2;
+	/**
+	 * Overlap above which hits are merged.
+	 */
+	private static final double MAX_OVERLAP = 0.3;
+	/**
+	 * Minimum merged hits to keep a detection, like detectMultiScale
+	 * finalThreshold 2.0.
+	 */
+	private static final int MIN_NEIGHBORS = 2;
+
+	/**
+	 * HOGDescriptor and buffers leased by one stripe at a time.
+	 */
+	private static final class Worker {
+		/**
+		 * HOG descriptor.
+		 */
+		private final HOGDescriptor hog = new HOGDescriptor();
+		/**
+		 * Default people detector coefficients.
+		 */
+		private final MatOfFloat descriptors = HOGDescriptor.getDefaultPeopleDetector();
+		/**
+		 * Window top left corners found.
+		 */
+		private final MatOfPoint foundLocations = new MatOfPoint();
+		/**
+		 * Found weights.
+		 */
+		private final MatOfDouble foundWeights = new MatOfDouble();
+		/**
+		 * No search locations means search whole image.
+		 */
+		private final MatOfPoint searchLocations = new MatOfPoint();
+		/**
+		 * Window stride.
+		 */
+		private final Size winStride = new Size(STRIDE, STRIDE);
+		/**
+		 * Padding.
+		 */
+		private final Size padding = new Size(32, 32);
+		/**
+		 * Points buffer (x, y packed).
+		 */
+		private int[] pointBuf = new int[0];
+		/**
+		 * Weights buffer.
+		 */
+		private double[] weightBuf = new double[0];
+
+		/**
+		 * Create worker.
+		 */
+		Worker() {
+			hog.setSVMDetector(descriptors);
+		}
+
+		/**
+		 * Track buffers.
+		 *
+		 * @param tracker
+		 *            Native Mat tracker.
+		 */
+		void track(final MatTracker tracker) {
+			tracker.trackAll(descriptors, foundLocations, foundWeights, searchLocations);
+		}
+
+		/**
+		 * Stop tracking buffers.
+		 *
+		 * @param tracker
+		 *            Native Mat tracker.
+		 */
+		void untrack(final MatTracker tracker) {
+			tracker.untrackAll(descriptors, foundLocations, foundWeights, searchLocations);
+		}
+
+		/**
+		 * Free native memory.
+		 */
+		void free() {
+			hog.free();
+			descriptors.free();
+			foundLocations.free();
+			foundWeights.free();
+			searchLocations.free();
+		}
+	}
+
+	/**
+	 * Search one stripe of one pyramid level.
+	 */
+	private final class StripeTask extends RecursiveAction {
+		/**
+		 * Serializable class version number.
+		 */
+		private static final long serialVersionUID = 4120591366263094532L;
+		/**
+		 * Pyramid level image.
+		 */
+		private final Mat level;
+		/**
+		 * Level scale relative to frame.
+		 */
+		private final double scale;
+		/**
+		 * First window row.
+		 */
+		private final int startRow;
+		/**
+		 * Last window row (exclusive).
+		 */
+		private final int endRow;
+
+		/**
+		 * Create task.
+		 *
+		 * @param level
+		 *            Pyramid level image.
+		 * @param scale
+		 *            Level scale relative to frame.
+		 * @param startRow
+		 *            First window row, a multiple of the stride.
+		 * @param endRow
+		 *            Last window row (exclusive), a multiple of the stride or
+		 *            level rows.
+		 */
+		StripeTask(final Mat level, final double scale, final int startRow, final int endRow) {
+			this.level = level;
+			this.scale = scale;
+			this.startRow = startRow;
+			this.endRow = endRow;
+		}
+
+		@Override
+		protected void compute() {
+			final Worker worker = lease();
+			try {
+				search(worker);
+			} finally {
+				idleWorkers.add(worker);
+			}
+		}
+
+		/**
+		 * Search stripe and add hits.
+		 *
+		 * @param worker
+		 *            Leased worker.
+		 */
+		private void search(final Worker worker) {
+			final boolean first = startRow == 0;
+			final boolean last = endRow >= level.rows();
+			// Rows below endRow are only there so windows starting above it fit
+			final Mat stripe = level.rowRange(startRow, Math.min(level.rows(), endRow + HogPeopleDetector.WIN_HEIGHT));
+			worker.hog.detect(stripe, worker.foundLocations, worker.foundWeights, 0.0, worker.winStride,
+					worker.padding, worker.searchLocations);
+			stripe.free();
+			final int found = worker.foundLocations.rows();
+			if (found == 0) {
+				return;
+			}
+			if (worker.weightBuf.length < found) {
+				worker.pointBuf = new int[found * 2];
+				worker.weightBuf = new double[found];
+			}
+			worker.foundLocations.get(0, 0, worker.pointBuf);
+			worker.foundWeights.get(0, 0, worker.weightBuf);
+			final int width = (int) Math.round(HogPeopleDetector.WIN_WIDTH * scale);
+			final int height = (int) Math.round(HogPeopleDetector.WIN_HEIGHT * scale);
+			synchronized (hits) {
+				for (int i = 0; i < found; i++) {
+					final int y = startRow + worker.pointBuf[i * 2 + 1];
+					// Windows in padding or overlap belong to the neighbor
+					// stripe
+					if ((first || y >= startRow) && (last || y < endRow)) {
+						hits.add((int) Math.round(worker.pointBuf[i * 2] * scale), (int) Math.round(y * scale),
+								width, height, worker.weightBuf[i]);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Resize frame to one pyramid level and search its stripes.
+	 */
+	private final class LevelTask extends RecursiveAction {
+		/**
+		 * Serializable class version number.
+		 */
+		private static final long serialVersionUID = -1530771004768154427L;
+		/**
+		 * Frame.
+		 */
+		private final Mat frame;
+		/**
+		 * Level scale relative to frame.
+		 */
+		private final double scale;
+
+		/**
+		 * Create task.
+		 *
+		 * @param frame
+		 *            Frame.
+		 * @param scale
+		 *            Level scale relative to frame.
+		 */
+		LevelTask(final Mat frame, final double scale) {
+			this.frame = frame;
+			this.scale = scale;
+		}
+
+		@Override
+		protected void compute() {
+			final Mat level;
+			if (scale == 1.0) {
+				level = frame;
+			} else {
+				level = new Mat();
+				Imgproc.resize(frame, level, new Size(Math.round(frame.cols() / scale),
+						Math.round(frame.rows() / scale)), 0, 0, Imgproc.INTER_LINEAR);
+			}
+			// Split into stripes of whole strides with at least two windows
+			// each
+			final int minRows = HogPeopleDetector.WIN_HEIGHT * MIN_STRIPE_WINDOWS;
+			int stripes = Math.min(parallelism, level.rows() / minRows);
+			if (stripes < 1) {
+				stripes = 1;
+			}
+			final int stripeRows = (level.rows() / stripes + STRIDE - 1) / STRIDE * STRIDE;
+			final List<StripeTask> tasks = new ArrayList<StripeTask>(stripes);
+			for (int row = 0; row < level.rows(); row += stripeRows) {
+				tasks.add(new StripeTask(level, scale, row, Math.min(level.rows(), row + stripeRows)));
+			}
+			invokeAll(tasks);
+			if (level != frame) {
+				level.free();
+			}
+		}
+	}
+
+	/**
+	 * Worker pool.
+	 */
+	private final ForkJoinPool pool;
+	/**
+	 * Worker threads.
+	 */
+	private final int parallelism;
+	/**
+	 * Scale between pyramid levels.
+	 */
+	private final double scale;
+	/**
+	 * All workers, one per pool thread, created once so native memory is
+	 * bounded.
+	 */
+	private final List<Worker> allWorkers = new ArrayList<Worker>();
+	/**
+	 * Workers not leased by a stripe.
+	 */
+	private final BlockingQueue<Worker> idleWorkers;
+	/**
+	 * Raw hits of all tasks and detections after suppression.
+	 */
+	private final Detections hits = new Detections();
+	/**
+	 * Native Mat tracker or null for none.
+	 */
+	private MatTracker tracker;
+
+	/**
+	 * Create detector with one worker per core and default scale.
+	 */
+	public ParallelPeopleDetector() {
+		this(Runtime.getRuntime().availableProcessors(), HogPeopleDetector.DEFAULT_SCALE);
+	}
+
+	/**
+	 * Create detector.
+	 *
+	 * @param parallelism
+	 *            Worker threads.
+	 * @param scale
+	 *            Scale between pyramid levels.
+	 */
+	public ParallelPeopleDetector(final int parallelism, final double scale) {
+		this.parallelism = parallelism;
+		this.scale = scale;
+		pool = new ForkJoinPool(parallelism);
+		idleWorkers = new ArrayBlockingQueue<Worker>(parallelism);
+		for (int i = 0; i < parallelism; i++) {
+			final Worker worker = new Worker();
+			allWorkers.add(worker);
+			idleWorkers.add(worker);
+		}
+	}
+
+	/**
+	 * Lease idle worker. Only waits if the pool added spare threads while
+	 * tasks were joining, since a stripe never holds more than one worker.
+	 *
+	 * @return Worker.
+	 */
+	private Worker lease() {
+		try {
+			return idleWorkers.take();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted waiting for worker", e);
+		}
+	}
+
+	@Override
+	public int detect(final Mat frame) {
+		hits.clear();
+		final List<LevelTask> tasks = new ArrayList<LevelTask>();
+		double levelScale = 1.0;
+		for (int i = 0; i < MAX_LEVELS; i++) {
+			if (frame.cols() / levelScale < HogPeopleDetector.WIN_WIDTH
+					|| frame.rows() / levelScale < HogPeopleDetector.WIN_HEIGHT) {
+				break;
+			}
+			tasks.add(new LevelTask(frame, levelScale));
+			levelScale *= scale;
+		}
+		pool.invoke(new RecursiveAction() {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected void compute() {
+				invokeAll(tasks);
+			}
+		});
+		hits.suppress(MAX_OVERLAP, MIN_NEIGHBORS);
+		return hits.getCount();
+	}
+
+	@Override
+	public Detections getDetections() {
+		return hits;
+	}
+
+	@Override
+	public void setTracker(final MatTracker tracker) {
+		this.tracker = tracker;
+		for (final Worker worker : allWorkers) {
+			worker.track(tracker);
+		}
+	}
+
+	@Override
+	public void free() {
+		pool.shutdown();
+		for (final Worker worker : allWorkers) {
+			if (tracker != null) {
+				worker.untrack(tracker);
+			}
+			worker.free();
+		}
+		allWorkers.clear();
+		idleWorkers.clear();
+	}
+}
@@ -6,33 +6,38 @@
  */
 package com.codeferm.opencv;
 
-import java.io.IOException;
-import java.util.List;
 import java.util.logging.Level;
-import java.util.logging.LogManager;
 import java.util.logging.Logger;
 
 import org.opencv.core.Core;
-import org.opencv.core.Mat;
-import org.opencv.core.MatOfDouble;
-import org.opencv.core.MatOfFloat;
-import org.opencv.core.MatOfRect;
-import org.opencv.core.Point;
-import org.opencv.core.Rect;
-import org.opencv.core.Scalar;
 import org.opencv.core.Size;
-import org.opencv.imgproc.Imgproc;
-import org.opencv.objdetect.HOGDescriptor;
-import org.opencv.videoio.VideoCapture;
-import org.opencv.videoio.VideoWriter;
-import org.opencv.videoio.Videoio;
 
 /**
  * Histogram of Oriented Gradients ([Dalal2005]) object detector.
  *
+ * full = HOG on the whole frame.
+ *
+ * motion = HOG only inside motion regions. Frames without motion are skipped.
+ *
+ * parallel = HOG pyramid levels and stripes searched on all cores and merged
+ * with non-maximum suppression.
+ *
+ * track = HOG every N frames or on a scene change and template matching in
+ * between. Drift is reported as the mean IoU of tracked rectangles against the
+ * next detections.
+ *
+ * Any mode other than full also runs full first, so people, frames and FPS can
+ * be compared against the baseline.
+ *
  * args[0] = source file or will default to "../resources/walking.mp4" if no
  * args passed.
  *
+ * args[1] = mode (full, motion, parallel or track) or will default to full if
+ * not passed.
+ *
+ * args[2] = track mode detection cadence in frames or will default to 5 if not
+ * passed.
+ *
  * @author sgoldsmith
  * @version 1.0.0
  * @since 1.0.0
@@ -51,6 +56,33 @@ final class PeopleDetect {
 		System.loadLibrary(Core.NATIVE_LIBRARY_NAME); // NOPMD
 	}
 
+	/**
+	 * Default track mode detection cadence.
+	 */
+	static final int DEFAULT_CADENCE = 5;
+
+	/**
+	 * Run statistics.
+	 */
+	private static final class Result {
+		/**
+		 * Frames processed.
+		 */
+		private int frames;
+		/**
+		 * Frames with people.
+		 */
+		private int framesWithPeople;
+		/**
+		 * Total people found.
+		 */
+		private long people;
+		/**
+		 * Frames per second.
+		 */
+		private double fps;
+	}
+
 	/**
 	 * Suppress default constructor for noninstantiability.
 	 */
@@ -59,17 +91,129 @@ final class PeopleDetect {
 	}
 
 	/**
-	 * Create window, frame and set window to visible.
+	 * Create people detector for mode.
+	 *
+	 * @param mode
+	 *            Detection mode.
+	 * @param frameSize
+	 *            Frame size.
+	 * @param cadence
+	 *            Track mode detection cadence.
+	 * @return People detector.
+	 */
+	static PeopleDetector createDetector(final String mode, final Size frameSize, final int cadence) {
+		PeopleDetector detector;
+		switch (mode) {
+		case "full":
+			detector = new HogPeopleDetector();
+			break;
+		case "motion":
+			detector = new MotionGatedPeopleDetector(frameSize);
+			break;
+		case "parallel":
+			detector = new ParallelPeopleDetector();
+			break;
+		case "track":
+			detector = new TrackingPeopleDetector(new HogPeopleDetector(), cadence);
+			break;
+		default:
+			throw new IllegalArgumentException(String.format("Unknown mode: %s", mode));
+		}
+		return detector;
+	}
+
+	/**
+	 * Log detector specific statistics.
+	 *
+	 * @param detector
+	 *            People detector.
+	 * @param frames
+	 *            Frames processed.
+	 * @param frameArea
+	 *            Pixels per frame.
+	 */
+	private static void logDetector(final PeopleDetector detector, final int frames, final double frameArea) {
+		if (detector instanceof MotionGatedPeopleDetector) {
+			final MotionGatedPeopleDetector gated = (MotionGatedPeopleDetector) detector;
+			logger.log(Level.INFO, String.format("%d frames skipped, %d regions searched, %4.1f%% of pixels searched",
+					gated.getSkippedFrames(), gated.getRoisSearched(),
+					// CHECKSTYLE:OFF MagicNumber - Percent
+					frames == 0 ? 0.0 : 100.0 * gated.getPixelsSearched() / frames / frameArea));
+			// CHECKSTYLE:ON MagicNumber
+		} else if (detector instanceof TrackingPeopleDetector) {
+			final TrackingPeopleDetector tracking = (TrackingPeopleDetector) detector;
+			logger.log(Level.INFO, String.format("Cadence %d, %d detection frames, %d scene changes, %d lost tracks",
+					tracking.getCadence(), tracking.getDetectionFrames(), tracking.getSceneChanges(),
+					tracking.getLostTracks()));
+			logger.log(Level.INFO, String.format("Tracked vs detected mean IoU: %4.2f, match rate: %4.2f",
+					tracking.getMeanIou(), tracking.getMatchRate()));
+		}
+	}
+
+	/**
+	 * Detect people in all frames of url and write marked frames.
+	 *
+	 * @param url
+	 *            Source file.
+	 * @param outputFile
+	 *            Output file.
+	 * @param mode
+	 *            Detection mode.
+	 * @param cadence
+	 *            Track mode detection cadence.
+	 * @return Run statistics.
+	 * @throws InterruptedException
+	 *             Possible exception.
+	 */
+	private static Result detect(final String url, final String outputFile, final String mode, final int cadence)
+			throws InterruptedException {
+		logger.log(Level.INFO, String.format("Mode: %s", mode));
+		final FrameSource source = new FrameSource(url);
+		final Size frameSize = source.getFrameSize();
+		// Enabled with -Dcom.codeferm.opencv.trackMats=true, one tracker per
+		// run so leaks are reported per mode
+		final MatTracker matTracker = MatTracker.fromSystemProperties();
+		final FramePipeline pipeline = new FramePipeline(source,
+				new FrameSink(outputFile, source.getFps(), frameSize), FramePipeline.DEFAULT_RING_SIZE, matTracker);
+		final PeopleDetectStage stage = new PeopleDetectStage(createDetector(mode, frameSize, cadence));
+		final Result result = new Result();
+		try {
+			result.frames = pipeline.addStage(stage).run();
+			result.framesWithPeople = stage.getFramesWithPeople();
+			result.people = stage.getPeople();
+			result.fps = pipeline.getFps();
+			logger.log(Level.INFO, String.format("%d frames, %d frames with people, %d people", result.frames,
+					result.framesWithPeople, result.people));
+			logDetector(stage.getDetector(), result.frames, frameSize.area());
+		} finally {
+			// Release native memory
+			pipeline.free();
+			if (matTracker != null) {
+				matTracker.close();
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Detect people in all frames.
 	 *
 	 * args[0] = source file or will default to "../resources/walking.mp4" if no
 	 * args passed.
 	 *
+	 * args[1] = mode (full, motion, parallel or track) or will default to full
+	 * if not passed.
+	 *
+	 * args[2] = track mode detection cadence in frames or will default to 5 if
+	 * not passed.
+	 *
 	 * @param args
 	 *            String array of arguments.
+	 * @throws InterruptedException
+	 *             Possible exception.
 	 */
-	public static void main(final String[] args) {
+	public static void main(final String[] args) throws InterruptedException {
 		String url = null;
-		final String outputFile = "../output/people-detect-java.avi";
 		// Check how many arguments were passed in
 		if (args.length == 0) {
 			// If no arguments were passed then default to local file
@@ -77,86 +221,26 @@ final class PeopleDetect {
 		} else {
 			url = args[0];
 		}
-		// Custom logging properties via class loader
-		try {
-			LogManager.getLogManager()
-					.readConfiguration(PeopleDetect.class.getClassLoader().getResourceAsStream("logging.properties"));
-		} catch (SecurityException | IOException e) {
-			e.printStackTrace();
+		String mode = "full";
+		if (args.length > 1) {
+			mode = args[1];
+		}
+		int cadence = DEFAULT_CADENCE;
+		if (args.length > 2) {
+			cadence = Integer.parseInt(args[2]);
 		}
+		// Custom logging properties via class loader, read once per JVM
+		Launcher.configureLogging();
 		logger.log(Level.INFO, String.format("OpenCV %s", Core.VERSION));
-		logger.log(Level.INFO, String.format("Input file: %s", url));
-		logger.log(Level.INFO, String.format("Output file: %s", outputFile));
-		final VideoCapture videoCapture = new VideoCapture(url);
-		final Size frameSize = new Size((int) videoCapture.get(Videoio.CAP_PROP_FRAME_WIDTH),
-				(int) videoCapture.get(Videoio.CAP_PROP_FRAME_HEIGHT));
-		logger.log(Level.INFO, String.format("Resolution: %s", frameSize));
-		final FourCC fourCC = new FourCC("X264");
-		final VideoWriter videoWriter = new VideoWriter(outputFile, fourCC.toInt(),
-				videoCapture.get(Videoio.CAP_PROP_FPS), frameSize, true);
-		final Mat mat = new Mat();
-		// final HOGDescriptor hog = new HOGDescriptor(new Size(128, 64),
-		// new Size(16, 16), new Size(8, 8), new Size(8, 8), 9, 0, -1, 0,
-		// 0.2, false, 64);
-		final HOGDescriptor hog = new HOGDescriptor();
-		final MatOfFloat descriptors = HOGDescriptor.getDefaultPeopleDetector();
-		hog.setSVMDetector(descriptors);
-		final MatOfRect foundLocations = new MatOfRect();
-		final MatOfDouble foundWeights = new MatOfDouble();
-		final Size winStride = new Size(8, 8);
-		final Size padding = new Size(32, 32);
-		final Point rectPoint1 = new Point();
-		final Point rectPoint2 = new Point();
-		final Point fontPoint = new Point();
-		int frames = 0;
-		int framesWithPeople = 0;
-		final Scalar rectColor = new Scalar(0, 255, 0);
-		final Scalar fontColor = new Scalar(255, 255, 255);
-		final long startTime = System.currentTimeMillis();
-		while (videoCapture.read(mat)) {
-			// CHECKSTYLE:OFF MagicNumber - Magic numbers here for illustration
-			hog.detectMultiScale(mat, foundLocations, foundWeights, 0.0, winStride, padding, 1.05, 2.0, false);
-			// CHECKSTYLE:ON MagicNumber
-			if (foundLocations.rows() > 0) {
-				framesWithPeople++;
-				List<Double> weightList = foundWeights.toList();
-				List<Rect> rectList = foundLocations.toList();
-				int i = 0;
-				for (Rect rect : rectList) {
-					rectPoint1.x = rect.x;
-					rectPoint1.y = rect.y;
-					rectPoint2.x = rect.x + rect.width;
-					rectPoint2.y = rect.y + rect.height;
-					// Draw rectangle around fond object
-					Imgproc.rectangle(mat, rectPoint1, rectPoint2, rectColor, 2);
-					fontPoint.x = rect.x;
-					// CHECKSTYLE:OFF MagicNumber - Magic numbers here for
-					// illustration
-					fontPoint.y = rect.y - 4;
-					// CHECKSTYLE:ON MagicNumber
-					// Print weight
-					// CHECKSTYLE:OFF MagicNumber - Magic numbers here for
-					// illustration
-					Imgproc.putText(mat, String.format("%1.2f", weightList.get(i)), fontPoint, Core.FONT_HERSHEY_PLAIN,
-							1.5, fontColor, 2, Core.LINE_AA, false);
-					// CHECKSTYLE:ON MagicNumber
-					i++;
-				}
-			}
-			videoWriter.write(mat);
-			frames++;
+		final Result baseline = detect(url, "../output/people-detect-java.avi", "full", cadence);
+		if (!"full".equals(mode)) {
+			final Result result = detect(url, String.format("../output/people-detect-%s-java.avi", mode), mode,
+					cadence);
+			logger.log(Level.INFO, String.format("People full: %d, %s: %d", baseline.people, mode, result.people));
+			logger.log(Level.INFO, String.format("Frames with people full: %d, %s: %d", baseline.framesWithPeople,
+					mode, result.framesWithPeople));
+			logger.log(Level.INFO, String.format("FPS full: %4.1f, %s: %4.1f, %4.2fx", baseline.fps, mode, result.fps,
+					result.fps / baseline.fps));
 		}
-		final long estimatedTime = System.currentTimeMillis() - startTime;
-		final double seconds = (double) estimatedTime / 1000;
-		logger.log(Level.INFO, String.format("%d frames, %d frames with people", frames, framesWithPeople));
-		logger.log(Level.INFO, String.format("%4.1f FPS, elapsed time: %4.2f seconds", frames / seconds, seconds));
-		// Release native memory
-		videoCapture.free();
-		videoWriter.free();
-		hog.free();
-		descriptors.free();
-		foundLocations.free();
-		foundWeights.free();
-		mat.free();
 	}
 }
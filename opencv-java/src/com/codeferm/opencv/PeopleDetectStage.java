@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) Steven P. Goldsmith. All rights reserved.
+ *
+ * Created by Steven P. Goldsmith on March 8, 2016
+ * sgoldsmith@codeferm.com
+ */
+package com.codeferm.opencv;
+
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Scalar;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * People detection stage. Each detection is drawn with its weight.
+ *
+ * @author sgoldsmith
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+final class PeopleDetectStage implements FrameStage {
+	/**
+	 * Rectangle color.
+	 */
+	private static final Scalar RECT_COLOR = new Scalar(0, 255, 0);
+	/**
+	 * Weight font color.
+	 */
+	private static final Scalar FONT_COLOR = new Scalar(255, 255, 255);
+	/**
+	 * People detector.
+	 */
+	private final PeopleDetector detector;
+	/**
+	 * Work point.
+	 */
+	private final Point rectPoint1 = new Point();
+	/**
+	 * Work point.
+	 */
+	private final Point rectPoint2 = new Point();
+	/**
+	 * Work point.
+	 */
+	private final Point fontPoint = new Point();
+	/**
+	 * Frames with people.
+	 */
+	private volatile int framesWithPeople;
+	/**
+	 * Total people found.
+	 */
+	private long people;
+
+	/**
+	 * Create stage.
+	 *
+	 * @param detector
+	 *            People detector. Freed with this stage.
+	 */
+	public PeopleDetectStage(final PeopleDetector detector) {
+		this.detector = detector;
+	}
+
+	@Override
+	public void process(final Mat frame) {
+		final int found = detector.detect(frame);
+		if (found > 0) {
+			framesWithPeople++;
+			people += found;
+			draw(frame, detector.getDetections());
+		}
+	}
+
+	@Override
+	public void setTracker(final MatTracker tracker) {
+		detector.setTracker(tracker);
+	}
+
+	/**
+	 * Draw detections and their weights on frame.
+	 *
+	 * @param frame
+	 *            Frame. This value is modified.
+	 * @param detections
+	 *            Detections.
+	 */
+	private void draw(final Mat frame, final Detections detections) {
+		final int[] rects = detections.getRects();
+		final double[] weights = detections.getWeights();
+		// CHECKSTYLE:OFF MagicNumber - Magic numbers here for illustration
+		for (int i = 0; i < detections.getCount(); i++) {
+			final int x = rects[i * 4];
+			final int y = rects[i * 4 + 1];
+			rectPoint1.x = x;
+			rectPoint1.y = y;
+			rectPoint2.x = x + rects[i * 4 + 2];
+			rectPoint2.y = y + rects[i * 4 + 3];
+			// Draw rectangle around fond object
+			Imgproc.rectangle(frame, rectPoint1, rectPoint2, RECT_COLOR, 2);
+			fontPoint.x = x;
+			fontPoint.y = y - 4;
+			// Print weight
+			Imgproc.putText(frame, String.format("%1.2f", weights[i]), fontPoint, Core.FONT_HERSHEY_PLAIN, 1.5,
+					FONT_COLOR, 2, Core.LINE_AA, false);
+		}
+		// CHECKSTYLE:ON MagicNumber
+	}
+
+	/**
+	 * People detector.
+	 *
+	 * @return People detector.
+	 */
+	public PeopleDetector getDetector() {
+		return detector;
+	}
+
+	/**
+	 * Frames with people.
+	 *
+	 * @return Frames.
+	 */
+	public int getFramesWithPeople() {
+		return framesWithPeople;
+	}
+
+	/**
+	 * Total people found.
+	 *
+	 * @return People.
+	 */
+	public long getPeople() {
+		return people;
+	}
+
+	@Override
+	public void free() {
+		detector.free();
+	}
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright (c) Steven P. Goldsmith. All rights reserved.
+ *
+ * Created by Steven P. Goldsmith on February 23, 2016
+ * sgoldsmith@codeferm.com
+ */
+package com.codeferm.opencv;
+
+import org.opencv.core.Mat;
+
+/**
+ * People detection strategy used by PeopleDetect. Implementations own their
+ * native memory and are used by one thread at a time.
+ *
+ * @author sgoldsmith
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+interface PeopleDetector {
+	/**
+	 * Detect people in frame. The frame is not modified.
+	 *
+	 * @param frame
+	 *            BGR frame.
+	 * @return Number of people found.
+	 */
+	int detect(Mat frame);
+
+	/**
+	 * Detections from last detect call in frame coordinates.
+	 *
+	 * @return Detections.
+	 */
+	Detections getDetections();
+
+	/**
+	 * Track work Mats. Must be called before the first detect. Tracked Mats
+	 * are untracked by free.
+	 *
+	 * @param tracker
+	 *            Native Mat tracker.
+	 */
+	void setTracker(MatTracker tracker);
+
+	/**
+	 * Free native memory.
+	 */
+	void free();
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright (c) Steven P. Goldsmith. All rights reserved.
+ *
+ * Created by Steven P. Goldsmith on February 23, 2016
+ * sgoldsmith@codeferm.com
+ */
+package com.codeferm.opencv;
+
+/**
+ * Operations on rectangles packed as x, y, width, height in int arrays. These
+ * work in place, so no Rect objects are created per frame.
+ *
+ * @author sgoldsmith
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+final class Rects {
+	/**
+	 * Suppress default constructor for noninstantiability.
+	 */
+	private Rects() {
+		throw new AssertionError();
+	}
+
+	/**
+	 * Pad rectangles, grow them to a minimum size around their center and clip
+	 * them to the frame.
+	 *
+	 * @param rects
+	 *            Rectangles. This value is modified.
+	 * @param count
+	 *            Number of rectangles.
+	 * @param padding
+	 *            Pixels added to each side.
+	 * @param minWidth
+	 *            Minimum width.
+	 * @param minHeight
+	 *            Minimum height.
+	 * @param frameWidth
+	 *            Frame width.
+	 * @param frameHeight
+	 *            Frame height.
+	 */
+	public static void pad(final int[] rects, final int count, final int padding, final int minWidth,
+			final int minHeight, final int frameWidth, final int frameHeight) {
+		for (int i = 0; i < count * Contours.RECT_INTS; i += Contours.RECT_INTS) {
+			int x = rects[i] - padding;
+			int y = rects[i + 1] - padding;
+			int width = rects[i + 2] + padding * 2;
+			int height = rects[i + 3] + padding * 2;
+			if (width < minWidth) {
+				x -= (minWidth - width) / 2;
+				width = minWidth;
+			}
+			if (height < minHeight) {
+				y -= (minHeight - height) / 2;
+				height = minHeight;
+			}
+			// Shift inside frame before clipping to keep minimum size
+			if (x + width > frameWidth) {
+				x = frameWidth - width;
+			}
+			if (y + height > frameHeight) {
+				y = frameHeight - height;
+			}
+			x = Math.max(x, 0);
+			y = Math.max(y, 0);
+			rects[i] = x;
+			rects[i + 1] = y;
+			rects[i + 2] = Math.min(width, frameWidth - x);
+			rects[i + 3] = Math.min(height, frameHeight - y);
+		}
+	}
+
+	/**
+	 * Do rectangles at index a and b overlap.
+	 *
+	 * @param rects
+	 *            Rectangles.
+	 * @param a
+	 *            Offset of first rectangle.
+	 * @param b
+	 *            Offset of second rectangle.
+	 * @return True if rectangles overlap.
+	 */
+	private static boolean overlaps(final int[] rects, final int a, final int b) {
+		return rects[a] < rects[b] + rects[b + 2] && rects[b] < rects[a] + rects[a + 2]
+				&& rects[a + 1] < rects[b + 1] + rects[b + 3] && rects[b + 1] < rects[a + 1] + rects[a + 3];
+	}
+
+	/**
+	 * Merge overlapping rectangles into their bounding rectangle until no
+	 * rectangles overlap.
+	 *
+	 * @param rects
+	 *            Rectangles. This value is modified.
+	 * @param count
+	 *            Number of rectangles.
+	 * @return Number of rectangles after merge.
+	 */
+	public static int merge(final int[] rects, final int count) {
+		int n = count;
+		boolean merged = true;
+		while (merged) {
+			merged = false;
+			for (int a = 0; a < n && !merged; a++) {
+				for (int b = a + 1; b < n && !merged; b++) {
+					final int i = a * Contours.RECT_INTS;
+					final int j = b * Contours.RECT_INTS;
+					if (overlaps(rects, i, j)) {
+						final int x = Math.min(rects[i], rects[j]);
+						final int y = Math.min(rects[i + 1], rects[j + 1]);
+						rects[i + 2] = Math.max(rects[i] + rects[i + 2], rects[j] + rects[j + 2]) - x;
+						rects[i + 3] = Math.max(rects[i + 1] + rects[i + 3], rects[j + 1] + rects[j + 3]) - y;
+						rects[i] = x;
+						rects[i + 1] = y;
+						// Move last rectangle into b
+						n--;
+						System.arraycopy(rects, n * Contours.RECT_INTS, rects, j, Contours.RECT_INTS);
+						merged = true;
+					}
+				}
+			}
+		}
+		return n;
+	}
+
+	/**
+	 * Intersection over union of two rectangles.
+	 *
+	 * @param a
+	 *            First rectangles.
+	 * @param i
+	 *            Offset in a.
+	 * @param b
+	 *            Second rectangles.
+	 * @param j
+	 *            Offset in b.
+	 * @return Intersection over union from 0.0 to 1.0.
+	 */
+	public static double iou(final int[] a, final int i, final int[] b, final int j) {
+		final int x1 = Math.max(a[i], b[j]);
+		final int y1 = Math.max(a[i + 1], b[j + 1]);
+		final int x2 = Math.min(a[i] + a[i + 2], b[j] + b[j + 2]);
+		final int y2 = Math.min(a[i + 1] + a[i + 3], b[j + 1] + b[j + 3]);
+		if (x2 <= x1 || y2 <= y1) {
+			return 0.0;
+		}
+		final double intersection = (double) (x2 - x1) * (y2 - y1);
+		final double union = (double) a[i + 2] * a[i + 3] + (double) b[j + 2] * b[j + 3] - intersection;
+		return intersection / union;
+	}
+}
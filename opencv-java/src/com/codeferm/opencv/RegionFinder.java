@@ -0,0 +1,51 @@
+/*
+ * Copyright (c) Steven P. Goldsmith. All rights reserved.
+ *
+ * Created by Steven P. Goldsmith on March 22, 2016
+ * sgoldsmith@codeferm.com
+ */
+package com.codeferm.opencv;
+
+import org.opencv.core.Mat;
+
+/**
+ * Turns a thresholded motion image into bounding rectangles of motion
+ * regions. Contours dilates, erodes and labels regions. GridMotionMap counts
+ * changed pixels per grid cell and merges active cells, so its cost depends
+ * only on frame size.
+ *
+ * An instance is not thread safe, so use one per thread.
+ *
+ * @author sgoldsmith
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+interface RegionFinder {
+	/**
+	 * Find bounding rectangles of motion regions.
+	 *
+	 * @param source
+	 *            Thresholded single channel image. Implementations may modify
+	 *            it.
+	 * @param rects
+	 *            Rectangles (x, y, width, height packed). This value is
+	 *            modified.
+	 * @return Number of rectangles found. Only rects.length / 4 are written
+	 *         if more are found.
+	 */
+	int boundingRects(Mat source, int[] rects);
+
+	/**
+	 * Track work Mats. Must be called before the first boundingRects.
+	 * Tracked Mats are untracked by free.
+	 *
+	 * @param tracker
+	 *            Native Mat tracker.
+	 */
+	void setTracker(MatTracker tracker);
+
+	/**
+	 * Free native memory.
+	 */
+	void free();
+}
@@ -0,0 +1,369 @@
+/*
+ * Copyright (c) Steven P. Goldsmith. All rights reserved.
+ *
+ * Created by Steven P. Goldsmith on March 20, 2016
+ * sgoldsmith@codeferm.com
+ */
+package com.codeferm.opencv;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+
+/**
+ * Process one long file as K frame ranges in parallel. Each segment seeks its
+ * own FrameSource with CAP_PROP_POS_FRAMES, runs its own FramePipeline and
+ * writes its own file. FrameSource.seek reads the position back and steps
+ * forward from an earlier key frame if needed, and a segment fails rather
+ * than duplicate or drop frames at a join. Frames are split as evenly as
+ * possible, so segments differ in length by at most one frame. The segment
+ * files are then concatenated in order. Stateful stages like MotionDetector's
+ * moving average start each segment warm-up frames early, so they have
+ * converged by the first frame written. Warm-up frames are processed but not
+ * written.
+ *
+ * Concatenation uses ffmpeg's concat demuxer with stream copy, so it does not
+ * re-encode. The command is read from the com.codeferm.opencv.concat system
+ * property (default ffmpeg, avconv works too). If it fails the segments are
+ * decoded and encoded into one file, which is serial.
+ *
+ * args[0] = tool writer, canny, motion-detect or people-detect or will default
+ * to "canny" if no args passed.
+ *
+ * args[1] = source file or will default to "../resources/traffic.mp4" if not
+ * passed.
+ *
+ * args[2] = segments or will default to available processors if not passed.
+ *
+ * args[3] = warm-up frames or will default to 100 for motion-detect and 0 for
+ * the other tools if not passed.
+ *
+ * @author sgoldsmith
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+final class SegmentParallel {
+	/**
+	 * Logger.
+	 */
+	// CHECKSTYLE:OFF ConstantName - Logger is static final, not a constant
+	private static final Logger logger = Logger.getLogger(SegmentParallel.class // NOPMD
+			.getName());
+	// CHECKSTYLE:ON ConstantName
+	/* Load the OpenCV system library */
+	static {
+		System.loadLibrary(Core.NATIVE_LIBRARY_NAME); // NOPMD
+	}
+
+	/**
+	 * Default warm-up frames for motion detection. The moving average weight
+	 * of 0.03 leaves under 5% of the initial frame after 100 frames.
+	 */
+	private static final int DEFAULT_MOTION_WARM_UP = 100;
+
+	/**
+	 * Sink that drops the warm-up frames at the start of a segment and
+	 * writes the rest to the wrapped sink. Tracker and encoder statistics are
+	 * those of the wrapped sink.
+	 */
+	private static final class WarmUpFrameSink extends FrameSink {
+		/**
+		 * Wrapped sink.
+		 */
+		private final FrameSink sink;
+		/**
+		 * Warm-up frames left to drop.
+		 */
+		private int warmUpLeft;
+
+		/**
+		 * Create sink.
+		 *
+		 * @param sink
+		 *            Wrapped sink. Freed with this sink.
+		 * @param warmUp
+		 *            Warm-up frames to drop.
+		 */
+		WarmUpFrameSink(final FrameSink sink, final int warmUp) {
+			super(sink.getOutputFile());
+			this.sink = sink;
+			this.warmUpLeft = warmUp;
+		}
+
+		@Override
+		public void write(final Mat frame) {
+			if (warmUpLeft > 0) {
+				warmUpLeft--;
+			} else {
+				sink.write(frame);
+			}
+		}
+
+		@Override
+		public void setTracker(final MatTracker tracker) {
+			sink.setTracker(tracker);
+		}
+
+		@Override
+		public int getFrames() {
+			return sink.getFrames();
+		}
+
+		@Override
+		public long getDroppedFrames() {
+			return sink.getDroppedFrames();
+		}
+
+		@Override
+		public int getQueueDepth() {
+			return sink.getQueueDepth();
+		}
+
+		@Override
+		public double getEncodeFps() {
+			return sink.getEncodeFps();
+		}
+
+		@Override
+		public void free() {
+			sink.free();
+		}
+	}
+
+	/**
+	 * Suppress default constructor for noninstantiability.
+	 */
+	private SegmentParallel() {
+		throw new AssertionError();
+	}
+
+	/**
+	 * Process frames begin to end of source, starting warm-up frames early.
+	 *
+	 * @param tool
+	 *            Tool.
+	 * @param url
+	 *            Source file.
+	 * @param outputFile
+	 *            Segment output file.
+	 * @param begin
+	 *            First frame written.
+	 * @param end
+	 *            Frame after last frame written.
+	 * @param warmUp
+	 *            Warm-up frames.
+	 * @return Frames written.
+	 * @throws InterruptedException
+	 *             Possible exception.
+	 */
+	private static int processSegment(final String tool, final String url, final String outputFile, final int begin,
+			final int end, final int warmUp) throws InterruptedException {
+		final FrameSource source = new FrameSource(url);
+		final int start = Math.max(0, begin - warmUp);
+		if (start > 0 && !source.seek(start)) {
+			source.free();
+			throw new IllegalStateException(String.format("Unable to seek exactly to frame %d", start));
+		}
+		source.setMaxFrames(end - start);
+		final FrameSink sink = new WarmUpFrameSink(new FrameSink(outputFile, source.getFps(), source.getFrameSize()),
+				begin - start);
+		final FramePipeline pipeline = new FramePipeline(source, sink, FramePipeline.DEFAULT_RING_SIZE);
+		// No periodic latency logs from many pipelines at once
+		pipeline.setReportInterval(0);
+		try {
+			final FrameStage stage = DirectoryBatch.createStage(tool, source.getFrameSize());
+			if (stage != null) {
+				pipeline.addStage(stage);
+			}
+			pipeline.run();
+			return sink.getFrames();
+		} finally {
+			pipeline.free();
+		}
+	}
+
+	/**
+	 * Concatenate segments with stream copy.
+	 *
+	 * @param segments
+	 *            Segment files in order.
+	 * @param outputFile
+	 *            Output file.
+	 * @return True if concatenated.
+	 */
+	private static boolean concatCopy(final List<String> segments, final String outputFile) {
+		final File listFile = new File(outputFile + ".txt");
+		try {
+			try (PrintWriter writer = new PrintWriter(listFile, "UTF-8")) {
+				for (final String segment : segments) {
+					writer.println(String.format("file '%s'", new File(segment).getAbsolutePath()));
+				}
+			}
+			final Process process = new ProcessBuilder(System.getProperty("com.codeferm.opencv.concat", "ffmpeg"),
+					"-y", "-loglevel", "error", "-f", "concat", "-safe", "0", "-i", listFile.getPath(), "-c", "copy",
+					outputFile).inheritIO().start();
+			return process.waitFor() == 0;
+		} catch (IOException e) {
+			logger.log(Level.WARNING, String.format("Concat command failed: %s", e.getMessage()));
+			return false;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		} finally {
+			listFile.delete();
+		}
+	}
+
+	/**
+	 * Concatenate segments by decoding and encoding every frame.
+	 *
+	 * @param segments
+	 *            Segment files in order.
+	 * @param outputFile
+	 *            Output file.
+	 * @param fps
+	 *            Frames per second.
+	 * @param frameSize
+	 *            Frame size.
+	 */
+	private static void concatEncode(final List<String> segments, final String outputFile, final double fps,
+			final Size frameSize) {
+		final FrameSink sink = new FrameSink(outputFile, fps, frameSize);
+		final Mat mat = new Mat();
+		try {
+			for (final String segment : segments) {
+				// Throws if a segment is missing instead of leaving a gap
+				final FrameSource source = new FrameSource(segment);
+				while (source.read(mat)) {
+					sink.write(mat);
+				}
+				source.free();
+			}
+		} finally {
+			mat.free();
+			sink.free();
+		}
+	}
+
+	/**
+	 * Process source in segments in parallel and concatenate output.
+	 *
+	 * args[0] = tool writer, canny, motion-detect or people-detect or will
+	 * default to "canny" if no args passed.
+	 *
+	 * args[1] = source file or will default to "../resources/traffic.mp4" if
+	 * not passed.
+	 *
+	 * args[2] = segments or will default to available processors if not
+	 * passed.
+	 *
+	 * args[3] = warm-up frames or will default to 100 for motion-detect and 0
+	 * for the other tools if not passed.
+	 *
+	 * @param args
+	 *            String array of arguments.
+	 * @throws InterruptedException
+	 *             Possible exception.
+	 * @throws ExecutionException
+	 *             Segment failed.
+	 */
+	public static void main(final String[] args) throws InterruptedException, ExecutionException {
+		String tool = "canny";
+		if (args.length > 0) {
+			tool = args[0];
+		}
+		String url = "../resources/traffic.mp4";
+		if (args.length > 1) {
+			url = args[1];
+		}
+		int segments = Runtime.getRuntime().availableProcessors();
+		if (args.length > 2) {
+			segments = Integer.parseInt(args[2]);
+		}
+		int warmUp = "motion-detect".equals(tool) ? DEFAULT_MOTION_WARM_UP : 0;
+		if (args.length > 3) {
+			warmUp = Integer.parseInt(args[3]);
+		}
+		final String outputFile = String.format("../output/%s-segments-java.avi", tool);
+		// Custom logging properties via class loader, read once per JVM
+		Launcher.configureLogging();
+		logger.log(Level.INFO, String.format("OpenCV %s", Core.VERSION));
+		final FrameSource probe = new FrameSource(url);
+		final int total = probe.getFrameCount();
+		final double fps = probe.getFps();
+		final Size frameSize = probe.getFrameSize();
+		probe.free();
+		if (total == 0) {
+			logger.log(Level.SEVERE, String.format("Frame count unknown, unable to split: %s", url));
+			return;
+		}
+		segments = Math.max(1, Math.min(segments, total));
+		// First remainder segments get one extra frame, so none is empty
+		final int length = total / segments;
+		final int remainder = total % segments;
+		logger.log(Level.INFO, String.format("Input file: %s, %d frames in %d segments of %d or %d, %d warm-up frames",
+				url, total, segments, length, remainder == 0 ? length : length + 1, warmUp));
+		final long start = System.currentTimeMillis();
+		final ExecutorService executor = Executors.newFixedThreadPool(segments);
+		final List<String> segmentFiles = new ArrayList<String>();
+		final List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+		final String segmentTool = tool;
+		final String segmentUrl = url;
+		final int segmentWarmUp = warmUp;
+		for (int i = 0; i < segments; i++) {
+			final int begin = i * length + Math.min(i, remainder);
+			final int end = begin + length + (i < remainder ? 1 : 0);
+			final String segmentFile = String.format("../output/%s-segment-%02d-java.avi", tool, i);
+			segmentFiles.add(segmentFile);
+			futures.add(executor.submit(new Callable<Integer>() {
+				@Override
+				public Integer call() throws InterruptedException {
+					return processSegment(segmentTool, segmentUrl, segmentFile, begin, end, segmentWarmUp);
+				}
+			}));
+		}
+		executor.shutdown();
+		int frames = 0;
+		try {
+			for (final Future<Integer> future : futures) {
+				frames += future.get();
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+		// CHECKSTYLE:OFF MagicNumber - Milliseconds to seconds
+		final double processSeconds = (System.currentTimeMillis() - start) / 1000.0;
+		// CHECKSTYLE:ON MagicNumber
+		if (frames != total) {
+			// Container frame count was more than the frames in the file
+			logger.log(Level.WARNING, String.format("%d frames written, container reports %d", frames, total));
+		}
+		if (!concatCopy(segmentFiles, outputFile)) {
+			logger.log(Level.WARNING, "Stream copy concat failed, encoding segments into output");
+			concatEncode(segmentFiles, outputFile, fps, frameSize);
+		}
+		for (final String segmentFile : segmentFiles) {
+			new File(segmentFile).delete();
+		}
+		// CHECKSTYLE:OFF MagicNumber - Milliseconds to seconds
+		final double seconds = (System.currentTimeMillis() - start) / 1000.0;
+		// CHECKSTYLE:ON MagicNumber
+		logger.log(Level.INFO, String.format("Output file: %s", outputFile));
+		logger.log(Level.INFO, String.format("%d frames, segments %4.2f seconds, concat %4.2f seconds", frames,
+				processSeconds, seconds - processSeconds));
+		logger.log(Level.INFO, String.format("%4.1f FPS, elapsed time: %4.2f seconds", frames / seconds, seconds));
+	}
+}
@@ -0,0 +1,259 @@
+/*
+ * Copyright (c) Steven P. Goldsmith. All rights reserved.
+ *
+ * Created by Steven P. Goldsmith on March 21, 2016
+ * sgoldsmith@codeferm.com
+ */
+package com.codeferm.opencv;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+import org.opencv.videoio.VideoCapture;
+
+/**
+ * Compare CannyStage with TiledCannyStage at 1, 2, 4... threads up to
+ * available processors. Frames are upscaled to a high resolution first, since
+ * that is where tiling pays off. Every tiled result is compared with the
+ * serial result and the benchmark fails if any byte differs, since tiled
+ * output must be bit-identical.
+ *
+ * args[0] = source file or will default to "../resources/traffic.mp4" if no
+ * args passed.
+ *
+ * args[1] = frame width or will default to 3840 if not passed. Height keeps
+ * the source aspect ratio.
+ *
+ * args[2] = halo rows or will default to TiledCannyStage.DEFAULT_HALO if not
+ * passed.
+ *
+ * args[3] = measured iterations over all frames or will default to 5 if not
+ * passed.
+ *
+ * @author sgoldsmith
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+final class TiledCannyBenchmark {
+	/**
+	 * Logger.
+	 */
+	// CHECKSTYLE:OFF ConstantName - Logger is static final, not a constant
+	private static final Logger logger = Logger.getLogger(TiledCannyBenchmark.class // NOPMD
+			.getName());
+	// CHECKSTYLE:ON ConstantName
+	/* Load the OpenCV system library */
+	static {
+		System.loadLibrary(Core.NATIVE_LIBRARY_NAME); // NOPMD
+	}
+
+	/**
+	 * Maximum frames loaded.
+	 */
+	private static final int MAX_FRAMES = 30;
+	/**
+	 * Warm up iterations over all frames.
+	 */
+	private static final int WARMUP = 2;
+
+	/**
+	 * Suppress default constructor for noninstantiability.
+	 */
+	private TiledCannyBenchmark() {
+		throw new AssertionError();
+	}
+
+	/**
+	 * Read frames resized to width.
+	 *
+	 * @param url
+	 *            Source file.
+	 * @param width
+	 *            Frame width.
+	 * @return Frames.
+	 */
+	private static List<Mat> readFrames(final String url, final int width) {
+		final List<Mat> frames = new ArrayList<Mat>();
+		final VideoCapture videoCapture = new VideoCapture(url);
+		final Mat mat = new Mat();
+		while (frames.size() < MAX_FRAMES && videoCapture.read(mat)) {
+			final Mat frame = new Mat();
+			Imgproc.resize(mat, frame, new Size(width, width * mat.rows() / mat.cols()), 0, 0,
+					Imgproc.INTER_LINEAR);
+			frames.add(frame);
+		}
+		mat.free();
+		videoCapture.free();
+		return frames;
+	}
+
+	/**
+	 * Time stage over all frames. Each frame is copied to work first, since
+	 * stages modify the frame, and only the stage is timed.
+	 *
+	 * @param stage
+	 *            Stage.
+	 * @param frames
+	 *            Frames.
+	 * @param work
+	 *            Work Mat.
+	 * @param iterations
+	 *            Iterations over all frames.
+	 * @return Nanoseconds per frame.
+	 */
+	private static double time(final FrameStage stage, final List<Mat> frames, final Mat work,
+			final int iterations) {
+		long total = 0;
+		for (int i = 0; i < iterations; i++) {
+			for (final Mat frame : frames) {
+				frame.copyTo(work);
+				final long start = System.nanoTime();
+				stage.process(work);
+				total += System.nanoTime() - start;
+			}
+		}
+		return (double) total / (iterations * frames.size());
+	}
+
+	/**
+	 * Count bytes where stages produce different output.
+	 *
+	 * @param serial
+	 *            Serial stage.
+	 * @param tiled
+	 *            Tiled stage.
+	 * @param frames
+	 *            Frames.
+	 * @return Mismatched bytes over all frames.
+	 */
+	private static long mismatches(final FrameStage serial, final FrameStage tiled, final List<Mat> frames) {
+		final Mat expected = new Mat();
+		final Mat actual = new Mat();
+		final Mat diff = new Mat();
+		long count = 0;
+		for (final Mat frame : frames) {
+			frame.copyTo(expected);
+			serial.process(expected);
+			frame.copyTo(actual);
+			tiled.process(actual);
+			// One channel view, so every channel of every pixel is compared
+			final Mat expectedBytes = expected.reshape(1);
+			final Mat actualBytes = actual.reshape(1);
+			Core.compare(expectedBytes, actualBytes, diff, Core.CMP_NE);
+			count += Core.countNonZero(diff);
+			expectedBytes.free();
+			actualBytes.free();
+		}
+		expected.free();
+		actual.free();
+		diff.free();
+		return count;
+	}
+
+	/**
+	 * Run benchmark.
+	 *
+	 * args[0] = source file or will default to "../resources/traffic.mp4" if no
+	 * args passed.
+	 *
+	 * args[1] = frame width or will default to 3840 if not passed.
+	 *
+	 * args[2] = halo rows or will default to TiledCannyStage.DEFAULT_HALO if
+	 * not passed.
+	 *
+	 * args[3] = measured iterations over all frames or will default to 5 if
+	 * not passed.
+	 *
+	 * @param args
+	 *            String array of arguments.
+	 * @throws IllegalStateException
+	 *             If tiled output differs from serial output.
+	 */
+	public static void main(final String[] args) {
+		String url = null;
+		// Check how many arguments were passed in
+		if (args.length == 0) {
+			// If no arguments were passed then default to
+			// ../resources/traffic.mp4
+			url = "../resources/traffic.mp4";
+		} else {
+			url = args[0];
+		}
+		// CHECKSTYLE:OFF MagicNumber - Magic numbers here for illustration
+		int width = 3840;
+		// CHECKSTYLE:ON MagicNumber
+		if (args.length > 1) {
+			width = Integer.parseInt(args[1]);
+		}
+		int halo = TiledCannyStage.DEFAULT_HALO;
+		if (args.length > 2) {
+			halo = Integer.parseInt(args[2]);
+		}
+		// CHECKSTYLE:OFF MagicNumber - Magic numbers here for illustration
+		int iterations = 5;
+		// CHECKSTYLE:ON MagicNumber
+		if (args.length > 3) {
+			iterations = Integer.parseInt(args[3]);
+		}
+		// Custom logging properties via class loader, read once per JVM
+		Launcher.configureLogging();
+		logger.log(Level.INFO, String.format("OpenCV %s", Core.VERSION));
+		logger.log(Level.INFO, String.format("Input file: %s", url));
+		final List<Mat> frames = readFrames(url, width);
+		if (frames.isEmpty()) {
+			logger.log(Level.SEVERE, "No frames read");
+			return;
+		}
+		final Mat first = frames.get(0);
+		final long frameBytes = first.total() * first.elemSize();
+		logger.log(Level.INFO, String.format("%d frames, %dx%d, halo %d rows, %d iterations", frames.size(),
+				first.cols(), first.rows(), halo, iterations));
+		final Mat work = new Mat();
+		final CannyStage serial = new CannyStage();
+		time(serial, frames, work, WARMUP);
+		final double serialNs = time(serial, frames, work, iterations);
+		// CHECKSTYLE:OFF MagicNumber - Nanoseconds to milliseconds
+		logger.log(Level.INFO, String.format("CannyStage: %8.2f ms/frame", serialNs / 1e6));
+		// CHECKSTYLE:ON MagicNumber
+		try {
+			final int processors = Runtime.getRuntime().availableProcessors();
+			int threads = 0;
+			do {
+				// 1, 2, 4... and always available processors last
+				threads = Math.min(Math.max(1, threads * 2), processors);
+				final ForkJoinPool pool = new ForkJoinPool(threads);
+				final TiledCannyStage tiled = new TiledCannyStage(pool, threads, halo);
+				time(tiled, frames, work, WARMUP);
+				final double tiledNs = time(tiled, frames, work, iterations);
+				final long mismatched = mismatches(serial, tiled, frames);
+				// CHECKSTYLE:OFF MagicNumber - Nanoseconds to milliseconds
+				logger.log(Level.INFO, String.format(
+						"TiledCannyStage %2d threads: %8.2f ms/frame, speedup %4.2fx, %d mismatched bytes (%.4f%%)",
+						threads, tiledNs / 1e6, serialNs / tiledNs, mismatched,
+						mismatched * 100.0 / (frameBytes * frames.size())));
+				// CHECKSTYLE:ON MagicNumber
+				tiled.free();
+				pool.shutdown();
+				if (mismatched > 0) {
+					throw new IllegalStateException(String.format(
+							"TiledCannyStage with %d threads differs from CannyStage in %d bytes", threads,
+							mismatched));
+				}
+			} while (threads < processors);
+		} finally {
+			// Free native memory
+			serial.free();
+			work.free();
+			for (final Mat frame : frames) {
+				frame.free();
+			}
+		}
+	}
+}
@@ -0,0 +1,340 @@
+/*
+ * Copyright (c) Steven P. Goldsmith. All rights reserved.
+ *
+ * Created by Steven P. Goldsmith on March 21, 2016
+ * sgoldsmith@codeferm.com
+ */
+package com.codeferm.opencv;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Scalar;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * Canny edge detection stage that splits each frame into horizontal stripes
+ * and runs them on a ForkJoinPool. Grayscale, Gaussian blur and Sobel dx/dy
+ * run per stripe with halo rows above and below, then only the stripe's own
+ * rows are copied into preallocated dx and dy Mats. Non-maximum suppression
+ * and hysteresis follow edges across the whole image, so they run once on the
+ * full frame with Imgproc.Canny(dx, dy, ...). Output is bit-identical to
+ * CannyStage and TiledCannyBenchmark fails if any pixel differs.
+ *
+ * Sobel uses the same 3x3 aperture and replicated border as Canny does
+ * internally. The 3x3 blur and 3x3 Sobel need two halo rows and MIN_HALO
+ * keeps one more. Canny(dx, dy, ...) needs OpenCV 3.2 or later (master).
+ *
+ * Gradients are found for all stripes before any frame rows are cleared,
+ * since each stripe reads its neighbors' rows as halo.
+ *
+ * @author sgoldsmith
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+final class TiledCannyStage implements FrameStage {
+	/**
+	 * Halo rows needed by blur and Sobel aperture plus one.
+	 */
+	public static final int MIN_HALO = 3;
+	/**
+	 * Default halo rows.
+	 */
+	public static final int DEFAULT_HALO = MIN_HALO;
+	/**
+	 * Non edge color.
+	 */
+	private static final Scalar BLACK = new Scalar(0, 0, 0);
+	/**
+	 * Noise reduction kernel.
+	 */
+	private static final Size KERNEL_SIZE = new Size(3, 3);
+
+	/**
+	 * One stripe of the frame and its work Mats.
+	 */
+	private final class Stripe extends RecursiveAction {
+		/**
+		 * Serializable class version number.
+		 */
+		private static final long serialVersionUID = 1L;
+		/**
+		 * First row.
+		 */
+		private final int top;
+		/**
+		 * Row after last row.
+		 */
+		private final int bottom;
+		/**
+		 * First row including halo.
+		 */
+		private final int haloTop;
+		/**
+		 * Row after last row including halo.
+		 */
+		private final int haloBottom;
+		/**
+		 * Grayscale stripe with halo.
+		 */
+		private final transient Mat gray = new Mat();
+		/**
+		 * Blurred stripe with halo.
+		 */
+		private final transient Mat blur = new Mat();
+		/**
+		 * Horizontal derivative of stripe with halo.
+		 */
+		private final transient Mat stripeDx = new Mat();
+		/**
+		 * Vertical derivative of stripe with halo.
+		 */
+		private final transient Mat stripeDy = new Mat();
+		/**
+		 * Everything but edges of stripe.
+		 */
+		private final transient Mat notEdges = new Mat();
+		/**
+		 * True to clear non edges, false to find gradients.
+		 */
+		private boolean clear;
+
+		/**
+		 * Create stripe.
+		 *
+		 * @param top
+		 *            First row.
+		 * @param bottom
+		 *            Row after last row.
+		 * @param rows
+		 *            Frame rows.
+		 */
+		Stripe(final int top, final int bottom, final int rows) {
+			this.top = top;
+			this.bottom = bottom;
+			haloTop = Math.max(0, top - halo);
+			haloBottom = Math.min(rows, bottom + halo);
+		}
+
+		@Override
+		protected void compute() {
+			if (clear) {
+				final Mat frameRows = frame.rowRange(top, bottom);
+				final Mat edgeRows = edges.rowRange(top, bottom);
+				Core.bitwise_not(edgeRows, notEdges);
+				frameRows.setTo(BLACK, notEdges);
+				frameRows.free();
+				edgeRows.free();
+			} else {
+				final Mat source = frame.rowRange(haloTop, haloBottom);
+				Imgproc.cvtColor(source, gray, Imgproc.COLOR_BGR2GRAY);
+				// Same steps as CannyStage
+				Imgproc.GaussianBlur(gray, blur, KERNEL_SIZE, 0);
+				// Same gradients Canny computes internally for aperture 3
+				// CHECKSTYLE:OFF MagicNumber - Magic numbers here for illustration
+				Imgproc.Sobel(blur, stripeDx, CvType.CV_16S, 1, 0, 3, 1, 0, Core.BORDER_REPLICATE);
+				Imgproc.Sobel(blur, stripeDy, CvType.CV_16S, 0, 1, 3, 1, 0, Core.BORDER_REPLICATE);
+				// CHECKSTYLE:ON MagicNumber
+				// Copy own rows only, halo rows belong to neighbors
+				copyOwnRows(stripeDx, dx);
+				copyOwnRows(stripeDy, dy);
+				source.free();
+			}
+		}
+
+		/**
+		 * Copy own rows of stripe Mat into whole frame Mat.
+		 *
+		 * @param stripeMat
+		 *            Stripe Mat with halo.
+		 * @param frameMat
+		 *            Whole frame Mat.
+		 */
+		private void copyOwnRows(final Mat stripeMat, final Mat frameMat) {
+			final Mat ownRows = stripeMat.rowRange(top - haloTop, bottom - haloTop);
+			final Mat frameRows = frameMat.rowRange(top, bottom);
+			ownRows.copyTo(frameRows);
+			ownRows.free();
+			frameRows.free();
+		}
+
+		/**
+		 * Track work Mats.
+		 *
+		 * @param matTracker
+		 *            Native Mat tracker.
+		 */
+		void track(final MatTracker matTracker) {
+			matTracker.trackAll(gray, blur, stripeDx, stripeDy, notEdges);
+		}
+
+		/**
+		 * Free native memory.
+		 */
+		void free() {
+			if (tracker != null) {
+				tracker.untrackAll(gray, blur, stripeDx, stripeDy, notEdges);
+			}
+			gray.free();
+			blur.free();
+			stripeDx.free();
+			stripeDy.free();
+			notEdges.free();
+		}
+	}
+
+	/**
+	 * Pool stripes run on.
+	 */
+	private final ForkJoinPool pool;
+	/**
+	 * Number of stripes.
+	 */
+	private final int stripeCount;
+	/**
+	 * Halo rows above and below each stripe.
+	 */
+	private final int halo;
+	/**
+	 * Stripes for current frame height.
+	 */
+	private final List<Stripe> stripes = new ArrayList<Stripe>();
+	/**
+	 * Horizontal derivative of whole frame, stitched from stripes.
+	 */
+	private final Mat dx = new Mat();
+	/**
+	 * Vertical derivative of whole frame, stitched from stripes.
+	 */
+	private final Mat dy = new Mat();
+	/**
+	 * Edges of whole frame.
+	 */
+	private final Mat edges = new Mat();
+	/**
+	 * Frame being processed.
+	 */
+	private Mat frame;
+	/**
+	 * Native Mat tracker or null for none.
+	 */
+	private MatTracker tracker;
+
+	/**
+	 * Create stage.
+	 *
+	 * @param pool
+	 *            Pool stripes run on. Not shut down by this stage.
+	 * @param stripeCount
+	 *            Number of stripes, usually pool parallelism.
+	 * @param halo
+	 *            Halo rows above and below each stripe, at least MIN_HALO.
+	 */
+	public TiledCannyStage(final ForkJoinPool pool, final int stripeCount, final int halo) {
+		if (stripeCount < 1) {
+			throw new IllegalArgumentException("Stripe count must be >= 1");
+		}
+		if (halo < MIN_HALO) {
+			throw new IllegalArgumentException(String.format("Halo must be >= %d", MIN_HALO));
+		}
+		this.pool = pool;
+		this.stripeCount = stripeCount;
+		this.halo = halo;
+	}
+
+	/**
+	 * Split frame rows into stripes if frame height changed.
+	 *
+	 * @param rows
+	 *            Frame rows.
+	 */
+	private void createStripes(final int rows) {
+		if (!stripes.isEmpty() && stripes.get(stripes.size() - 1).bottom == rows) {
+			return;
+		}
+		freeStripes();
+		final int count = Math.min(stripeCount, rows);
+		for (int i = 0; i < count; i++) {
+			final Stripe stripe = new Stripe(rows * i / count, rows * (i + 1) / count, rows);
+			if (tracker != null) {
+				stripe.track(tracker);
+			}
+			stripes.add(stripe);
+		}
+	}
+
+	/**
+	 * Run all stripes in one phase and wait for them.
+	 *
+	 * @param clear
+	 *            True to clear non edges, false to find gradients.
+	 */
+	private void runStripes(final boolean clear) {
+		for (final Stripe stripe : stripes) {
+			// Tasks are reused every frame
+			stripe.reinitialize();
+			stripe.clear = clear;
+		}
+		pool.invoke(new RecursiveAction() {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected void compute() {
+				ForkJoinTask.invokeAll(stripes);
+			}
+		});
+	}
+
+	@Override
+	public void process(final Mat frame) {
+		this.frame = frame;
+		createStripes(frame.rows());
+		// Preallocated once per frame size
+		dx.create(frame.rows(), frame.cols(), CvType.CV_16SC1);
+		dy.create(frame.rows(), frame.cols(), CvType.CV_16SC1);
+		runStripes(false);
+		// Suppression and hysteresis are global, so they run on whole frame
+		// CHECKSTYLE:OFF MagicNumber - Magic numbers here for illustration
+		Imgproc.Canny(dx, dy, edges, 100, 200, false);
+		// CHECKSTYLE:ON MagicNumber
+		runStripes(true);
+		this.frame = null;
+	}
+
+	/**
+	 * Free native memory of stripes.
+	 */
+	private void freeStripes() {
+		for (final Stripe stripe : stripes) {
+			stripe.free();
+		}
+		stripes.clear();
+	}
+
+	@Override
+	public void setTracker(final MatTracker tracker) {
+		this.tracker = tracker;
+		tracker.trackAll(dx, dy, edges);
+		for (final Stripe stripe : stripes) {
+			stripe.track(tracker);
+		}
+	}
+
+	@Override
+	public void free() {
+		freeStripes();
+		if (tracker != null) {
+			tracker.untrackAll(dx, dy, edges);
+		}
+		dx.free();
+		dy.free();
+		edges.free();
+	}
+}
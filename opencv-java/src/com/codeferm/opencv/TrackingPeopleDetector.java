@@ -0,0 +1,415 @@
+/*
+ * Copyright (c) Steven P. Goldsmith. All rights reserved.
+ *
+ * Created by Steven P. Goldsmith on March 2, 2016
+ * sgoldsmith@codeferm.com
+ */
+package com.codeferm.opencv;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.opencv.core.Core;
+import org.opencv.core.Core.MinMaxLocResult;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * Run a full detector every N frames or when the scene changes and track the
+ * people found with template matching in between. Each person is searched for
+ * only in a small window around where they were last frame, which is much
+ * cheaper than HOG. Templates come from the last detection frame, so drift is
+ * bounded by the cadence. On each detection frame the tracked rectangles are
+ * compared with the new detections, so the drift and accuracy cost of the
+ * cadence can be reported.
+ *
+ * @author sgoldsmith
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+final class TrackingPeopleDetector implements PeopleDetector {
+	/**
+	 * Pixels searched around last position on each side.
+	 */
+	private static final int SEARCH_MARGIN = 16;
+	/**
+	 * Minimum normalized correlation to keep tracking a person.
+	 */
+	private static final double MIN_MATCH = 0.5;
+	/**
+	 * Scene change detection image size.
+	 */
+	private static final Size SCENE_SIZE = new Size(80, 60);
+	/**
+	 * Mean absolute difference of scene images that forces detection.
+	 */
+	private static final double SCENE_CHANGE = 20.0;
+	/**
+	 * Intersection over union for a tracked rectangle to match a detection.
+	 */
+	private static final double MATCH_IOU = 0.5;
+	/**
+	 * Full detector.
+	 */
+	private final PeopleDetector detector;
+	/**
+	 * Run detector every cadence frames.
+	 */
+	private final int cadence;
+	/**
+	 * Tracked people.
+	 */
+	private final Detections tracked = new Detections();
+	/**
+	 * Template of each tracked person from last detection frame.
+	 */
+	private final List<Mat> templates = new ArrayList<Mat>();
+	/**
+	 * Grayscale frame.
+	 */
+	private final Mat gray = new Mat();
+	/**
+	 * Small scene image.
+	 */
+	private final Mat scene = new Mat();
+	/**
+	 * Small scene image of last detection frame.
+	 */
+	private final Mat keyScene = new Mat();
+	/**
+	 * Scene difference.
+	 */
+	private final Mat sceneDiff = new Mat();
+	/**
+	 * Template match result.
+	 */
+	private final Mat result = new Mat();
+	/**
+	 * Native Mat tracker or null for none.
+	 */
+	private MatTracker tracker;
+	/**
+	 * Search window.
+	 */
+	private final Rect search = new Rect();
+	/**
+	 * Template region.
+	 */
+	private final Rect region = new Rect();
+	/**
+	 * Keep flag for each tracked person.
+	 */
+	private boolean[] keep = new boolean[0];
+	/**
+	 * Frames since last detection.
+	 */
+	private int sinceDetection;
+	/**
+	 * Frames processed.
+	 */
+	private long frames;
+	/**
+	 * Frames the full detector ran on.
+	 */
+	private long detectionFrames;
+	/**
+	 * Detections forced by scene change.
+	 */
+	private long sceneChanges;
+	/**
+	 * Tracks dropped because the match was too weak.
+	 */
+	private long lostTracks;
+	/**
+	 * Detections compared with tracked rectangles.
+	 */
+	private long compared;
+	/**
+	 * Detections matched by a tracked rectangle.
+	 */
+	private long matched;
+	/**
+	 * Sum of best intersection over union of compared detections.
+	 */
+	private double iouSum;
+
+	/**
+	 * Create tracking detector.
+	 *
+	 * @param detector
+	 *            Full detector.
+	 * @param cadence
+	 *            Run detector every cadence frames.
+	 */
+	public TrackingPeopleDetector(final PeopleDetector detector, final int cadence) {
+		if (cadence < 1) {
+			throw new IllegalArgumentException("Cadence must be at least 1");
+		}
+		this.detector = detector;
+		this.cadence = cadence;
+	}
+
+	@Override
+	public int detect(final Mat frame) {
+		frames++;
+		Imgproc.cvtColor(frame, gray, Imgproc.COLOR_BGR2GRAY);
+		Imgproc.resize(gray, scene, SCENE_SIZE, 0, 0, Imgproc.INTER_AREA);
+		boolean detect = keyScene.empty() || sinceDetection >= cadence - 1;
+		if (!detect) {
+			Core.absdiff(scene, keyScene, sceneDiff);
+			if (Core.mean(sceneDiff).val[0] > SCENE_CHANGE) {
+				sceneChanges++;
+				detect = true;
+			}
+		}
+		if (detect) {
+			// Track up to this frame, so drift can be measured
+			if (tracked.getCount() > 0) {
+				track();
+			}
+			redetect(frame);
+		} else {
+			track();
+			sinceDetection++;
+		}
+		return tracked.getCount();
+	}
+
+	/**
+	 * Run full detector, measure drift and take new templates.
+	 *
+	 * @param frame
+	 *            Frame.
+	 */
+	private void redetect(final Mat frame) {
+		detector.detect(frame);
+		detectionFrames++;
+		final Detections detections = detector.getDetections();
+		if (detectionFrames > 1) {
+			measure(detections);
+		}
+		tracked.copyFrom(detections);
+		final int count = tracked.getCount();
+		if (keep.length < count) {
+			keep = new boolean[count];
+		}
+		final int[] rects = tracked.getRects();
+		for (int i = 0; i < count; i++) {
+			if (templates.size() <= i) {
+				final Mat template = new Mat();
+				if (tracker != null) {
+					tracker.track(template);
+				}
+				templates.add(template);
+			}
+			// Rectangle and template are the same size inside the frame
+			clip(rects, i * Contours.RECT_INTS, region);
+			// Outside frame, no template to track
+			keep[i] = region.width > 0 && region.height > 0;
+			if (!keep[i]) {
+				continue;
+			}
+			final Mat roi = gray.submat(region);
+			// Reuses template memory if size is unchanged
+			roi.copyTo(templates.get(i));
+			roi.free();
+		}
+		retainKept(count);
+		scene.copyTo(keyScene);
+		sinceDetection = 0;
+	}
+
+	/**
+	 * Compare tracked rectangles with new detections.
+	 *
+	 * @param detections
+	 *            New detections.
+	 */
+	private void measure(final Detections detections) {
+		final int[] rects = detections.getRects();
+		final int[] trackedRects = tracked.getRects();
+		for (int i = 0; i < detections.getCount(); i++) {
+			double best = 0.0;
+			for (int j = 0; j < tracked.getCount(); j++) {
+				best = Math.max(best, Rects.iou(rects, i * Contours.RECT_INTS, trackedRects,
+						j * Contours.RECT_INTS));
+			}
+			compared++;
+			iouSum += best;
+			if (best >= MATCH_IOU) {
+				matched++;
+			}
+		}
+	}
+
+	/**
+	 * Move each tracked rectangle to the best template match near its last
+	 * position and drop weak matches.
+	 */
+	private void track() {
+		final int count = tracked.getCount();
+		if (keep.length < count) {
+			keep = new boolean[count];
+		}
+		final int[] rects = tracked.getRects();
+		for (int i = 0; i < count; i++) {
+			final int j = i * Contours.RECT_INTS;
+			final Mat template = templates.get(i);
+			search.x = Math.max(0, rects[j] - SEARCH_MARGIN);
+			search.y = Math.max(0, rects[j + 1] - SEARCH_MARGIN);
+			search.width = Math.min(gray.cols(), rects[j] + rects[j + 2] + SEARCH_MARGIN) - search.x;
+			search.height = Math.min(gray.rows(), rects[j + 1] + rects[j + 3] + SEARCH_MARGIN) - search.y;
+			final Mat searchMat = gray.submat(search);
+			Imgproc.matchTemplate(searchMat, template, result, Imgproc.TM_CCOEFF_NORMED);
+			searchMat.free();
+			final MinMaxLocResult minMax = Core.minMaxLoc(result);
+			keep[i] = minMax.maxVal >= MIN_MATCH;
+			if (keep[i]) {
+				rects[j] = search.x + (int) minMax.maxLoc.x;
+				rects[j + 1] = search.y + (int) minMax.maxLoc.y;
+			} else {
+				lostTracks++;
+			}
+		}
+		retainKept(count);
+	}
+
+	/**
+	 * Drop tracks not kept and their templates, keeping order in sync.
+	 * Dropped templates move to the end for reuse.
+	 *
+	 * @param count
+	 *            Tracks before drop.
+	 */
+	private void retainKept(final int count) {
+		int n = 0;
+		for (int i = 0; i < count; i++) {
+			if (keep[i]) {
+				if (n != i) {
+					final Mat template = templates.get(n);
+					templates.set(n, templates.get(i));
+					templates.set(i, template);
+				}
+				n++;
+			}
+		}
+		tracked.retain(keep);
+	}
+
+	/**
+	 * Clip packed rectangle to gray frame.
+	 *
+	 * @param rects
+	 *            Rectangles. Rectangle at offset is clipped in place.
+	 * @param offset
+	 *            Offset of rectangle.
+	 * @param rect
+	 *            Clipped rectangle. This value is modified.
+	 */
+	private void clip(final int[] rects, final int offset, final Rect rect) {
+		rect.x = Math.max(0, rects[offset]);
+		rect.y = Math.max(0, rects[offset + 1]);
+		rect.width = Math.min(gray.cols(), rects[offset] + rects[offset + 2]) - rect.x;
+		rect.height = Math.min(gray.rows(), rects[offset + 1] + rects[offset + 3]) - rect.y;
+		rects[offset] = rect.x;
+		rects[offset + 1] = rect.y;
+		rects[offset + 2] = rect.width;
+		rects[offset + 3] = rect.height;
+	}
+
+	@Override
+	public Detections getDetections() {
+		return tracked;
+	}
+
+	/**
+	 * Run detector every cadence frames.
+	 *
+	 * @return Cadence.
+	 */
+	public int getCadence() {
+		return cadence;
+	}
+
+	/**
+	 * Frames the full detector ran on.
+	 *
+	 * @return Detection frames.
+	 */
+	public long getDetectionFrames() {
+		return detectionFrames;
+	}
+
+	/**
+	 * Detections forced by scene change.
+	 *
+	 * @return Scene changes.
+	 */
+	public long getSceneChanges() {
+		return sceneChanges;
+	}
+
+	/**
+	 * Tracks dropped because the match was too weak.
+	 *
+	 * @return Lost tracks.
+	 */
+	public long getLostTracks() {
+		return lostTracks;
+	}
+
+	/**
+	 * Mean best intersection over union of new detections with tracked
+	 * rectangles. 1.0 means no drift.
+	 *
+	 * @return Mean intersection over union.
+	 */
+	public double getMeanIou() {
+		return compared == 0 ? 1.0 : iouSum / compared;
+	}
+
+	/**
+	 * Fraction of new detections matched by a tracked rectangle.
+	 *
+	 * @return Fraction from 0.0 to 1.0.
+	 */
+	public double getMatchRate() {
+		return compared == 0 ? 1.0 : (double) matched / compared;
+	}
+
+	/**
+	 * Frames processed.
+	 *
+	 * @return Frames.
+	 */
+	public long getFrames() {
+		return frames;
+	}
+
+	@Override
+	public void setTracker(final MatTracker tracker) {
+		this.tracker = tracker;
+		detector.setTracker(tracker);
+		tracker.trackAll(gray, scene, keyScene, sceneDiff, result);
+		tracker.trackAll(templates.toArray(new Mat[templates.size()]));
+	}
+
+	@Override
+	public void free() {
+		detector.free();
+		if (tracker != null) {
+			tracker.untrackAll(templates.toArray(new Mat[templates.size()]));
+			tracker.untrackAll(gray, scene, keyScene, sceneDiff, result);
+		}
+		for (final Mat template : templates) {
+			template.free();
+		}
+		gray.free();
+		scene.free();
+		keyScene.free();
+		sceneDiff.free();
+		result.free();
+	}
+}
@@ -6,20 +6,14 @@
  */
 package com.codeferm.opencv;
 
-import java.io.IOException;
 import java.util.logging.Level;
-import java.util.logging.LogManager;
 import java.util.logging.Logger;
 
 import org.opencv.core.Core;
-import org.opencv.core.Mat;
-import org.opencv.core.Size;
-import org.opencv.videoio.VideoCapture;
-import org.opencv.videoio.VideoWriter;
-import org.opencv.videoio.Videoio;
 
 /**
- * Example of VideoWriter class.
+ * Example of VideoWriter class. Runs a FramePipeline with no stages, so
+ * frames are decoded and encoded on separate threads.
  *
  * args[0] = source file or will default to "../resources/traffic.mp4" if no
  * args passed.
@@ -57,8 +51,10 @@ final class Writer {
 	 *
 	 * @param args
 	 *            Arguments passed.
+	 * @throws InterruptedException
+	 *             Possible exception.
 	 */
-	public static void main(final String[] args) {
+	public static void main(final String[] args) throws InterruptedException {
 		String url = null;
 		final String outputFile = "../output/writer-java.avi";
 		// Check how many arguments were passed in
@@ -69,37 +65,14 @@ final class Writer {
 		} else {
 			url = args[0];
 		}
-		// Custom logging properties via class loader
-		try {
-			LogManager.getLogManager()
-					.readConfiguration(Writer.class.getClassLoader().getResourceAsStream("logging.properties"));
-		} catch (SecurityException | IOException e) {
-			e.printStackTrace();
-		}
+		// Custom logging properties via class loader, read once per JVM
+		Launcher.configureLogging();
 		logger.log(Level.INFO, String.format("OpenCV %s", Core.VERSION));
-		logger.log(Level.INFO, String.format("Input file: %s", url));
-		logger.log(Level.INFO, String.format("Output file: %s", outputFile));
-		VideoCapture videoCapture = new VideoCapture(url);
-		final Size frameSize = new Size((int) videoCapture.get(Videoio.CAP_PROP_FRAME_WIDTH),
-				(int) videoCapture.get(Videoio.CAP_PROP_FRAME_HEIGHT));
-		logger.log(Level.INFO, String.format("Resolution: %s", frameSize));
-		final FourCC fourCC = new FourCC("X264");
-		VideoWriter videoWriter = new VideoWriter(outputFile, fourCC.toInt(), videoCapture.get(Videoio.CAP_PROP_FPS),
-				frameSize, true);
-		final Mat mat = new Mat();
-		int frames = 0;
-		final long startTime = System.currentTimeMillis();
-		while (videoCapture.read(mat)) {
-			videoWriter.write(mat);
-			frames++;
-		}
-		final long estimatedTime = System.currentTimeMillis() - startTime;
-		final double seconds = (double) estimatedTime / 1000;
-		logger.log(Level.INFO, String.format("%d frames", frames));
-		logger.log(Level.INFO, String.format("%4.1f FPS, elapsed time: %4.2f seconds", frames / seconds, seconds));
+		final FrameSource source = new FrameSource(url);
+		final FramePipeline pipeline = new FramePipeline(source,
+				new FrameSink(outputFile, source.getFps(), source.getFrameSize()), FramePipeline.DEFAULT_RING_SIZE);
+		pipeline.run();
 		// Release native memory
-		videoCapture.free();
-		videoWriter.free();
-		mat.free();
+		pipeline.free();
 	}
 }